@@ -0,0 +1,119 @@
+package plc.project;
+
+import java.math.BigInteger;
+
+/**
+ * Rewrites binary expressions using algebraic identities such as {@code x + 0},
+ * {@code x * 1} and {@code TRUE AND x}. Identities that drop an operand are
+ * only applied when the operand's type is known from the analyzer, since
+ * {@code x + 0} is a concatenation if {@code x} is a string and {@code x AND
+ * TRUE} fails at runtime if {@code x} is not a boolean. Identities that drop
+ * an operand without evaluating it, such as {@code x * 0}, additionally
+ * require that operand to be free of side effects.
+ */
+public final class AlgebraicSimplification implements Optimizer.Pass {
+
+    @Override
+    public String getName() {
+        return "algebraic-simplification";
+    }
+
+    @Override
+    public Ast.Source apply(Ast.Source source, Optimizer.Statistics.Entry entry) {
+        Simplifier simplifier = new Simplifier();
+        Ast.Source result = (Ast.Source) simplifier.visit(source);
+        entry.count("simplified", simplifier.getChanges());
+        return result;
+    }
+
+    private static final class Simplifier extends Rewriter {
+
+        @Override
+        public Ast visit(Ast.Expr.Binary ast) {
+            Ast.Expr.Binary binary = (Ast.Expr.Binary) super.visit(ast);
+            Ast.Expr result = simplify(binary);
+            if (result != binary) {
+                changed();
+            }
+            return result;
+        }
+
+        private Ast.Expr simplify(Ast.Expr.Binary ast) {
+            Ast.Expr left = ast.getLeft();
+            Ast.Expr right = ast.getRight();
+            switch (ast.getOperator()) {
+                case "AND":
+                    if (is(left, true) && isTyped(right, Environment.Type.BOOLEAN)) {
+                        return right;
+                    } else if (is(right, true) && isTyped(left, Environment.Type.BOOLEAN)) {
+                        return left;
+                    } else if (is(left, false) && isSideEffectFree(right)) {
+                        // The interpreter evaluates both sides of AND, so the
+                        // right side may only be dropped if it is pure.
+                        return left;
+                    } else if (is(right, false) && isTyped(left, Environment.Type.BOOLEAN) && isSideEffectFree(left)) {
+                        return right;
+                    }
+                    break;
+                case "OR":
+                    if (is(left, true)) {
+                        // OR short-circuits in both backends.
+                        return left;
+                    } else if (is(left, false) && isTyped(right, Environment.Type.BOOLEAN)) {
+                        return right;
+                    } else if (is(right, false) && isTyped(left, Environment.Type.BOOLEAN)) {
+                        return left;
+                    } else if (is(right, true) && isTyped(left, Environment.Type.BOOLEAN) && isSideEffectFree(left)) {
+                        return right;
+                    }
+                    break;
+                case "+":
+                    if (is(right, BigInteger.ZERO) && isTyped(left, Environment.Type.INTEGER)) {
+                        return left;
+                    } else if (is(left, BigInteger.ZERO) && isTyped(right, Environment.Type.INTEGER)) {
+                        return right;
+                    } else if (is(right, "") && isTyped(left, Environment.Type.STRING)) {
+                        return left;
+                    } else if (is(left, "") && isTyped(right, Environment.Type.STRING)) {
+                        return right;
+                    }
+                    break;
+                case "-":
+                    if (is(right, BigInteger.ZERO) && isTyped(left, Environment.Type.INTEGER)) {
+                        return left;
+                    }
+                    break;
+                case "*":
+                    if (is(right, BigInteger.ONE) && isTyped(left, Environment.Type.INTEGER)) {
+                        return left;
+                    } else if (is(left, BigInteger.ONE) && isTyped(right, Environment.Type.INTEGER)) {
+                        return right;
+                    } else if (is(right, BigInteger.ZERO) && isTyped(left, Environment.Type.INTEGER) && isSideEffectFree(left)) {
+                        return right;
+                    } else if (is(left, BigInteger.ZERO) && isTyped(right, Environment.Type.INTEGER) && isSideEffectFree(right)) {
+                        return left;
+                    }
+                    break;
+                case "/":
+                    if (is(right, BigInteger.ONE) && isTyped(left, Environment.Type.INTEGER)) {
+                        return left;
+                    }
+                    break;
+            }
+            return ast;
+        }
+
+        private static boolean is(Ast.Expr expr, Object value) {
+            return expr instanceof Ast.Expr.Literal && value.equals(((Ast.Expr.Literal) expr).getLiteral());
+        }
+
+        private static boolean isTyped(Ast.Expr expr, Environment.Type type) {
+            Environment.Type actual = expr instanceof Ast.Expr.Literal
+                    ? literalType(((Ast.Expr.Literal) expr).getLiteral())
+                    : Ast.typeOf(expr);
+            return type.equals(actual);
+        }
+
+    }
+
+}
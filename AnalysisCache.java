@@ -0,0 +1,408 @@
+package plc.project;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caches the results of analyzing method bodies, so the {@link Analyzer} only
+ * re-checks the methods affected by an edit. An entry records the annotations
+ * of every node of a body: the types of expressions and the variables and
+ * functions accesses, declarations and calls were bound to.
+ *
+ * Entries are keyed by the fingerprint of the method together with what its
+ * body depends on outside of itself: the variables and functions visible by
+ * each name it accesses or calls, with their types and signatures. Editing a
+ * method therefore only invalidates its own entry, and changing a field type
+ * or method signature only invalidates the entries of methods using it.
+ *
+ * Bindings are recorded symbolically (a global by name, a member by type and
+ * name, a local by number) and rebound to the objects of the current analysis
+ * when replayed, which allows entries to be saved and loaded across runs. The
+ * cache is safe to use from concurrent analyzers.
+ */
+public final class AnalysisCache {
+
+    private static final int MAGIC = 0x504C4341;
+    private static final int VERSION = 1;
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the key of a method body analyzed in the given scope, which is
+     * the scope the method is defined in.
+     */
+    long key(Ast.Method method, Scope scope) {
+        TreeSet<String> dependencies = new TreeSet<>();
+        new Traversal.Walk() {
+
+            @Override
+            protected boolean enter(Ast ast) {
+                if (ast instanceof Ast.Expr.Access && !((Ast.Expr.Access) ast).getReceiver().isPresent()) {
+                    String name = ((Ast.Expr.Access) ast).getName();
+                    Environment.Variable variable = lookupVariable(scope, name);
+                    dependencies.add("variable " + name + (variable == null ? "" : " " + variable.getJvmName() + ": " + nameOf(variable.getType())));
+                } else if (ast instanceof Ast.Expr.Function && !((Ast.Expr.Function) ast).getReceiver().isPresent()) {
+                    Ast.Expr.Function call = (Ast.Expr.Function) ast;
+                    Environment.Function function = lookupFunction(scope, call.getName(), call.getArguments().size());
+                    StringBuilder dependency = new StringBuilder("function " + call.getName() + "/" + call.getArguments().size());
+                    if (function != null) {
+                        dependency.append(" ").append(function.getJvmName()).append("(");
+                        for (Environment.Type type : function.getParameterTypes()) {
+                            dependency.append(nameOf(type)).append(",");
+                        }
+                        dependency.append("): ").append(nameOf(function.getReturnType()));
+                    }
+                    dependencies.add(dependency.toString());
+                }
+                return true;
+            }
+
+        }.walk(method);
+        return Ast.fingerprint(16, method.getFingerprint(), new ArrayList<>(dependencies));
+    }
+
+    /**
+     * Annotates the body of the method with the results cached under the key,
+     * returning false if there are none (or they no longer apply).
+     */
+    boolean replay(long key, Ast.Method method, Scope scope) {
+        Entry entry = entries.get(key);
+        List<Ast> nodes = annotated(method);
+        if (entry == null || entry.annotations.size() != nodes.size()) {
+            misses.incrementAndGet();
+            return false;
+        }
+        List<Object> values = new ArrayList<>();
+        try {
+            List<Environment.Variable> locals = new ArrayList<>();
+            for (Local local : entry.locals) {
+                locals.add(new Environment.Variable(local.name, local.jvmName, type(local.type), Environment.NIL));
+            }
+            for (Annotation annotation : entry.annotations) {
+                values.add(annotation.resolve(scope, locals));
+            }
+        } catch (RuntimeException e) {
+            misses.incrementAndGet();
+            return false;
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            Ast node = nodes.get(i);
+            Object value = values.get(i);
+            if (node instanceof Ast.Stmt.Declaration) {
+                ((Ast.Stmt.Declaration) node).setVariable((Environment.Variable) value);
+            } else if (node instanceof Ast.Expr.Access) {
+                ((Ast.Expr.Access) node).setVariable((Environment.Variable) value);
+            } else if (node instanceof Ast.Expr.Function) {
+                ((Ast.Expr.Function) node).setFunction((Environment.Function) value);
+            } else if (node instanceof Ast.Expr.Literal) {
+                ((Ast.Expr.Literal) node).setType((Environment.Type) value);
+            } else if (node instanceof Ast.Expr.Group) {
+                ((Ast.Expr.Group) node).setType((Environment.Type) value);
+            } else {
+                ((Ast.Expr.Binary) node).setType((Environment.Type) value);
+            }
+        }
+        for (Ast node : nodes) {
+            if (node instanceof Ast.Expr.Binary) {
+                // Operations follow from the types of the operands, which are
+                // only all set once every node has been annotated.
+                Ast.Expr.Binary binary = (Ast.Expr.Binary) node;
+                binary.setOperation(Operation.of(binary.getOperator(), Ast.typeOf(binary.getLeft()), Ast.typeOf(binary.getRight())));
+            }
+        }
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Records the annotations of a successfully analyzed method body. Bodies
+     * bound to objects the cache cannot describe, such as unregistered types,
+     * are not recorded.
+     */
+    void record(long key, Ast.Method method, Scope scope) {
+        Map<Environment.Variable, Integer> numbers = new IdentityHashMap<>();
+        List<Local> locals = new ArrayList<>();
+        List<Annotation> annotations = new ArrayList<>();
+        try {
+            for (Ast node : annotated(method)) {
+                Object value = node instanceof Ast.Expr.Function ? ((Ast.Expr.Function) node).getFunction()
+                        : node instanceof Ast.Stmt.Declaration || node instanceof Ast.Expr.Access ? Ast.variableOf(node)
+                        : Ast.typeOf((Ast.Expr) node);
+                Annotation annotation = describe(node, value, scope);
+                if (annotation == null) {
+                    Environment.Variable variable = (Environment.Variable) value;
+                    Integer number = numbers.get(variable);
+                    if (number == null) {
+                        number = locals.size();
+                        numbers.put(variable, number);
+                        locals.add(new Local(variable.getName(), variable.getJvmName(), typeName(variable.getType())));
+                    }
+                    annotation = new Annotation(Kind.LOCAL_VARIABLE, null, null, number);
+                } else if (annotation.resolve(scope, null) != value) {
+                    // The annotation would not be replayed as the same object.
+                    return;
+                }
+                annotations.add(annotation);
+            }
+        } catch (RuntimeException e) {
+            return;
+        }
+        entries.put(key, new Entry(locals, annotations));
+    }
+
+    /**
+     * Describes the annotation of a node, or returns null if it is a local
+     * variable.
+     */
+    private static Annotation describe(Ast node, Object value, Scope scope) {
+        if (node instanceof Ast.Expr.Function) {
+            Ast.Expr.Function call = (Ast.Expr.Function) node;
+            if (call.getReceiver().isPresent()) {
+                return new Annotation(Kind.MEMBER_FUNCTION, typeName(Ast.typeOf(call.getReceiver().get())), call.getName(), call.getArguments().size());
+            }
+            return new Annotation(Kind.GLOBAL_FUNCTION, null, call.getName(), call.getArguments().size());
+        } else if (node instanceof Ast.Expr.Access) {
+            Ast.Expr.Access access = (Ast.Expr.Access) node;
+            if (access.getReceiver().isPresent()) {
+                return new Annotation(Kind.MEMBER_VARIABLE, typeName(Ast.typeOf(access.getReceiver().get())), access.getName(), 0);
+            } else if (value == lookupVariable(scope, access.getName())) {
+                return new Annotation(Kind.GLOBAL_VARIABLE, null, access.getName(), 0);
+            }
+            return null;
+        } else if (node instanceof Ast.Stmt.Declaration) {
+            return null;
+        }
+        return new Annotation(Kind.TYPE, typeName((Environment.Type) value), null, 0);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Writes the entries of the cache to the stream, which is not closed.
+     */
+    public void save(OutputStream stream) throws IOException {
+        DataOutputStream output = new DataOutputStream(stream);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        Map<Long, Entry> snapshot = new TreeMap<>(entries);
+        output.writeInt(snapshot.size());
+        for (Map.Entry<Long, Entry> entry : snapshot.entrySet()) {
+            output.writeLong(entry.getKey());
+            output.writeInt(entry.getValue().locals.size());
+            for (Local local : entry.getValue().locals) {
+                output.writeUTF(local.name);
+                output.writeUTF(local.jvmName);
+                writeNullable(output, local.type);
+            }
+            output.writeInt(entry.getValue().annotations.size());
+            for (Annotation annotation : entry.getValue().annotations) {
+                output.writeByte(annotation.kind.ordinal());
+                writeNullable(output, annotation.type);
+                writeNullable(output, annotation.name);
+                output.writeInt(annotation.number);
+            }
+        }
+        output.flush();
+    }
+
+    /**
+     * Reads entries written by {@link #save(OutputStream)} into the cache,
+     * which is not closed.
+     */
+    public void load(InputStream stream) throws IOException {
+        DataInputStream input = new DataInputStream(stream);
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            throw new IOException("Unsupported analysis cache format.");
+        }
+        int count = input.readInt();
+        for (int i = 0; i < count; i++) {
+            long key = input.readLong();
+            List<Local> locals = new ArrayList<>();
+            for (int j = input.readInt(); j > 0; j--) {
+                locals.add(new Local(input.readUTF(), input.readUTF(), readNullable(input)));
+            }
+            List<Annotation> annotations = new ArrayList<>();
+            for (int j = input.readInt(); j > 0; j--) {
+                int kind = input.readByte();
+                if (kind < 0 || kind >= Kind.values().length) {
+                    throw new IOException("Unsupported analysis cache format.");
+                }
+                annotations.add(new Annotation(Kind.values()[kind], readNullable(input), readNullable(input), input.readInt()));
+            }
+            entries.put(key, new Entry(locals, annotations));
+        }
+    }
+
+    private static void writeNullable(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    /**
+     * Returns the nodes of the method body that carry annotations, in a fixed
+     * order.
+     */
+    private static List<Ast> annotated(Ast.Method method) {
+        List<Ast> nodes = new ArrayList<>();
+        new Traversal.Walk() {
+
+            @Override
+            protected boolean enter(Ast ast) {
+                if (ast instanceof Ast.Stmt.Declaration || ast instanceof Ast.Expr) {
+                    nodes.add(ast);
+                }
+                return true;
+            }
+
+        }.walk(method);
+        return nodes;
+    }
+
+    private static Environment.Variable lookupVariable(Scope scope, String name) {
+        try {
+            return scope.lookupVariable(name);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Environment.Function lookupFunction(Scope scope, String name, int arity) {
+        try {
+            return scope.lookupFunction(name, arity);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the name of a type, checking that the type is registered under
+     * that name.
+     */
+    private static String typeName(Environment.Type type) {
+        if (type == null) {
+            return null;
+        } else if (type(type.getName()) != type) {
+            throw new IllegalStateException("Unregistered type " + type.getName() + ".");
+        }
+        return type.getName();
+    }
+
+    private static String nameOf(Environment.Type type) {
+        return type == null ? null : type.getName();
+    }
+
+    private static Environment.Type type(String name) {
+        return name == null ? null : Environment.getType(name);
+    }
+
+    private enum Kind {
+        TYPE,
+        GLOBAL_VARIABLE,
+        MEMBER_VARIABLE,
+        LOCAL_VARIABLE,
+        GLOBAL_FUNCTION,
+        MEMBER_FUNCTION
+    }
+
+    private static final class Entry {
+
+        private final List<Local> locals;
+        private final List<Annotation> annotations;
+
+        private Entry(List<Local> locals, List<Annotation> annotations) {
+            this.locals = locals;
+            this.annotations = annotations;
+        }
+
+    }
+
+    /**
+     * A variable created while analyzing the body, such as a parameter.
+     */
+    private static final class Local {
+
+        private final String name;
+        private final String jvmName;
+        private final String type;
+
+        private Local(String name, String jvmName, String type) {
+            this.name = name;
+            this.jvmName = jvmName;
+            this.type = type;
+        }
+
+    }
+
+    /**
+     * The annotation of one node: a type, or a variable or function bound by
+     * name (global), by type and name (member) or by number (local).
+     */
+    private static final class Annotation {
+
+        private final Kind kind;
+        private final String type;
+        private final String name;
+        private final int number;
+
+        private Annotation(Kind kind, String type, String name, int number) {
+            this.kind = kind;
+            this.type = type;
+            this.name = name;
+            this.number = number;
+        }
+
+        private Object resolve(Scope scope, List<Environment.Variable> locals) {
+            switch (kind) {
+                case TYPE:
+                    return type(type);
+                case GLOBAL_VARIABLE:
+                    return scope.lookupVariable(name);
+                case MEMBER_VARIABLE:
+                    return type(type).getField(name);
+                case LOCAL_VARIABLE:
+                    return locals.get(number);
+                case GLOBAL_FUNCTION:
+                    return scope.lookupFunction(name, number);
+                case MEMBER_FUNCTION:
+                    return type(type).getMethod(name, number);
+                default:
+                    throw new AssertionError(kind);
+            }
+        }
+
+    }
+
+}
@@ -4,24 +4,68 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 /**
  * See the specification for information about what the different visit
  * methods should do.
+ *
+ * Given an executor, the analyzer checks sources in two phases: fields and
+ * method signatures are first defined in order, then the method bodies are
+ * checked concurrently, each by an analyzer of its own. The body of a method
+ * only sees the methods defined before it (and itself), as when checking
+ * sequentially, and the first error in source order is reported, so results
+ * and errors are the same as those of the sequential analyzer.
  */
 public final class Analyzer implements Ast.Visitor<Void> {
 
     public Scope scope;
     private Ast.Method method;
     private Environment.Type returnValue;
+    private final ExecutorService executor;
+    private final AnalysisCache cache;
 
     public Analyzer(Scope parent) {
+        this(parent, null, null);
+    }
+
+    /**
+     * Creates an analyzer checking method bodies on the given executor, or
+     * sequentially if it is null. The executor is not shut down.
+     */
+    public Analyzer(Scope parent, ExecutorService executor) {
+        this(parent, executor, null);
+    }
+
+    /**
+     * Creates an analyzer which also reuses the results of analyzing method
+     * bodies that are unchanged since they were stored in the cache, and
+     * stores those of the others.
+     */
+    public Analyzer(Scope parent, ExecutorService executor, AnalysisCache cache) {
+        this.executor = executor;
+        this.cache = cache;
         scope = new Scope(parent);
         scope.defineFunction("print", "System.out.println", Arrays.asList(Environment.Type.ANY), Environment.Type.NIL, args -> Environment.NIL);
     }
 
+    /**
+     * Creates the analyzer checking the body of a method in the given scope,
+     * during the second phase of a concurrent analysis.
+     */
+    private Analyzer(Ast.Method method, Scope scope, AnalysisCache cache) {
+        this.executor = null;
+        this.cache = cache;
+        this.method = method;
+        this.scope = scope;
+    }
+
     public Scope getScope() {
         return scope;
     }
@@ -37,6 +81,10 @@ public final class Analyzer implements Ast.Visitor<Void> {
             visit(field);
         }
 
+        if (executor != null) {
+            visitMethodsConcurrently(ast.getMethods());
+            return null;
+        }
         for (Ast.Method method : ast.getMethods()) {
             visit(method);
         }
@@ -44,6 +92,57 @@ public final class Analyzer implements Ast.Visitor<Void> {
         return null;
     }
 
+    private void visitMethodsConcurrently(List<Ast.Method> methods) {
+        // Phase 1: define signatures in order, stopping at the first error
+        // as the sequential analyzer would.
+        RuntimeException signatureError = null;
+        int defined = 0;
+        for (Ast.Method method : methods) {
+            try {
+                defineMethod(method);
+            } catch (RuntimeException e) {
+                signatureError = e;
+                break;
+            }
+            defined++;
+        }
+
+        // Phase 2: check the bodies, each hiding the methods defined after it.
+        List<Future<?>> bodies = new ArrayList<>();
+        for (int i = 0; i < defined; i++) {
+            Set<String> later = new HashSet<>();
+            for (Ast.Method method : methods.subList(i + 1, defined)) {
+                later.add(method.getName() + "/" + method.getParameters().size());
+            }
+            Analyzer analyzer = new Analyzer(methods.get(i), new Scope(scope, later), cache);
+            bodies.add(executor.submit(() -> analyzer.visitBody(analyzer.method)));
+        }
+        try {
+            for (Future<?> body : bodies) {
+                try {
+                    body.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    } else if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while analyzing method bodies.", e);
+                }
+            }
+        } finally {
+            for (Future<?> body : bodies) {
+                body.cancel(true);
+            }
+        }
+        if (signatureError != null) {
+            throw signatureError;
+        }
+    }
+
     @Override
     public Void visit(Ast.Field ast) {
         Ast.Expr expr;
@@ -60,9 +159,13 @@ public final class Analyzer implements Ast.Visitor<Void> {
 
     @Override
     public Void visit(Ast.Method ast) {
+        defineMethod(ast);
+        visitBody(ast);
+        return null;
+    }
+
+    private void defineMethod(Ast.Method ast) {
         String name = ast.getName();
-        List<String> params = ast.getParameters();
-        List<Ast.Stmt> statements = ast.getStatements();
         List<String> typeString = ast.getParameterTypeNames();
         List<Environment.Type> types = new ArrayList<>();
 
@@ -79,16 +182,35 @@ public final class Analyzer implements Ast.Visitor<Void> {
         // Define Function
         Environment.Function function = scope.defineFunction(name, name, types, Environment.getType(returnType), args -> Environment.NIL);
         ast.setFunction(function);
+    }
+
+    private void visitBody(Ast.Method ast) {
+        long key = 0;
+        if (cache != null) {
+            key = cache.key(ast, scope);
+            if (cache.replay(key, ast, scope)) {
+                return;
+            }
+        }
+
+        List<String> params = ast.getParameters();
+        List<Ast.Stmt> statements = ast.getStatements();
+        List<Environment.Type> types = ast.getFunction().getParameterTypes();
 
         returnValue = ast.getFunction().getReturnType();
 
         scope = new Scope(scope);
+        for (int i = 0; i < params.size(); i++) {
+            scope.defineVariable(params.get(i), params.get(i), types.get(i), Environment.NIL);
+        }
         for (Ast.Stmt statement : statements) {
             visit(statement);
         }
         scope = scope.getParent();
 
-        return null;
+        if (cache != null) {
+            cache.record(key, ast, scope);
+        }
     }
 
     @Override
@@ -215,6 +337,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
 
     @Override
     public Void visit(Ast.Stmt.Return ast) {
+        visit(ast.getValue());
         Environment.Type type = ast.getValue().getType();
         requireAssignable(returnValue, type);
 
@@ -315,6 +438,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
             default:
                 throw new RuntimeException("Error: Unexpected Binary Operator");
         }
+        ast.setOperation(Operation.of(op, left.getType(), right.getType()));
         return null;
     }
 
@@ -367,27 +491,18 @@ public final class Analyzer implements Ast.Visitor<Void> {
         return null;
     }
 
+    /**
+     * Checks that a value of the given type can be assigned to the target
+     * type, which for registered types is a single lookup in the supertype
+     * set of the type (see {@link Environment.Type#isSubtypeOf}).
+     */
     public static void requireAssignable(Environment.Type target, Environment.Type type) {
-        if (target.equals(type)) {
-            // Matching type.
-        } else if (target.equals(Environment.Type.ANY)) {
-            // target is ANY
+        if (target == Environment.Type.ANY || type != null && type.isSubtypeOf(target)) {
+            return;
         } else if (target.equals(Environment.Type.COMPARABLE)) {
-            // Comparable
-            if (type.equals(Environment.Type.INTEGER)) {
-
-            } else if (type.equals(Environment.Type.DECIMAL)) {
-
-            } else if (type.equals(Environment.Type.CHARACTER)) {
-
-            } else if (type.equals(Environment.Type.STRING)) {
-
-            } else {
-                throw new RuntimeException("Right Hand Side not a Comparable type.");
-            }
-        } else {
-            throw new RuntimeException("Types are not compatible.");
+            throw new RuntimeException("Right Hand Side not a Comparable type.");
         }
+        throw new RuntimeException("Types are not compatible.");
     }
 
 }
@@ -11,6 +11,90 @@ import java.util.Optional;
  */
 public abstract class Ast {
 
+    private volatile long fingerprint = 0;
+
+    /**
+     * Returns a structural fingerprint of this subtree. The fingerprint only
+     * covers the syntax of the tree (names, operators, literals and children),
+     * never the annotations set by the analyzer, and is computed once on first
+     * use. Nodes are treated as immutable once fingerprinted, so the statement
+     * and argument lists of a node must not be modified afterwards.
+     *
+     * Structurally equal trees always have equal fingerprints, which makes the
+     * fingerprint suitable as a hash code and as a constant-time rejection test
+     * in {@link #equals(Object)}.
+     */
+    public final long getFingerprint() {
+        if (fingerprint == 0) {
+            // Fingerprints are computed bottom-up without recursion, so that
+            // computing one only needs the cached fingerprints of children.
+            new Traversal.Walk() {
+
+                @Override
+                protected boolean enter(Ast ast) {
+                    return ast.fingerprint == 0;
+                }
+
+                @Override
+                protected void exit(Ast ast) {
+                    if (ast.fingerprint == 0) {
+                        long result = ast.computeFingerprint();
+                        // 0 is reserved to mean "not yet computed".
+                        ast.fingerprint = result == 0 ? 1 : result;
+                    }
+                }
+
+            }.walk(this);
+        }
+        return fingerprint;
+    }
+
+    abstract long computeFingerprint();
+
+    @Override
+    public final int hashCode() {
+        return Long.hashCode(getFingerprint());
+    }
+
+    /**
+     * Combines the given parts into a fingerprint, starting from a seed unique
+     * to the node class. Parts may be nested {@link Ast}s (using their cached
+     * fingerprint), lists, optionals, strings or literal values.
+     */
+    static long fingerprint(long seed, Object... parts) {
+        long hash = seed;
+        for (Object part : parts) {
+            hash = mix(hash, fingerprintOf(part));
+        }
+        return hash;
+    }
+
+    private static long fingerprintOf(Object part) {
+        if (part == null) {
+            return 0x9E3779B97F4A7C15L;
+        } else if (part instanceof Ast) {
+            return ((Ast) part).getFingerprint();
+        } else if (part instanceof List) {
+            long hash = 0x632BE59BD9B4E019L;
+            for (Object element : (List<?>) part) {
+                hash = mix(hash, fingerprintOf(element));
+            }
+            return mix(hash, ((List<?>) part).size());
+        } else if (part instanceof Optional) {
+            Optional<?> optional = (Optional<?>) part;
+            return optional.isPresent() ? mix(0x85EBCA77C2B2AE63L, fingerprintOf(optional.get())) : 0xC2B2AE3D27D4EB4FL;
+        } else {
+            // The class is included since equals distinguishes 1 from 1.0 and 'a' from "a".
+            return mix(part.getClass().getName().hashCode(), part.hashCode());
+        }
+    }
+
+    private static long mix(long hash, long value) {
+        hash ^= value + 0x9E3779B97F4A7C15L + (hash << 6) + (hash >>> 2);
+        hash *= 0xBF58476D1CE4E5B9L;
+        return hash ^ (hash >>> 31);
+    }
+
     public static final class Source extends Ast {
 
         private final List<Field> fields;
@@ -29,9 +113,15 @@ public abstract class Ast {
             return methods;
         }
 
+        @Override
+        long computeFingerprint() {
+            return fingerprint(1, fields, methods);
+        }
+
         @Override
         public boolean equals(Object obj) {
-            return obj instanceof Source &&
+            return obj == this || obj instanceof Source &&
+                    getFingerprint() == ((Source) obj).getFingerprint() &&
                     fields.equals(((Source) obj).fields) &&
                     methods.equals(((Source) obj).methods);
         }
@@ -86,9 +176,15 @@ public abstract class Ast {
             this.variable = variable;
         }
 
+        @Override
+        long computeFingerprint() {
+            return fingerprint(2, name, typeName, value);
+        }
+
         @Override
         public boolean equals(Object obj) {
-            return obj instanceof Field &&
+            return obj == this || obj instanceof Field &&
+                    getFingerprint() == ((Field) obj).getFingerprint() &&
                     name.equals(((Field) obj).name) &&
                     typeName.equals(((Field) obj).typeName) &&
                     value.equals(((Field) obj).value) &&
@@ -115,6 +211,8 @@ public abstract class Ast {
         private final Optional<String> returnTypeName;
         private final List<Stmt> statements;
         private Environment.Function function = null;
+        private Purity purity = null;
+        private Capture capture = null;
 
         public Method(String name, List<String> parameters, List<Stmt> statements) {
             this(name, parameters, new ArrayList<>(), Optional.of("Any"), statements);
@@ -162,9 +260,39 @@ public abstract class Ast {
             this.function = function;
         }
 
+        /**
+         * Returns the purity of the method, if it has been classified by
+         * {@link Purity#analyze(Source)}.
+         */
+        public Optional<Purity> getPurity() {
+            return Optional.ofNullable(purity);
+        }
+
+        public void setPurity(Purity purity) {
+            this.purity = purity;
+        }
+
+        /**
+         * Returns how the scope of a call is allocated, if set by the
+         * {@link Resolver}.
+         */
+        public Optional<Capture> getCapture() {
+            return Optional.ofNullable(capture);
+        }
+
+        public void setCapture(Capture capture) {
+            this.capture = capture;
+        }
+
+        @Override
+        long computeFingerprint() {
+            return fingerprint(3, name, parameters, parameterTypeNames, returnTypeName, statements);
+        }
+
         @Override
         public boolean equals(Object obj) {
-            return obj instanceof Method &&
+            return obj == this || obj instanceof Method &&
+                    getFingerprint() == ((Method) obj).getFingerprint() &&
                     name.equals(((Method) obj).name) &&
                     parameters.equals(((Method) obj).parameters) &&
                     parameterTypeNames.equals(((Method) obj).parameterTypeNames) &&
@@ -201,9 +329,15 @@ public abstract class Ast {
                 return expression;
             }
 
+            @Override
+            long computeFingerprint() {
+                return fingerprint(4, expression);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Expression &&
+                return obj == this || obj instanceof Expression &&
+                        getFingerprint() == ((Expression) obj).getFingerprint() &&
                         expression.equals(((Expression) obj).expression);
             }
 
@@ -222,6 +356,7 @@ public abstract class Ast {
             private final Optional<String> typeName;
             private final Optional<Expr> value;
             private Environment.Variable variable;
+            private Resolver.Address address = null;
 
             public Declaration(String name, Optional<Expr> value) {
                 this(name, Optional.empty(), value);
@@ -256,9 +391,27 @@ public abstract class Ast {
                 this.variable = variable;
             }
 
+            /**
+             * Returns the address assigned by the {@link Resolver} to the
+             * variable this declaration defines, if it could be resolved.
+             */
+            public Optional<Resolver.Address> getAddress() {
+                return Optional.ofNullable(address);
+            }
+
+            public void setAddress(Resolver.Address address) {
+                this.address = address;
+            }
+
+            @Override
+            long computeFingerprint() {
+                return fingerprint(5, name, typeName, value);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Declaration &&
+                return obj == this || obj instanceof Declaration &&
+                        getFingerprint() == ((Declaration) obj).getFingerprint() &&
                         name.equals(((Declaration) obj).name) &&
                         typeName.equals(((Declaration) obj).typeName) &&
                         value.equals(((Declaration) obj).value) &&
@@ -295,9 +448,15 @@ public abstract class Ast {
                 return value;
             }
 
+            @Override
+            long computeFingerprint() {
+                return fingerprint(6, receiver, value);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Assignment &&
+                return obj == this || obj instanceof Assignment &&
+                        getFingerprint() == ((Assignment) obj).getFingerprint() &&
                         receiver.equals(((Assignment) obj).receiver) &&
                         value.equals(((Assignment) obj).value);
             }
@@ -337,9 +496,15 @@ public abstract class Ast {
                 return elseStatements;
             }
 
+            @Override
+            long computeFingerprint() {
+                return fingerprint(7, condition, thenStatements, elseStatements);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof If &&
+                return obj == this || obj instanceof If &&
+                        getFingerprint() == ((If) obj).getFingerprint() &&
                         condition.equals(((If) obj).condition) &&
                         thenStatements.equals(((If) obj).thenStatements) &&
                         elseStatements.equals(((If) obj).elseStatements);
@@ -361,6 +526,7 @@ public abstract class Ast {
             private final String name;
             private final Expr value;
             private final List<Stmt> statements;
+            private Capture capture = null;
 
             public For(String name, Expr value, List<Stmt> statements) {
                 this.name = name;
@@ -380,9 +546,27 @@ public abstract class Ast {
                 return statements;
             }
 
+            /**
+             * Returns how the scope of each iteration is allocated, if set by
+             * the {@link Resolver}.
+             */
+            public Optional<Capture> getCapture() {
+                return Optional.ofNullable(capture);
+            }
+
+            public void setCapture(Capture capture) {
+                this.capture = capture;
+            }
+
+            @Override
+            long computeFingerprint() {
+                return fingerprint(8, name, value, statements);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof For &&
+                return obj == this || obj instanceof For &&
+                        getFingerprint() == ((For) obj).getFingerprint() &&
                         name.equals(((For) obj).name) &&
                         value.equals(((For) obj).value) &&
                         statements.equals(((For) obj).statements);
@@ -403,6 +587,7 @@ public abstract class Ast {
 
             private final Expr condition;
             private final List<Stmt> statements;
+            private Capture capture = null;
 
             public While(Expr condition, List<Stmt> statements) {
                 this.condition = condition;
@@ -417,9 +602,27 @@ public abstract class Ast {
                 return statements;
             }
 
+            /**
+             * Returns how the scope of each iteration is allocated, if set by
+             * the {@link Resolver}.
+             */
+            public Optional<Capture> getCapture() {
+                return Optional.ofNullable(capture);
+            }
+
+            public void setCapture(Capture capture) {
+                this.capture = capture;
+            }
+
+            @Override
+            long computeFingerprint() {
+                return fingerprint(9, condition, statements);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof While &&
+                return obj == this || obj instanceof While &&
+                        getFingerprint() == ((While) obj).getFingerprint() &&
                         condition.equals(((While) obj).condition) &&
                         statements.equals(((While) obj).statements);
             }
@@ -446,9 +649,15 @@ public abstract class Ast {
                 return value;
             }
 
+            @Override
+            long computeFingerprint() {
+                return fingerprint(10, value);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Return &&
+                return obj == this || obj instanceof Return &&
+                        getFingerprint() == ((Return) obj).getFingerprint() &&
                         value.equals(((Return) obj).value);
             }
 
@@ -492,9 +701,15 @@ public abstract class Ast {
                 this.type = type;
             }
 
+            @Override
+            long computeFingerprint() {
+                return fingerprint(11, literal);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Literal &&
+                return obj == this || obj instanceof Literal &&
+                        getFingerprint() == ((Literal) obj).getFingerprint() &&
                         Objects.equals(literal, ((Literal) obj).literal) &&
                         Objects.equals(type, ((Literal) obj).type);
             }
@@ -533,9 +748,15 @@ public abstract class Ast {
             public void setType(Environment.Type type) {
                 this.type = type;
             }
+            @Override
+            long computeFingerprint() {
+                return fingerprint(12, expression);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Group &&
+                return obj == this || obj instanceof Group &&
+                        getFingerprint() == ((Group) obj).getFingerprint() &&
                         expression.equals(((Group) obj).expression) &&
                         Objects.equals(type, ((Group) obj).type);
             }
@@ -556,6 +777,8 @@ public abstract class Ast {
             private final Expr left;
             private final Expr right;
             private Environment.Type type = null;
+            private Operation operation = null;
+            private Range range = null;
 
             public Binary(String operator, Expr left, Expr right) {
                 this.operator = operator;
@@ -587,9 +810,39 @@ public abstract class Ast {
                 this.type = type;
             }
 
+            /**
+             * Returns the operation resolved by the analyzer from the types of
+             * the operands, if it is specialized.
+             */
+            public Optional<Operation> getOperation() {
+                return Optional.ofNullable(operation);
+            }
+
+            public void setOperation(Operation operation) {
+                this.operation = operation;
+            }
+
+            /**
+             * Returns a range covering the operands and the result of the
+             * operation, if it has been inferred by {@link Range#analyze}.
+             */
+            public Optional<Range> getRange() {
+                return Optional.ofNullable(range);
+            }
+
+            public void setRange(Range range) {
+                this.range = range;
+            }
+
+            @Override
+            long computeFingerprint() {
+                return fingerprint(13, operator, left, right);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Binary &&
+                return obj == this || obj instanceof Binary &&
+                        getFingerprint() == ((Binary) obj).getFingerprint() &&
                         operator.equals(((Binary) obj).operator) &&
                         left.equals(((Binary) obj).left) &&
                         right.equals(((Binary) obj).right) &&
@@ -613,6 +866,7 @@ public abstract class Ast {
             private final Optional<Expr> receiver;
             private final String name;
             private Environment.Variable variable = null;
+            private Resolver.Address address = null;
 
             public Access(Optional<Expr> receiver, String name) {
                 this.receiver = receiver;
@@ -638,14 +892,32 @@ public abstract class Ast {
                 this.variable = variable;
             }
 
+            /**
+             * Returns the address assigned by the {@link Resolver} to the
+             * variable this access refers to, if it could be resolved.
+             */
+            public Optional<Resolver.Address> getAddress() {
+                return Optional.ofNullable(address);
+            }
+
+            public void setAddress(Resolver.Address address) {
+                this.address = address;
+            }
+
             @Override
             public Environment.Type getType() {
                 return getVariable().getType();
             }
 
+            @Override
+            long computeFingerprint() {
+                return fingerprint(14, receiver, name);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Access &&
+                return obj == this || obj instanceof Access &&
+                        getFingerprint() == ((Access) obj).getFingerprint() &&
                         receiver.equals(((Access) obj).receiver) &&
                         name.equals(((Access) obj).name) &&
                         Objects.equals(variable, ((Access) obj).variable);
@@ -703,9 +975,15 @@ public abstract class Ast {
                 return getFunction().getReturnType();
             }
 
+            @Override
+            long computeFingerprint() {
+                return fingerprint(15, receiver, name, arguments);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Function &&
+                return obj == this || obj instanceof Function &&
+                        getFingerprint() == ((Function) obj).getFingerprint() &&
                         receiver.equals(((Function) obj).receiver) &&
                         name.equals(((Function) obj).name) &&
                         arguments.equals(((Function) obj).arguments) &&
@@ -726,6 +1004,87 @@ public abstract class Ast {
 
     }
 
+    /**
+     * Copies the analyzer annotations (types, variables and functions) of a
+     * node onto a rebuilt node of the same class, as done by {@link Rewriter}
+     * so that rewritten trees can still be handed to the {@link Generator}.
+     */
+    static <T extends Ast> T copyAnnotations(T from, T to) {
+        if (from instanceof Field) {
+            ((Field) to).variable = ((Field) from).variable;
+        } else if (from instanceof Method) {
+            ((Method) to).function = ((Method) from).function;
+            ((Method) to).purity = ((Method) from).purity;
+        } else if (from instanceof Stmt.Declaration) {
+            ((Stmt.Declaration) to).variable = ((Stmt.Declaration) from).variable;
+        } else if (from instanceof Expr.Literal) {
+            ((Expr.Literal) to).type = ((Expr.Literal) from).type;
+        } else if (from instanceof Expr.Group) {
+            ((Expr.Group) to).type = ((Expr.Group) from).type;
+        } else if (from instanceof Expr.Binary) {
+            ((Expr.Binary) to).type = ((Expr.Binary) from).type;
+            Operation operation = ((Expr.Binary) from).operation;
+            if (operation != null && operation.getOperator().equals(((Expr.Binary) to).operator)) {
+                ((Expr.Binary) to).operation = operation;
+            }
+        } else if (from instanceof Expr.Access) {
+            ((Expr.Access) to).variable = ((Expr.Access) from).variable;
+        } else if (from instanceof Expr.Function) {
+            ((Expr.Function) to).function = ((Expr.Function) from).function;
+        }
+        return to;
+    }
+
+    /**
+     * Returns the type of an expression if it has been analyzed, else null.
+     * Unlike {@link Expr#getType()} this never throws, which allows passes to
+     * run on both analyzed and unanalyzed trees.
+     */
+    static Environment.Type typeOf(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            return ((Expr.Literal) expr).type;
+        } else if (expr instanceof Expr.Group) {
+            return ((Expr.Group) expr).type;
+        } else if (expr instanceof Expr.Binary) {
+            return ((Expr.Binary) expr).type;
+        } else if (expr instanceof Expr.Access) {
+            Environment.Variable variable = ((Expr.Access) expr).variable;
+            return variable == null ? null : variable.getType();
+        } else if (expr instanceof Expr.Function) {
+            Environment.Function function = ((Expr.Function) expr).function;
+            return function == null ? null : function.getReturnType();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the variable a field, declaration or access was bound to by the
+     * analyzer, else null.
+     */
+    static Environment.Variable variableOf(Ast ast) {
+        if (ast instanceof Field) {
+            return ((Field) ast).variable;
+        } else if (ast instanceof Stmt.Declaration) {
+            return ((Stmt.Declaration) ast).variable;
+        } else if (ast instanceof Expr.Access) {
+            return ((Expr.Access) ast).variable;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the function a method or call was bound to by the analyzer,
+     * else null.
+     */
+    static Environment.Function functionOf(Ast ast) {
+        if (ast instanceof Method) {
+            return ((Method) ast).function;
+        } else if (ast instanceof Expr.Function) {
+            return ((Expr.Function) ast).function;
+        }
+        return null;
+    }
+
     public interface Visitor<T> {
 
         default T visit(Ast ast) {
@@ -0,0 +1,322 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The calls between the methods of a source, keyed by {@code name/arity}.
+ *
+ * A call without a receiver is bound to the method the {@link Analyzer}
+ * resolved it to, or, in unanalyzed trees, to the method of the source with
+ * its name and arity. Calls to other functions (such as the built-in
+ * {@code print}) and calls with a receiver are not part of the graph.
+ *
+ * Methods are grouped into strongly connected components, a method being
+ * recursive if its component has several methods or it calls itself. Each
+ * method also gets a static estimate of how often it runs ({@link
+ * #getHotness(String)}), relative to one run of the entry points: a call site
+ * nested in {@code n} loops counts {@code LOOP_WEIGHT^n} times, and recursive
+ * components run {@code RECURSION_WEIGHT} times as often as they are called.
+ * The entry point is {@code main/0}, or without one, every method not called
+ * by another component.
+ */
+public final class CallGraph {
+
+    public static final double LOOP_WEIGHT = 10;
+    public static final double RECURSION_WEIGHT = 10;
+
+    private final Map<String, Map<String, Edge>> callees = new LinkedHashMap<>();
+    private final Map<String, Set<String>> callers = new LinkedHashMap<>();
+    private final List<List<String>> components = new ArrayList<>();
+    private final Map<String, Integer> componentOf = new HashMap<>();
+    private final Map<String, Double> hotness = new HashMap<>();
+
+    private CallGraph() {}
+
+    public static CallGraph of(Ast.Source source) {
+        CallGraph graph = new CallGraph();
+        Map<String, Ast.Method> methods = new LinkedHashMap<>();
+        Map<Environment.Function, String> bindings = new IdentityHashMap<>();
+        for (Ast.Method method : source.getMethods()) {
+            String key = key(method.getName(), method.getParameters().size());
+            methods.put(key, method);
+            if (Ast.functionOf(method) != null) {
+                bindings.put(Ast.functionOf(method), key);
+            }
+            graph.callees.put(key, new LinkedHashMap<>());
+            graph.callers.put(key, new LinkedHashSet<>());
+        }
+        for (Map.Entry<String, Ast.Method> entry : methods.entrySet()) {
+            new Calls(graph, entry.getKey(), methods.keySet(), bindings).visit(entry.getValue());
+        }
+        new Components(graph).run();
+        graph.estimateHotness();
+        return graph;
+    }
+
+    private static String key(String name, int arity) {
+        return name + "/" + arity;
+    }
+
+    /**
+     * Returns the methods of the source, in source order.
+     */
+    public Set<String> getMethods() {
+        return Collections.unmodifiableSet(callees.keySet());
+    }
+
+    public Set<String> getCallees(String method) {
+        return Collections.unmodifiableSet(callees.get(method).keySet());
+    }
+
+    public Set<String> getCallers(String method) {
+        return Collections.unmodifiableSet(callers.get(method));
+    }
+
+    /**
+     * Returns the number of call sites of the callee in the caller.
+     */
+    public int getCallSites(String caller, String callee) {
+        Edge edge = callees.get(caller).get(callee);
+        return edge == null ? 0 : edge.sites;
+    }
+
+    /**
+     * Returns the number of times the callee is estimated to be called per
+     * call of the caller, weighting each call site by its loop nesting.
+     */
+    public double getWeight(String caller, String callee) {
+        Edge edge = callees.get(caller).get(callee);
+        return edge == null ? 0 : edge.weight;
+    }
+
+    /**
+     * Returns the strongly connected components, each callee's component
+     * before those of its callers (other than within a component).
+     */
+    public List<List<String>> getComponents() {
+        return Collections.unmodifiableList(components);
+    }
+
+    public int getComponent(String method) {
+        return componentOf.get(method);
+    }
+
+    public boolean isRecursive(String method) {
+        return components.get(componentOf.get(method)).size() > 1 || callees.get(method).containsKey(method);
+    }
+
+    public double getHotness(String method) {
+        return hotness.get(method);
+    }
+
+    private void estimateHotness() {
+        boolean hasMain = callees.containsKey(key("main", 0));
+        // Components are ordered callees first, so callers come last.
+        for (int i = components.size() - 1; i >= 0; i--) {
+            List<String> component = components.get(i);
+            double incoming = 0;
+            boolean called = false;
+            for (String method : component) {
+                for (String caller : callers.get(method)) {
+                    if (componentOf.get(caller) != i) {
+                        incoming += hotness.get(caller) * callees.get(caller).get(method).weight;
+                        called = true;
+                    }
+                }
+                if (hasMain && method.equals(key("main", 0))) {
+                    incoming += 1;
+                }
+            }
+            if (!hasMain && !called) {
+                incoming += 1;
+            }
+            if (isRecursive(component.get(0))) {
+                incoming *= RECURSION_WEIGHT;
+            }
+            for (String method : component) {
+                hotness.put(method, incoming);
+            }
+        }
+    }
+
+    /**
+     * Returns the graph as a JSON object with the methods (their component,
+     * whether they are recursive and their hotness) and the calls between
+     * them (the number of call sites and their weight).
+     */
+    public String toJson() {
+        StringBuilder builder = new StringBuilder("{\"methods\":[");
+        String separator = "";
+        for (String method : callees.keySet()) {
+            builder.append(separator).append("{\"name\":").append(quote(method))
+                    .append(",\"component\":").append(componentOf.get(method))
+                    .append(",\"recursive\":").append(isRecursive(method))
+                    .append(",\"hotness\":").append(hotness.get(method)).append('}');
+            separator = ",";
+        }
+        builder.append("],\"calls\":[");
+        separator = "";
+        for (Map.Entry<String, Map<String, Edge>> entry : callees.entrySet()) {
+            for (Map.Entry<String, Edge> call : entry.getValue().entrySet()) {
+                builder.append(separator).append("{\"caller\":").append(quote(entry.getKey()))
+                        .append(",\"callee\":").append(quote(call.getKey()))
+                        .append(",\"sites\":").append(call.getValue().sites)
+                        .append(",\"weight\":").append(call.getValue().weight).append('}');
+                separator = ",";
+            }
+        }
+        return builder.append("]}").toString();
+    }
+
+    /**
+     * Returns the graph in the DOT format of Graphviz, with recursive methods
+     * drawn in bold and calls labeled with their number of call sites.
+     */
+    public String toDot() {
+        StringBuilder builder = new StringBuilder("digraph calls {\n");
+        for (String method : callees.keySet()) {
+            builder.append("    ").append(quote(method))
+                    .append(" [label=").append(quote(method + "\\nhotness=" + hotness.get(method)))
+                    .append(isRecursive(method) ? ", style=bold" : "").append("];\n");
+        }
+        for (Map.Entry<String, Map<String, Edge>> entry : callees.entrySet()) {
+            for (Map.Entry<String, Edge> call : entry.getValue().entrySet()) {
+                builder.append("    ").append(quote(entry.getKey())).append(" -> ").append(quote(call.getKey()))
+                        .append(" [label=\"").append(call.getValue().sites).append("\"];\n");
+            }
+        }
+        return builder.append("}\n").toString();
+    }
+
+    private static String quote(String string) {
+        return "\"" + string.replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * The call sites of a callee within a caller.
+     */
+    private static final class Edge {
+
+        private int sites = 0;
+        private double weight = 0;
+
+    }
+
+    /**
+     * Records the calls of a method, tracking the loop nesting of each call.
+     * The value of a {@code FOR} is evaluated once, outside the loop, while
+     * the condition of a {@code WHILE} is evaluated on each iteration.
+     */
+    private static final class Calls extends Walker {
+
+        private final CallGraph graph;
+        private final String caller;
+        private final Set<String> methods;
+        private final Map<Environment.Function, String> bindings;
+        private int depth = 0;
+
+        private Calls(CallGraph graph, String caller, Set<String> methods, Map<Environment.Function, String> bindings) {
+            this.graph = graph;
+            this.caller = caller;
+            this.methods = methods;
+            this.bindings = bindings;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.For ast) {
+            visit(ast.getValue());
+            depth++;
+            visitAll(ast.getStatements());
+            depth--;
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.While ast) {
+            depth++;
+            super.visit(ast);
+            depth--;
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Function ast) {
+            if (!ast.getReceiver().isPresent()) {
+                String callee = bindings.get(Ast.functionOf(ast));
+                if (callee == null && methods.contains(key(ast.getName(), ast.getArguments().size()))) {
+                    callee = key(ast.getName(), ast.getArguments().size());
+                }
+                if (callee != null) {
+                    Edge edge = graph.callees.get(caller).computeIfAbsent(callee, k -> new Edge());
+                    edge.sites++;
+                    edge.weight += Math.pow(LOOP_WEIGHT, depth);
+                    graph.callers.get(callee).add(caller);
+                }
+            }
+            return super.visit(ast);
+        }
+
+    }
+
+    /**
+     * Tarjan's algorithm for strongly connected components, which finds each
+     * component after the components it calls into.
+     */
+    private static final class Components {
+
+        private final CallGraph graph;
+        private final Map<String, Integer> index = new HashMap<>();
+        private final Map<String, Integer> lowlink = new HashMap<>();
+        private final List<String> stack = new ArrayList<>();
+        private final Set<String> onStack = new LinkedHashSet<>();
+
+        private Components(CallGraph graph) {
+            this.graph = graph;
+        }
+
+        private void run() {
+            for (String method : graph.callees.keySet()) {
+                if (!index.containsKey(method)) {
+                    connect(method);
+                }
+            }
+        }
+
+        private void connect(String method) {
+            index.put(method, index.size());
+            lowlink.put(method, index.get(method));
+            stack.add(method);
+            onStack.add(method);
+            for (String callee : graph.callees.get(method).keySet()) {
+                if (!index.containsKey(callee)) {
+                    connect(callee);
+                    lowlink.put(method, Math.min(lowlink.get(method), lowlink.get(callee)));
+                } else if (onStack.contains(callee)) {
+                    lowlink.put(method, Math.min(lowlink.get(method), index.get(callee)));
+                }
+            }
+            if (lowlink.get(method).equals(index.get(method))) {
+                List<String> component = new ArrayList<>();
+                String member;
+                do {
+                    member = stack.remove(stack.size() - 1);
+                    onStack.remove(member);
+                    component.add(member);
+                    graph.componentOf.put(member, graph.components.size());
+                } while (!member.equals(method));
+                Collections.reverse(component);
+                graph.components.add(component);
+            }
+        }
+
+    }
+
+}
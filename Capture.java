@@ -0,0 +1,63 @@
+package plc.project;
+
+import java.util.List;
+
+/**
+ * Determines how the runtime scope of a method call or a loop iteration needs
+ * to be allocated, depending on whether it can escape the call or iteration
+ * that created it and whether anything is defined in it.
+ *
+ *  - {@link #FRESH}: the scope may be captured, so each call or iteration
+ *    needs a scope of its own
+ *  - {@link #REUSED}: the scope cannot escape, so a single scope can be
+ *    cleared and reused by each iteration of a loop
+ *  - {@link #ELIDED}: nothing is defined in the scope, so the body can run
+ *    directly in the enclosing scope
+ *
+ * A scope is only captured by the functions defined in it, and methods are
+ * only defined at the top level of a source, so only the global scope of the
+ * {@link Interpreter} escapes: method and loop scopes are never {@link #FRESH}
+ * once analyzed, which is instead what unanalyzed nodes default to. Method
+ * scopes are still allocated per call unless elided, since recursive calls
+ * are active at the same time.
+ *
+ * Branches of an {@code IF} run in the enclosing scope, so their declarations
+ * count towards it, while loops have scopes of their own. The {@link Resolver}
+ * annotates methods and loops with their capture, since the addresses it
+ * assigns depend on which scopes exist at runtime.
+ */
+public enum Capture {
+
+    FRESH, REUSED, ELIDED;
+
+    public static Capture of(Ast.Method ast) {
+        return ast.getParameters().isEmpty() && !declares(ast.getStatements()) ? ELIDED : REUSED;
+    }
+
+    public static Capture of(Ast.Stmt.For ast) {
+        return REUSED;
+    }
+
+    public static Capture of(Ast.Stmt.While ast) {
+        return declares(ast.getStatements()) ? REUSED : ELIDED;
+    }
+
+    /**
+     * Returns true if the statements define a variable in the scope they run
+     * in, including from the branches of an {@code IF}.
+     */
+    private static boolean declares(List<Ast.Stmt> statements) {
+        for (Ast.Stmt statement : statements) {
+            if (statement instanceof Ast.Stmt.Declaration) {
+                return true;
+            } else if (statement instanceof Ast.Stmt.If) {
+                Ast.Stmt.If ast = (Ast.Stmt.If) statement;
+                if (declares(ast.getThenStatements()) || declares(ast.getElseStatements())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+}
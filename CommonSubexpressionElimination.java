@@ -0,0 +1,393 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Eliminates repeated computations of the same expression within a block of
+ * a method. Each side-effect-free, analyzer-typed binary expression or field
+ * access that occurs at least twice while none of its inputs is reassigned is
+ * computed once into a declaration placed before the statement of its first
+ * occurrence, and every occurrence reads that declaration instead.
+ *
+ * Only the expressions evaluated directly by the statements of a block are
+ * considered (not {@code WHILE} conditions, which are evaluated repeatedly,
+ * nor right operands of {@code AND} and {@code OR}, which may not be
+ * evaluated at all); nested blocks are processed on their own. Occurrences stop matching after a
+ * statement declaring or assigning one of their variables or fields, or after
+ * a call that could assign globals or fields if they read any (variables not
+ * bound to a local of the method count as globals, see
+ * {@link Effects.Bindings}). If a repeated expression only occurs inside
+ * occurrences of a larger one that is also eliminated, it is left alone
+ * rather than computed into a second declaration.
+ *
+ * The pass counts the declarations it creates ({@code temporaries}) and the
+ * evaluations saved by reusing them ({@code eliminated}).
+ */
+public final class CommonSubexpressionElimination implements Optimizer.Pass {
+
+    @Override
+    public String getName() {
+        return "common-subexpression-elimination";
+    }
+
+    @Override
+    public Ast.Source apply(Ast.Source source, Optimizer.Statistics.Entry entry) {
+        Eliminator eliminator = new Eliminator(Names.of(source), Effects.methods(source));
+        Ast.Source result = (Ast.Source) eliminator.visit(source);
+        entry.count("temporaries", eliminator.temporaries);
+        entry.count("eliminated", eliminator.eliminated);
+        return result;
+    }
+
+    /**
+     * The occurrences of one expression in a block while its inputs are not
+     * reassigned.
+     */
+    private static final class Group {
+
+        private final Ast.Expr expr;
+        private final Effects reads;
+        private final int size;
+        private final List<Occurrence> occurrences = new ArrayList<>();
+        private Ast.Expr.Access temporary = null;
+
+        private Group(Ast.Expr expr, Effects reads, int size) {
+            this.expr = expr;
+            this.reads = reads;
+            this.size = size;
+        }
+
+        private int first() {
+            return occurrences.get(0).statement;
+        }
+
+        private int last() {
+            return occurrences.get(occurrences.size() - 1).statement;
+        }
+
+    }
+
+    private static final class Occurrence {
+
+        private final int statement;
+        private final List<Group> enclosing;
+
+        private Occurrence(int statement, List<Group> enclosing) {
+            this.statement = statement;
+            this.enclosing = enclosing;
+        }
+
+    }
+
+    private static final class Eliminator extends Rewriter {
+
+        private final Names names;
+        private final Set<String> methods;
+        private Effects.Bindings bindings;
+        private int temporaries = 0;
+        private int eliminated = 0;
+
+        private Eliminator(Names names, Set<String> methods) {
+            this.names = names;
+            this.methods = methods;
+        }
+
+        @Override
+        public Ast visit(Ast.Field ast) {
+            return ast;
+        }
+
+        @Override
+        public Ast visit(Ast.Method ast) {
+            bindings = Effects.Bindings.of(ast);
+            return super.visit(ast);
+        }
+
+        @Override
+        protected List<Ast.Stmt> visitStatements(List<Ast.Stmt> statements) {
+            List<Group> groups = collect(statements);
+            List<Ast.Stmt> block = statements;
+            if (!groups.isEmpty()) {
+                block = eliminate(statements, groups);
+                changed();
+            }
+            // Nested blocks are processed after their enclosing block.
+            return super.visitStatements(block);
+        }
+
+        /**
+         * Returns the groups of the block worth computing into a declaration,
+         * smallest first so that larger declarations can use smaller ones.
+         */
+        private List<Group> collect(List<Ast.Stmt> statements) {
+            Map<Ast.Expr, Group> available = new LinkedHashMap<>();
+            List<Group> groups = new ArrayList<>();
+            for (int i = 0; i < statements.size(); i++) {
+                Ast.Stmt stmt = statements.get(i);
+                Effects effects = Effects.of(stmt, methods);
+                for (Ast.Expr expr : evaluated(stmt)) {
+                    new Collector(i, available, effects.calls).visit(expr);
+                }
+                available.values().removeIf(group -> {
+                    if (isKilled(group, effects)) {
+                        groups.add(group);
+                        return true;
+                    }
+                    return false;
+                });
+            }
+            groups.addAll(available.values());
+
+            // Decide larger expressions first: an occurrence nested in an
+            // eliminated expression is only evaluated once more, by the
+            // declaration of the enclosing expression.
+            groups.sort(Comparator.comparingInt((Group group) -> group.size).reversed());
+            List<Group> chosen = new ArrayList<>();
+            for (Group group : groups) {
+                Set<Group> users = new HashSet<>();
+                int uses = 0;
+                for (Occurrence occurrence : group.occurrences) {
+                    Group user = null;
+                    for (Group enclosing : occurrence.enclosing) {
+                        if (enclosing.temporary != null) {
+                            user = enclosing;
+                        }
+                    }
+                    if (user == null) {
+                        uses++;
+                    } else if (users.add(user)) {
+                        uses++;
+                    }
+                }
+                if (uses >= 2) {
+                    String name = names.fresh("cse");
+                    group.temporary = new Ast.Expr.Access(Optional.empty(), name);
+                    group.temporary.setVariable(new Environment.Variable(name, name, Ast.typeOf(group.expr), Environment.NIL));
+                    chosen.add(0, group);
+                    temporaries++;
+                    eliminated += uses - 1;
+                }
+            }
+            return chosen;
+        }
+
+        private boolean isKilled(Group group, Effects effects) {
+            for (String name : group.reads.read) {
+                if (effects.declared.contains(name) || effects.assigned.contains(name)) {
+                    return true;
+                }
+            }
+            if (effects.calls && bindings.readsGlobals(group.expr)) {
+                return true;
+            }
+            for (String field : group.reads.fields) {
+                if (effects.calls || effects.assignedFields.contains(field)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private List<Ast.Stmt> eliminate(List<Ast.Stmt> statements, List<Group> groups) {
+            List<Ast.Stmt> result = new ArrayList<>();
+            for (int i = 0; i < statements.size(); i++) {
+                for (Group group : groups) {
+                    if (group.first() == i) {
+                        Ast.Expr value = (Ast.Expr) new Replacer(active(groups, i), group).visitChildren(group.expr);
+                        Ast.Stmt.Declaration declaration = new Ast.Stmt.Declaration(group.temporary.getName(), Optional.of(value));
+                        declaration.setVariable(group.temporary.getVariable());
+                        result.add(declaration);
+                    }
+                }
+                result.add(replace(statements.get(i), active(groups, i)));
+            }
+            return result;
+        }
+
+        private static Map<Ast.Expr, Group> active(List<Group> groups, int statement) {
+            Map<Ast.Expr, Group> active = new HashMap<>();
+            for (Group group : groups) {
+                if (group.first() <= statement && statement <= group.last()) {
+                    active.put(group.expr, group);
+                }
+            }
+            return active;
+        }
+
+        /**
+         * Replaces the active groups in the expressions the statement itself
+         * evaluates, leaving nested blocks alone.
+         */
+        private static Ast.Stmt replace(Ast.Stmt stmt, Map<Ast.Expr, Group> active) {
+            Replacer replacer = new Replacer(active, null);
+            if (stmt instanceof Ast.Stmt.Expression || stmt instanceof Ast.Stmt.Declaration || stmt instanceof Ast.Stmt.Return) {
+                return (Ast.Stmt) replacer.visit(stmt);
+            } else if (stmt instanceof Ast.Stmt.Assignment) {
+                // The assigned field itself is not read, only its receiver.
+                Ast.Stmt.Assignment ast = (Ast.Stmt.Assignment) stmt;
+                Ast.Expr receiver = ast.getReceiver();
+                if (receiver instanceof Ast.Expr.Access && ((Ast.Expr.Access) receiver).getReceiver().isPresent()) {
+                    Ast.Expr.Access access = (Ast.Expr.Access) receiver;
+                    receiver = Ast.copyAnnotations(access, new Ast.Expr.Access(Optional.of((Ast.Expr) replacer.visit(access.getReceiver().get())), access.getName()));
+                }
+                return new Ast.Stmt.Assignment(receiver, (Ast.Expr) replacer.visit(ast.getValue()));
+            } else if (stmt instanceof Ast.Stmt.If) {
+                Ast.Stmt.If ast = (Ast.Stmt.If) stmt;
+                return new Ast.Stmt.If((Ast.Expr) replacer.visit(ast.getCondition()), ast.getThenStatements(), ast.getElseStatements());
+            } else if (stmt instanceof Ast.Stmt.For) {
+                Ast.Stmt.For ast = (Ast.Stmt.For) stmt;
+                return new Ast.Stmt.For(ast.getName(), (Ast.Expr) replacer.visit(ast.getValue()), ast.getStatements());
+            }
+            return stmt;
+        }
+
+        /**
+         * Collects the occurrences of candidate expressions, along with the
+         * candidates enclosing each of them.
+         */
+        private final class Collector extends Walker {
+
+            private final int statement;
+            private final Map<Ast.Expr, Group> available;
+            private final boolean calls;
+            private final List<Group> enclosing = new ArrayList<>();
+
+            private Collector(int statement, Map<Ast.Expr, Group> available, boolean calls) {
+                this.statement = statement;
+                this.available = available;
+                this.calls = calls;
+            }
+
+            @Override
+            public Void visit(Ast.Expr.Binary ast) {
+                return candidate(ast) ? null : operands(ast);
+            }
+
+            /**
+             * Visits the operands of a binary expression, leaving out the
+             * right operand of {@code AND} and {@code OR}, which may not be
+             * evaluated.
+             */
+            private Void operands(Ast.Expr.Binary ast) {
+                if (ast.getOperator().equals("AND") || ast.getOperator().equals("OR")) {
+                    return visit(ast.getLeft());
+                }
+                return super.visit(ast);
+            }
+
+            @Override
+            public Void visit(Ast.Expr.Access ast) {
+                return ast.getReceiver().isPresent() && candidate(ast) ? null : super.visit(ast);
+            }
+
+            /**
+             * Records the expression and its children if it is a candidate,
+             * returning false otherwise.
+             */
+            private boolean candidate(Ast.Expr expr) {
+                if (Ast.typeOf(expr) == null || !isSideEffectFree(expr)) {
+                    return false;
+                }
+                Effects reads = Effects.of(expr, methods);
+                if (calls && (!reads.fields.isEmpty() || bindings.readsGlobals(expr))) {
+                    // A call in the same statement could change the value
+                    // between two occurrences.
+                    return false;
+                }
+                Group group = available.computeIfAbsent(expr, e -> new Group(e, reads, size(e)));
+                group.occurrences.add(new Occurrence(statement, new ArrayList<>(enclosing)));
+                enclosing.add(group);
+                if (expr instanceof Ast.Expr.Binary) {
+                    operands((Ast.Expr.Binary) expr);
+                } else {
+                    super.visit((Ast.Expr.Access) expr);
+                }
+                enclosing.remove(enclosing.size() - 1);
+                return true;
+            }
+
+        }
+
+    }
+
+    /**
+     * Returns the expressions a statement evaluates once, before any nested
+     * block runs.
+     */
+    private static List<Ast.Expr> evaluated(Ast.Stmt stmt) {
+        List<Ast.Expr> exprs = new ArrayList<>();
+        if (stmt instanceof Ast.Stmt.Expression) {
+            exprs.add(((Ast.Stmt.Expression) stmt).getExpression());
+        } else if (stmt instanceof Ast.Stmt.Declaration) {
+            ((Ast.Stmt.Declaration) stmt).getValue().ifPresent(exprs::add);
+        } else if (stmt instanceof Ast.Stmt.Assignment) {
+            Ast.Expr receiver = ((Ast.Stmt.Assignment) stmt).getReceiver();
+            if (receiver instanceof Ast.Expr.Access) {
+                ((Ast.Expr.Access) receiver).getReceiver().ifPresent(exprs::add);
+            }
+            exprs.add(((Ast.Stmt.Assignment) stmt).getValue());
+        } else if (stmt instanceof Ast.Stmt.Return) {
+            exprs.add(((Ast.Stmt.Return) stmt).getValue());
+        } else if (stmt instanceof Ast.Stmt.If) {
+            exprs.add(((Ast.Stmt.If) stmt).getCondition());
+        } else if (stmt instanceof Ast.Stmt.For) {
+            exprs.add(((Ast.Stmt.For) stmt).getValue());
+        }
+        return exprs;
+    }
+
+    private static int size(Ast ast) {
+        int[] size = {0};
+        new Traversal.Walk() {
+
+            @Override
+            protected boolean enter(Ast ast) {
+                size[0]++;
+                return true;
+            }
+
+        }.walk(ast);
+        return size[0];
+    }
+
+    /**
+     * Replaces occurrences of active groups with their declarations, except
+     * for the group being declared.
+     */
+    private static final class Replacer extends Rewriter {
+
+        private final Map<Ast.Expr, Group> active;
+        private final Group declared;
+
+        private Replacer(Map<Ast.Expr, Group> active, Group declared) {
+            this.active = active;
+            this.declared = declared;
+        }
+
+        private Ast visitChildren(Ast.Expr expr) {
+            return expr instanceof Ast.Expr.Binary ? super.visit((Ast.Expr.Binary) expr) : super.visit((Ast.Expr.Access) expr);
+        }
+
+        @Override
+        public Ast visit(Ast.Expr.Binary ast) {
+            Group group = active.get(ast);
+            return group != null && group != declared ? group.temporary : super.visit(ast);
+        }
+
+        @Override
+        public Ast visit(Ast.Expr.Access ast) {
+            Group group = active.get(ast);
+            return group != null && group != declared ? group.temporary : super.visit(ast);
+        }
+
+    }
+
+}
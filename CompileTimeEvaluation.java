@@ -0,0 +1,123 @@
+package plc.project;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Replaces calls to pure methods (see {@link Purity}) whose arguments are all
+ * literals with the value they return, computed by running the method in an
+ * {@link Interpreter} at compile time.
+ *
+ * Evaluation is limited to {@code maxSteps} method calls and loop iterations
+ * per call site, so methods that do not terminate (or take too long) are left
+ * alone, as are calls whose evaluation fails in any other way, including by
+ * overflowing the stack. As with {@link ConstantFolding}, results are only
+ * used if the {@link Generator} can emit them as they are, so calls returning
+ * {@code NIL}, a decimal or an integer outside the 32-bit range are kept.
+ */
+public final class CompileTimeEvaluation implements Optimizer.Pass {
+
+    public static final long DEFAULT_MAX_STEPS = 10_000;
+
+    private final long maxSteps;
+
+    public CompileTimeEvaluation() {
+        this(DEFAULT_MAX_STEPS);
+    }
+
+    /**
+     * Creates a pass evaluating calls within at most {@code maxSteps} method
+     * calls and loop iterations each.
+     */
+    public CompileTimeEvaluation(long maxSteps) {
+        this.maxSteps = maxSteps;
+    }
+
+    @Override
+    public String getName() {
+        return "compile-time-evaluation";
+    }
+
+    @Override
+    public Ast.Source apply(Ast.Source source, Optimizer.Statistics.Entry entry) {
+        Map<String, Purity> purities = Purity.analyze(source);
+        if (!purities.containsValue(Purity.PURE)) {
+            return source;
+        }
+        Evaluator evaluator = new Evaluator(source, purities);
+        Ast.Source result = (Ast.Source) evaluator.visit(source);
+        entry.count("evaluated", evaluator.getChanges());
+        return result;
+    }
+
+    private final class Evaluator extends Rewriter {
+
+        private final Ast.Source source;
+        private final Map<String, Purity> purities;
+        private final Map<List<Object>, Optional<Object>> results = new HashMap<>();
+        private Interpreter interpreter = null;
+
+        private Evaluator(Ast.Source source, Map<String, Purity> purities) {
+            this.source = source;
+            this.purities = purities;
+        }
+
+        @Override
+        public Ast visit(Ast.Expr.Function ast) {
+            Ast.Expr.Function call = (Ast.Expr.Function) super.visit(ast);
+            String key = call.getName() + "/" + call.getArguments().size();
+            if (call.getReceiver().isPresent() || purities.get(key) != Purity.PURE) {
+                return call;
+            }
+            List<Object> arguments = new ArrayList<>();
+            for (Ast.Expr argument : call.getArguments()) {
+                if (!(argument instanceof Ast.Expr.Literal)) {
+                    return call;
+                }
+                arguments.add(((Ast.Expr.Literal) argument).getLiteral());
+            }
+            Optional<Object> result = results.computeIfAbsent(Arrays.asList(key, arguments), k -> evaluate(call, arguments));
+            if (!result.isPresent()) {
+                return call;
+            }
+            changed();
+            return literal(result.get(), call);
+        }
+
+        /**
+         * Returns the value the call returns, if it can be evaluated and
+         * emitted as a literal.
+         */
+        private Optional<Object> evaluate(Ast.Expr.Function call, List<Object> arguments) {
+            if (interpreter == null) {
+                interpreter = new Interpreter(new Scope(null));
+                for (Ast.Method method : source.getMethods()) {
+                    interpreter.visit(method);
+                }
+            }
+            List<Environment.PlcObject> values = new ArrayList<>();
+            for (Object argument : arguments) {
+                values.add(argument == null ? Environment.NIL : Environment.create(argument));
+            }
+            Object value;
+            interpreter.setBudget(maxSteps);
+            try {
+                value = interpreter.getScope().lookupFunction(call.getName(), arguments.size()).invoke(values).getValue();
+            } catch (RuntimeException | StackOverflowError e) {
+                return Optional.empty();
+            }
+            if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 32
+                    || value instanceof Boolean || value instanceof Character || value instanceof String) {
+                return Optional.of(value);
+            }
+            return Optional.empty();
+        }
+
+    }
+
+}
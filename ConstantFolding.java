@@ -0,0 +1,134 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Evaluates binary expressions over literals at compile time, following the
+ * semantics of the {@link Interpreter}. Expressions are only folded when the
+ * result is guaranteed to match both backends, so decimal arithmetic (exact or
+ * rounded by the interpreter, computed on {@code double} by generated code),
+ * equality of decimals and their concatenation to strings (which depend on
+ * the scale of a {@link BigDecimal}, but not of a {@code double}), comparisons
+ * of strings and characters, division by zero and integers outside the 32-bit
+ * range that the {@link Generator} emits are left alone.
+ *
+ * Groups around a single literal, access or call are also unwrapped, since the
+ * parentheses are redundant there.
+ */
+public final class ConstantFolding implements Optimizer.Pass {
+
+    @Override
+    public String getName() {
+        return "constant-folding";
+    }
+
+    @Override
+    public Ast.Source apply(Ast.Source source, Optimizer.Statistics.Entry entry) {
+        Folder folder = new Folder();
+        Ast.Source result = (Ast.Source) folder.visit(source);
+        entry.count("folded", folder.getChanges());
+        return result;
+    }
+
+    /**
+     * Returns the value of {@code left op right} if it can be computed at
+     * compile time.
+     */
+    static Optional<Object> fold(String op, Object left, Object right) {
+        switch (op) {
+            case "AND":
+            case "OR":
+                if (left instanceof Boolean && right instanceof Boolean) {
+                    return Optional.of(op.equals("AND")
+                            ? (Boolean) left && (Boolean) right
+                            : (Boolean) left || (Boolean) right);
+                }
+                break;
+            case "==":
+            case "!=":
+                if (left instanceof BigDecimal || right instanceof BigDecimal) {
+                    // Decimals equal as doubles may differ in scale.
+                    break;
+                }
+                return Optional.of(op.equals("==") == Objects.equals(left, right));
+            case "<":
+            case "<=":
+            case ">":
+            case ">=":
+                if (left instanceof BigInteger && right instanceof BigInteger
+                        || left instanceof BigDecimal && right instanceof BigDecimal) {
+                    @SuppressWarnings("unchecked")
+                    int result = ((Comparable<Object>) left).compareTo(right);
+                    return Optional.of(op.equals("<") ? result < 0
+                            : op.equals("<=") ? result <= 0
+                            : op.equals(">") ? result > 0
+                            : result >= 0);
+                }
+                break;
+            case "+":
+                if ((left instanceof String || right instanceof String) && left != null && right != null
+                        && !(left instanceof BigDecimal || right instanceof BigDecimal)) {
+                    return Optional.of(left.toString() + right.toString());
+                }
+                return integer(op, left, right);
+            case "-":
+            case "*":
+            case "/":
+                return integer(op, left, right);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the value of integer arithmetic if it does not divide by zero
+     * and fits in 32 bits.
+     */
+    private static Optional<Object> integer(String op, Object left, Object right) {
+        if (!(left instanceof BigInteger && right instanceof BigInteger)) {
+            return Optional.empty();
+        }
+        BigInteger l = (BigInteger) left;
+        BigInteger r = (BigInteger) right;
+        if (op.equals("/") && r.signum() == 0) {
+            return Optional.empty();
+        }
+        BigInteger result = op.equals("+") ? l.add(r)
+                : op.equals("-") ? l.subtract(r)
+                : op.equals("*") ? l.multiply(r)
+                : l.divide(r);
+        return result.bitLength() < 32 ? Optional.of(result) : Optional.empty();
+    }
+
+    private static final class Folder extends Rewriter {
+
+        @Override
+        public Ast visit(Ast.Expr.Group ast) {
+            Ast.Expr.Group group = (Ast.Expr.Group) super.visit(ast);
+            if (!(group.getExpression() instanceof Ast.Expr.Binary)) {
+                changed();
+                return group.getExpression();
+            }
+            return group;
+        }
+
+        @Override
+        public Ast visit(Ast.Expr.Binary ast) {
+            Ast.Expr.Binary binary = (Ast.Expr.Binary) super.visit(ast);
+            if (binary.getLeft() instanceof Ast.Expr.Literal && binary.getRight() instanceof Ast.Expr.Literal) {
+                Object left = ((Ast.Expr.Literal) binary.getLeft()).getLiteral();
+                Object right = ((Ast.Expr.Literal) binary.getRight()).getLiteral();
+                Optional<Object> result = fold(binary.getOperator(), left, right);
+                if (result.isPresent()) {
+                    changed();
+                    return literal(result.get(), binary);
+                }
+            }
+            return binary;
+        }
+
+    }
+
+}
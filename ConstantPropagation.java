@@ -0,0 +1,120 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces reads of fields that are effectively constant with their value, so
+ * that {@link ConstantFolding} and {@link DeadBranchElimination} can work
+ * across them. A field is effectively constant if it is initialized with a
+ * literal and never assigned, which is checked over the whole source.
+ *
+ * Names are matched without regard to scoping, so a field is not propagated
+ * if any method declares a parameter or variable with its name. Reads in the
+ * initializers of fields are only replaced after the field has been defined,
+ * and fields are only propagated into methods if no earlier initializer calls
+ * a method, which could otherwise read them before they are defined. The
+ * fields themselves are kept, and left to {@link TreeShaking} once unused.
+ */
+public final class ConstantPropagation implements Optimizer.Pass {
+
+    @Override
+    public String getName() {
+        return "constant-propagation";
+    }
+
+    @Override
+    public Ast.Source apply(Ast.Source source, Optimizer.Statistics.Entry entry) {
+        Set<String> methods = Effects.methods(source);
+        Set<String> assigned = new HashSet<>();
+        Set<String> declared = new HashSet<>();
+        for (Ast.Method method : source.getMethods()) {
+            Effects effects = Effects.of(method, methods);
+            assigned.addAll(effects.assigned);
+            declared.addAll(effects.declared);
+        }
+
+        // Constants are collected in order, so that each initializer only sees
+        // the fields defined before it.
+        List<Ast.Field> fields = source.getFields();
+        Map<String, Object> constants = new HashMap<>();
+        Map<String, Object> global = new HashMap<>();
+        boolean calls = false;
+        Propagation propagation = new Propagation(constants);
+        for (int i = 0; i < fields.size(); i++) {
+            Ast.Field field = fields.get(i);
+            if (field.getValue().isPresent()) {
+                Ast.Field rewritten = (Ast.Field) propagation.rewrite(field);
+                if (rewritten != field) {
+                    fields = replace(fields, i, rewritten);
+                    field = rewritten;
+                }
+                calls |= Effects.of(field, methods).calls;
+            }
+            String name = field.getName();
+            constants.remove(name);
+            if (field.getValue().isPresent() && field.getValue().get() instanceof Ast.Expr.Literal
+                    && !assigned.contains(name) && !declared.contains(name)) {
+                Object value = ((Ast.Expr.Literal) field.getValue().get()).getLiteral();
+                constants.put(name, value);
+                if (!calls) {
+                    global.put(name, value);
+                }
+            }
+        }
+
+        int changes = propagation.getChanges();
+        List<Ast.Method> rewritten = source.getMethods();
+        if (!global.isEmpty()) {
+            propagation = new Propagation(global);
+            for (int i = 0; i < rewritten.size(); i++) {
+                Ast.Method method = (Ast.Method) propagation.rewrite(rewritten.get(i));
+                if (method != rewritten.get(i)) {
+                    rewritten = replace(rewritten, i, method);
+                }
+            }
+            changes += propagation.getChanges();
+        }
+        if (changes == 0) {
+            return source;
+        }
+        entry.count("propagated", changes);
+        return new Ast.Source(fields, rewritten);
+    }
+
+    private static <T> List<T> replace(List<T> list, int index, T element) {
+        List<T> copy = new ArrayList<>(list);
+        copy.set(index, element);
+        return copy;
+    }
+
+    /**
+     * Replaces reads of the given fields with their values.
+     */
+    private static final class Propagation extends Traversal.Rewrite {
+
+        private final Map<String, Object> constants;
+
+        private Propagation(Map<String, Object> constants) {
+            this.constants = constants;
+        }
+
+        @Override
+        protected Ast exit(Ast ast) {
+            if (ast instanceof Ast.Expr.Access) {
+                Ast.Expr.Access access = (Ast.Expr.Access) ast;
+                if (!access.getReceiver().isPresent() && constants.containsKey(access.getName())) {
+                    changed();
+                    return Rewriter.literal(constants.get(access.getName()), access);
+                }
+            }
+            return ast;
+        }
+
+    }
+
+}
@@ -0,0 +1,104 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Removes branches that can never execute: {@code IF TRUE}/{@code IF FALSE}
+ * statements are replaced by the statements of the taken branch, and
+ * {@code WHILE FALSE} loops are removed entirely. Statements following a
+ * {@code RETURN} spliced into a block this way are dropped as unreachable.
+ *
+ * The analyzer checks each branch of an {@code IF} in its own scope, so a
+ * branch declaring variables is not spliced into the enclosing block since
+ * its declarations could then clash with later ones.
+ */
+public final class DeadBranchElimination implements Optimizer.Pass {
+
+    @Override
+    public String getName() {
+        return "dead-branch-elimination";
+    }
+
+    @Override
+    public Ast.Source apply(Ast.Source source, Optimizer.Statistics.Entry entry) {
+        Eliminator eliminator = new Eliminator();
+        Ast.Source result = (Ast.Source) eliminator.visit(source);
+        entry.count("branches", eliminator.getChanges());
+        return result;
+    }
+
+    private static final class Eliminator extends Rewriter {
+
+        @Override
+        protected List<Ast.Stmt> visitStatements(List<Ast.Stmt> statements) {
+            List<Ast.Stmt> rewritten = super.visitStatements(statements);
+            List<Ast.Stmt> result = null;
+            for (int i = 0; i < rewritten.size(); i++) {
+                Ast.Stmt stmt = rewritten.get(i);
+                List<Ast.Stmt> replacement = eliminate(stmt);
+                if (result == null && replacement != null) {
+                    result = new ArrayList<>(rewritten.subList(0, i));
+                }
+                if (result != null) {
+                    if (replacement != null) {
+                        changed();
+                        result.addAll(replacement);
+                    } else {
+                        result.add(stmt);
+                    }
+                }
+            }
+            if (result != null) {
+                // A RETURN spliced out of a branch makes the rest of the block
+                // unreachable, which generated Java code would reject.
+                for (int i = 0; i < result.size() - 1; i++) {
+                    if (result.get(i) instanceof Ast.Stmt.Return) {
+                        result.subList(i + 1, result.size()).clear();
+                    }
+                }
+            }
+            return result == null ? rewritten : result;
+        }
+
+        /**
+         * Returns the statements replacing a dead branch, or null if the
+         * statement is kept as is.
+         */
+        private List<Ast.Stmt> eliminate(Ast.Stmt stmt) {
+            if (stmt instanceof Ast.Stmt.If) {
+                Ast.Stmt.If ast = (Ast.Stmt.If) stmt;
+                Boolean condition = constant(ast.getCondition());
+                if (condition != null) {
+                    List<Ast.Stmt> taken = condition ? ast.getThenStatements() : ast.getElseStatements();
+                    if (!declares(taken)) {
+                        return taken;
+                    }
+                }
+            } else if (stmt instanceof Ast.Stmt.While) {
+                if (Boolean.FALSE.equals(constant(((Ast.Stmt.While) stmt).getCondition()))) {
+                    return new ArrayList<>();
+                }
+            }
+            return null;
+        }
+
+        private static Boolean constant(Ast.Expr expr) {
+            if (expr instanceof Ast.Expr.Literal && ((Ast.Expr.Literal) expr).getLiteral() instanceof Boolean) {
+                return (Boolean) ((Ast.Expr.Literal) expr).getLiteral();
+            }
+            return null;
+        }
+
+        private static boolean declares(List<Ast.Stmt> statements) {
+            for (Ast.Stmt stmt : statements) {
+                if (stmt instanceof Ast.Stmt.Declaration) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+}
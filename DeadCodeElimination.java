@@ -0,0 +1,239 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Removes code from method bodies that has no effect on the program:
+ *
+ *  - statements following a {@code RETURN}, or an {@code IF} returning from
+ *    both of its branches, which can never execute
+ *  - declarations of local variables that are never used afterwards
+ *  - assignments to local variables (and initial values of declarations) that
+ *    are always overwritten or go out of scope before being read
+ *
+ * Dead stores are found with a backward liveness analysis over the statements
+ * of each method, iterated to a fixpoint for loops. Liveness is tracked per
+ * local of the method (see {@link Effects.Bindings}), so a local shadowing
+ * another of the same name does not affect it; fields and globals could be
+ * read by other methods and are not considered. A store
+ * is only removed if its value is free of side effects and cannot fail, that
+ * is if it is a literal, a parameter, or an expression typed by the analyzer.
+ * A dead store of a call is replaced by the call itself.
+ */
+public final class DeadCodeElimination implements Optimizer.Pass {
+
+    @Override
+    public String getName() {
+        return "dead-code-elimination";
+    }
+
+    @Override
+    public Ast.Source apply(Ast.Source source, Optimizer.Statistics.Entry entry) {
+        Eliminator eliminator = new Eliminator();
+        Ast.Source result = (Ast.Source) eliminator.visit(source);
+        entry.count("unreachable", eliminator.unreachable);
+        entry.count("declarations", eliminator.declarations);
+        entry.count("stores", eliminator.stores);
+        return result;
+    }
+
+    private static final class Eliminator extends Rewriter {
+
+        private final Set<String> parameters = new HashSet<>();
+        private Effects.Bindings bindings;
+        private int unreachable = 0;
+        private int declarations = 0;
+        private int stores = 0;
+
+        @Override
+        public Ast visit(Ast.Field ast) {
+            return ast;
+        }
+
+        @Override
+        public Ast visit(Ast.Method ast) {
+            bindings = Effects.Bindings.of(ast);
+            parameters.clear();
+            parameters.addAll(ast.getParameters());
+            List<Ast.Stmt> statements = sweep(ast.getStatements(), new HashSet<>(), true);
+            if (statements == ast.getStatements()) {
+                return ast;
+            }
+            return Ast.copyAnnotations(ast, new Ast.Method(ast.getName(), ast.getParameters(), ast.getParameterTypeNames(), ast.getReturnTypeName(), statements));
+        }
+
+        /**
+         * Removes dead code from a block given the variables live after it,
+         * updating them to the variables live before it. If {@code rewrite}
+         * is false, only the liveness is computed (used while iterating loops
+         * to a fixpoint). Returns the original list if nothing was removed.
+         */
+        private List<Ast.Stmt> sweep(List<Ast.Stmt> statements, Set<Object> live, boolean rewrite) {
+            int end = reachable(statements);
+            if (rewrite) {
+                unreachable += statements.size() - end;
+            }
+            Set<Object> mentioned = new HashSet<>();
+            List<Ast.Stmt> result = new ArrayList<>();
+            boolean modified = end < statements.size();
+            for (int i = end - 1; i >= 0; i--) {
+                Ast.Stmt stmt = statements.get(i);
+                Ast.Stmt swept = sweep(stmt, live, mentioned, rewrite);
+                if (swept != null) {
+                    result.add(swept);
+                    mentioned.addAll(bindings.reads(swept));
+                }
+                modified |= swept != stmt;
+            }
+            if (!modified) {
+                return statements;
+            }
+            Collections.reverse(result);
+            return result;
+        }
+
+        /**
+         * Returns the statement with dead code removed, or null if it is
+         * removed entirely. {@code mentioned} holds the variables read or
+         * assigned by the statements kept after it in the same block.
+         */
+        private Ast.Stmt sweep(Ast.Stmt stmt, Set<Object> live, Set<Object> mentioned, boolean rewrite) {
+            if (stmt instanceof Ast.Stmt.Declaration) {
+                Ast.Stmt.Declaration ast = (Ast.Stmt.Declaration) stmt;
+                Object variable = bindings.of(ast);
+                boolean dead = variable != null && !live.remove(variable);
+                if (dead && (!ast.getValue().isPresent() || isRemovable(ast.getValue().get()))) {
+                    if (!mentioned.contains(variable)) {
+                        declarations += rewrite ? 1 : 0;
+                        return null;
+                    } else if (ast.getValue().isPresent() && ast.getTypeName().isPresent()) {
+                        stores += rewrite ? 1 : 0;
+                        return Ast.copyAnnotations(ast, new Ast.Stmt.Declaration(ast.getName(), ast.getTypeName(), Optional.empty()));
+                    }
+                }
+                ast.getValue().ifPresent(value -> live.addAll(reads(value)));
+                return stmt;
+            } else if (stmt instanceof Ast.Stmt.Assignment) {
+                Ast.Stmt.Assignment ast = (Ast.Stmt.Assignment) stmt;
+                if (ast.getReceiver() instanceof Ast.Expr.Access && !((Ast.Expr.Access) ast.getReceiver()).getReceiver().isPresent()) {
+                    Object variable = bindings.of(ast.getReceiver());
+                    if (variable != null && !live.contains(variable)) {
+                        if (isRemovable(ast.getValue())) {
+                            stores += rewrite ? 1 : 0;
+                            return null;
+                        } else if (ast.getValue() instanceof Ast.Expr.Function) {
+                            stores += rewrite ? 1 : 0;
+                            live.addAll(reads(ast.getValue()));
+                            return new Ast.Stmt.Expression(ast.getValue());
+                        }
+                    }
+                    live.remove(variable);
+                } else {
+                    live.addAll(reads(ast.getReceiver()));
+                }
+                live.addAll(reads(ast.getValue()));
+                return stmt;
+            } else if (stmt instanceof Ast.Stmt.Return) {
+                live.clear();
+                live.addAll(reads(((Ast.Stmt.Return) stmt).getValue()));
+                return stmt;
+            } else if (stmt instanceof Ast.Stmt.If) {
+                Ast.Stmt.If ast = (Ast.Stmt.If) stmt;
+                Set<Object> elseLive = new HashSet<>(live);
+                List<Ast.Stmt> thenStatements = sweep(ast.getThenStatements(), live, rewrite);
+                List<Ast.Stmt> elseStatements = sweep(ast.getElseStatements(), elseLive, rewrite);
+                live.addAll(elseLive);
+                live.addAll(reads(ast.getCondition()));
+                if (thenStatements == ast.getThenStatements() && elseStatements == ast.getElseStatements()) {
+                    return stmt;
+                }
+                return new Ast.Stmt.If(ast.getCondition(), thenStatements, elseStatements);
+            } else if (stmt instanceof Ast.Stmt.While) {
+                Ast.Stmt.While ast = (Ast.Stmt.While) stmt;
+                live.addAll(reads(ast.getCondition()));
+                List<Ast.Stmt> statements = sweepLoop(ast.getStatements(), null, live, rewrite);
+                return statements == ast.getStatements() ? stmt : new Ast.Stmt.While(ast.getCondition(), statements);
+            } else if (stmt instanceof Ast.Stmt.For) {
+                Ast.Stmt.For ast = (Ast.Stmt.For) stmt;
+                List<Ast.Stmt> statements = sweepLoop(ast.getStatements(), bindings.of(ast), live, rewrite);
+                live.addAll(reads(ast.getValue()));
+                return statements == ast.getStatements() ? stmt : new Ast.Stmt.For(ast.getName(), ast.getValue(), statements);
+            } else {
+                live.addAll(reads(((Ast.Stmt.Expression) stmt).getExpression()));
+                return stmt;
+            }
+        }
+
+        /**
+         * Sweeps the body of a loop, which runs again after itself, once the
+         * variables live at the start of the loop have reached a fixpoint.
+         */
+        private List<Ast.Stmt> sweepLoop(List<Ast.Stmt> statements, Object variable, Set<Object> live, boolean rewrite) {
+            while (true) {
+                Set<Object> body = new HashSet<>(live);
+                sweep(statements, body, false);
+                body.remove(variable);
+                if (!live.addAll(body)) {
+                    break;
+                }
+            }
+            return sweep(statements, new HashSet<>(live), rewrite);
+        }
+
+        private Set<Object> reads(Ast.Expr expr) {
+            return bindings.reads(expr);
+        }
+
+        /**
+         * Returns true if the value of a dead store can be dropped: it has no
+         * side effects and evaluating it cannot fail.
+         */
+        private boolean isRemovable(Ast.Expr expr) {
+            if (!isSideEffectFree(expr)) {
+                return false;
+            }
+            return expr instanceof Ast.Expr.Literal || Ast.typeOf(expr) != null
+                    || expr instanceof Ast.Expr.Access && !((Ast.Expr.Access) expr).getReceiver().isPresent()
+                    && parameters.contains(((Ast.Expr.Access) expr).getName());
+        }
+
+    }
+
+    /**
+     * Returns the number of statements of the block that can execute, which
+     * ends after the first statement that always returns.
+     */
+    private static int reachable(List<Ast.Stmt> statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            if (returns(statements.get(i))) {
+                return i + 1;
+            }
+        }
+        return statements.size();
+    }
+
+    private static boolean returns(Ast.Stmt stmt) {
+        if (stmt instanceof Ast.Stmt.Return) {
+            return true;
+        } else if (stmt instanceof Ast.Stmt.If) {
+            Ast.Stmt.If ast = (Ast.Stmt.If) stmt;
+            return returns(ast.getThenStatements()) && returns(ast.getElseStatements());
+        }
+        return false;
+    }
+
+    private static boolean returns(List<Ast.Stmt> statements) {
+        for (Ast.Stmt stmt : statements) {
+            if (returns(stmt)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
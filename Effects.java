@@ -0,0 +1,276 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Summarizes the variables a statement or expression declares, assigns and
+ * reads, the fields it assigns and reads, and whether it calls any method
+ * other than the built-in {@code print}, which could assign globals or fields.
+ */
+final class Effects extends Traversal.Walk {
+
+    final Set<String> declared = new HashSet<>();
+    final Set<String> assigned = new HashSet<>();
+    final Set<String> assignedFields = new HashSet<>();
+    final Set<String> read = new HashSet<>();
+    final Set<String> fields = new HashSet<>();
+    boolean calls = false;
+
+    private final Set<String> methods;
+
+    /**
+     * Creates an empty summary, given the {@code name/arity} keys of the
+     * methods of the source (a method named {@code print} replaces the
+     * built-in).
+     */
+    Effects(Set<String> methods) {
+        this.methods = methods;
+    }
+
+    /**
+     * Returns the {@code name/arity} keys of the methods of the source.
+     */
+    static Set<String> methods(Ast.Source source) {
+        Set<String> methods = new HashSet<>();
+        for (Ast.Method method : source.getMethods()) {
+            methods.add(method.getName() + "/" + method.getParameters().size());
+        }
+        return methods;
+    }
+
+    static Effects of(Ast ast, Set<String> methods) {
+        Effects effects = new Effects(methods);
+        effects.walk(ast);
+        return effects;
+    }
+
+    @Override
+    protected boolean enter(Ast ast) {
+        if (ast instanceof Ast.Method) {
+            declared.addAll(((Ast.Method) ast).getParameters());
+        } else if (ast instanceof Ast.Stmt.Declaration) {
+            declared.add(((Ast.Stmt.Declaration) ast).getName());
+        } else if (ast instanceof Ast.Stmt.For) {
+            declared.add(((Ast.Stmt.For) ast).getName());
+        } else if (ast instanceof Ast.Stmt.Assignment) {
+            Ast.Expr receiver = ((Ast.Stmt.Assignment) ast).getReceiver();
+            if (receiver instanceof Ast.Expr.Access) {
+                Ast.Expr.Access access = (Ast.Expr.Access) receiver;
+                (access.getReceiver().isPresent() ? assignedFields : assigned).add(access.getName());
+            }
+        } else if (ast instanceof Ast.Expr.Access) {
+            Ast.Expr.Access access = (Ast.Expr.Access) ast;
+            (access.getReceiver().isPresent() ? fields : read).add(access.getName());
+        } else if (ast instanceof Ast.Expr.Function) {
+            calls |= !isPrint((Ast.Expr.Function) ast);
+        }
+        return true;
+    }
+
+    boolean isPrint(Ast.Expr.Function ast) {
+        return !ast.getReceiver().isPresent() && ast.getName().equals("print")
+                && ast.getArguments().size() == 1 && !methods.contains("print/1");
+    }
+
+    /**
+     * Resolves the accesses of a method without a receiver to the variables
+     * they are bound to, following the scopes of the {@link Analyzer}: the
+     * scope of the method holding its parameters, and one scope per branch of
+     * an {@code IF} and per loop body. An access is local if its name is
+     * declared in one of the scopes enclosing it, and global otherwise, so a
+     * global read before a local of the same name is declared stays global.
+     *
+     * Since the {@link Interpreter} runs the branches of an {@code IF} in the
+     * enclosing scope, a name declared in a branch may be bound to a
+     * different variable at runtime; such names are treated as globals
+     * throughout the method. Accesses are compared by identity, and an access
+     * shared between several positions is only local if it is local at all
+     * of them. Accesses that were not part of the method are global.
+     */
+    static final class Bindings {
+
+        private static final Object GLOBAL = new Object();
+
+        private final Map<Ast, Set<Object>> bindings = new IdentityHashMap<>();
+        private final Set<String> branched = new HashSet<>();
+        private final Deque<Map<String, Object>> scopes = new ArrayDeque<>();
+
+        private Bindings() {}
+
+        static Bindings of(Ast.Method method) {
+            Bindings bindings = new Bindings();
+            bindings.branched(method.getStatements(), false);
+            Map<String, Object> scope = new HashMap<>();
+            for (String parameter : method.getParameters()) {
+                scope.put(parameter, bindings.branched.contains(parameter) ? GLOBAL : new Object());
+            }
+            bindings.scopes.push(scope);
+            for (Ast.Stmt statement : method.getStatements()) {
+                bindings.statement(statement);
+            }
+            return bindings;
+        }
+
+        /**
+         * Returns true if the access is bound to a local of the method.
+         */
+        boolean isLocal(Ast.Expr.Access access) {
+            Set<Object> variables = bindings.get(access);
+            return !access.getReceiver().isPresent() && variables != null && !variables.contains(GLOBAL);
+        }
+
+        /**
+         * Returns the local a declaration, {@code FOR} loop or access is bound
+         * to, or null if it is bound to a global or to different variables at
+         * different positions. Locals are only compared by identity.
+         */
+        Object of(Ast ast) {
+            Set<Object> variables = bindings.get(ast);
+            return variables != null && variables.size() == 1 && !variables.contains(GLOBAL)
+                    ? variables.iterator().next()
+                    : null;
+        }
+
+        /**
+         * Returns the locals the accesses of a node may be bound to.
+         */
+        Set<Object> reads(Ast ast) {
+            Set<Object> reads = new HashSet<>();
+            new Traversal.Walk() {
+
+                @Override
+                protected boolean enter(Ast ast) {
+                    if (ast instanceof Ast.Expr.Access && bindings.containsKey(ast)) {
+                        reads.addAll(bindings.get(ast));
+                    }
+                    return true;
+                }
+
+            }.walk(ast);
+            reads.remove(GLOBAL);
+            return reads;
+        }
+
+        /**
+         * Returns true if the node accesses a variable that is not a local of
+         * the method.
+         */
+        boolean readsGlobals(Ast ast) {
+            boolean[] globals = {false};
+            new Traversal.Walk() {
+
+                @Override
+                protected boolean enter(Ast ast) {
+                    if (ast instanceof Ast.Expr.Access && !((Ast.Expr.Access) ast).getReceiver().isPresent()
+                            && !isLocal((Ast.Expr.Access) ast)) {
+                        globals[0] = true;
+                    }
+                    return !globals[0];
+                }
+
+            }.walk(ast);
+            return globals[0];
+        }
+
+        /**
+         * Collects the names declared in a branch of an {@code IF}, including
+         * those of nested {@code IF}s, which share the enclosing scope.
+         */
+        private void branched(List<Ast.Stmt> statements, boolean branch) {
+            for (Ast.Stmt statement : statements) {
+                if (statement instanceof Ast.Stmt.Declaration && branch) {
+                    branched.add(((Ast.Stmt.Declaration) statement).getName());
+                } else if (statement instanceof Ast.Stmt.If) {
+                    branched(((Ast.Stmt.If) statement).getThenStatements(), true);
+                    branched(((Ast.Stmt.If) statement).getElseStatements(), true);
+                } else if (statement instanceof Ast.Stmt.While) {
+                    branched(((Ast.Stmt.While) statement).getStatements(), false);
+                } else if (statement instanceof Ast.Stmt.For) {
+                    branched(((Ast.Stmt.For) statement).getStatements(), false);
+                }
+            }
+        }
+
+        private void statement(Ast.Stmt statement) {
+            if (statement instanceof Ast.Stmt.Expression) {
+                expression(((Ast.Stmt.Expression) statement).getExpression());
+            } else if (statement instanceof Ast.Stmt.Declaration) {
+                Ast.Stmt.Declaration declaration = (Ast.Stmt.Declaration) statement;
+                declaration.getValue().ifPresent(this::expression);
+                Object variable = branched.contains(declaration.getName()) ? GLOBAL : new Object();
+                bind(declaration, variable);
+                scopes.peek().put(declaration.getName(), variable);
+            } else if (statement instanceof Ast.Stmt.Assignment) {
+                expression(((Ast.Stmt.Assignment) statement).getReceiver());
+                expression(((Ast.Stmt.Assignment) statement).getValue());
+            } else if (statement instanceof Ast.Stmt.If) {
+                Ast.Stmt.If ast = (Ast.Stmt.If) statement;
+                expression(ast.getCondition());
+                block(ast.getThenStatements(), null, null);
+                block(ast.getElseStatements(), null, null);
+            } else if (statement instanceof Ast.Stmt.For) {
+                Ast.Stmt.For ast = (Ast.Stmt.For) statement;
+                expression(ast.getValue());
+                Object variable = branched.contains(ast.getName()) ? GLOBAL : new Object();
+                bind(ast, variable);
+                block(ast.getStatements(), ast.getName(), variable);
+            } else if (statement instanceof Ast.Stmt.While) {
+                expression(((Ast.Stmt.While) statement).getCondition());
+                block(((Ast.Stmt.While) statement).getStatements(), null, null);
+            } else if (statement instanceof Ast.Stmt.Return) {
+                expression(((Ast.Stmt.Return) statement).getValue());
+            }
+        }
+
+        private void block(List<Ast.Stmt> statements, String name, Object variable) {
+            Map<String, Object> scope = new HashMap<>();
+            if (name != null) {
+                scope.put(name, variable);
+            }
+            scopes.push(scope);
+            for (Ast.Stmt statement : statements) {
+                statement(statement);
+            }
+            scopes.pop();
+        }
+
+        private void expression(Ast.Expr expr) {
+            new Traversal.Walk() {
+
+                @Override
+                protected boolean enter(Ast ast) {
+                    if (ast instanceof Ast.Expr.Access && !((Ast.Expr.Access) ast).getReceiver().isPresent()) {
+                        bind(ast, lookup(((Ast.Expr.Access) ast).getName()));
+                    }
+                    return true;
+                }
+
+            }.walk(expr);
+        }
+
+        private Object lookup(String name) {
+            if (branched.contains(name)) {
+                return GLOBAL;
+            }
+            for (Map<String, Object> scope : scopes) {
+                if (scope.containsKey(name)) {
+                    return scope.get(name);
+                }
+            }
+            return GLOBAL;
+        }
+
+        private void bind(Ast ast, Object variable) {
+            bindings.computeIfAbsent(ast, a -> new HashSet<>()).add(variable);
+        }
+
+    }
+
+}
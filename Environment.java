@@ -2,6 +2,7 @@ package plc.project;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,6 +19,7 @@ public final class Environment {
     });
 
     private static final Map<String, Type> TYPES = new HashMap<>();
+    private static final List<Type> REGISTERED = new ArrayList<>();
 
     public static Type getType(String name) {
         if (!TYPES.containsKey(name)) {
@@ -26,11 +28,29 @@ public final class Environment {
         return TYPES.get(name);
     }
 
+    /**
+     * Registers a type under its name, giving it the next dense id. The
+     * supertype sets of the new type and of the types registered before it
+     * are updated, so that {@link Type#isSubtypeOf(Type)} is a single bit test
+     * between registered types.
+     */
     public static void registerType(Type type) {
         if (TYPES.containsKey(type.getName())) {
             throw new IllegalArgumentException("Duplicate registration of type " + type.getName() + ".");
         }
         TYPES.put(type.getName(), type);
+        type.id = REGISTERED.size();
+        REGISTERED.add(type);
+        type.supertypes.set(type.id);
+        for (Type other : REGISTERED) {
+            if (type.inherits(other)) {
+                type.supertypes.set(other.id);
+            }
+            if (other.inherits(type)) {
+                other.supertypes.set(type.id);
+            }
+        }
+        type.flatten();
     }
 
     public static PlcObject create(Object value) {
@@ -52,6 +72,9 @@ public final class Environment {
         private final String name;
         private final String jvmName;
         private final Scope scope;
+        private int id = -1;
+        private final BitSet supertypes = new BitSet();
+        private volatile MethodTable methods = null;
 
         public Type(String name, String jvmName, Scope scope) {
             this.name = name;
@@ -59,6 +82,60 @@ public final class Environment {
             this.scope = scope;
         }
 
+        /**
+         * Returns the dense id given to the type when it was registered, or
+         * -1 if it is not registered.
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Returns true if a value of this type can be used where the other
+         * type is expected: the types are the same, the other type is
+         * {@link #ANY}, or this type inherits the scope of the other (as
+         * {@link #INTEGER} does that of {@link #COMPARABLE}).
+         */
+        public boolean isSubtypeOf(Type other) {
+            if (this == other || other == ANY) {
+                return true;
+            } else if (id >= 0 && other.id >= 0) {
+                return supertypes.get(other.id);
+            }
+            return inherits(other);
+        }
+
+        private boolean inherits(Type other) {
+            if (other == ANY) {
+                return true;
+            }
+            for (Scope current = scope; current != null; current = current.getParent()) {
+                if (current == other.scope) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Rebuilds the method table of the type from its scope and the scopes
+         * it inherits, methods of nearer scopes taking precedence.
+         */
+        private MethodTable flatten() {
+            List<Scope> chain = new ArrayList<>();
+            for (Scope current = scope; current != null; current = current.getParent()) {
+                chain.add(current);
+            }
+            MethodTable table = new MethodTable(chain);
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                for (Function function : chain.get(i).getFunctions()) {
+                    table.put(function);
+                }
+            }
+            methods = table;
+            return table;
+        }
+
         public String getName() {
             return name;
         }
@@ -75,7 +152,23 @@ public final class Environment {
             return scope.lookupVariable(name);
         }
 
+        /**
+         * Returns the method with the given name and arity (not counting the
+         * receiver). Registered types look methods up in a table flattened
+         * from their scopes, which is rebuilt if functions have since been
+         * defined in any of them.
+         */
         public Function getMethod(String name, int arity) {
+            if (id >= 0) {
+                MethodTable table = methods;
+                if (table == null || table.isStale()) {
+                    table = flatten();
+                }
+                Function function = table.get(name, arity + 1);
+                if (function != null) {
+                    return function;
+                }
+            }
             return scope.lookupFunction(name, arity + 1);
         }
 
@@ -90,6 +183,49 @@ public final class Environment {
 
     }
 
+    /**
+     * The methods of a type and of the types it inherits, by name and arity.
+     */
+    private static final class MethodTable {
+
+        private final Scope[] scopes;
+        private final int[] versions;
+        private final Map<String, Function[]> methods = new HashMap<>();
+
+        private MethodTable(List<Scope> scopes) {
+            this.scopes = scopes.toArray(new Scope[0]);
+            this.versions = new int[this.scopes.length];
+            for (int i = 0; i < this.scopes.length; i++) {
+                versions[i] = this.scopes[i].getVersion();
+            }
+        }
+
+        private void put(Function function) {
+            int arity = function.getParameterTypes().size();
+            Function[] overloads = methods.get(function.getName());
+            if (overloads == null || overloads.length <= arity) {
+                overloads = overloads == null ? new Function[arity + 1] : Arrays.copyOf(overloads, arity + 1);
+                methods.put(function.getName(), overloads);
+            }
+            overloads[arity] = function;
+        }
+
+        private Function get(String name, int arity) {
+            Function[] overloads = methods.get(name);
+            return overloads != null && arity < overloads.length ? overloads[arity] : null;
+        }
+
+        private boolean isStale() {
+            for (int i = 0; i < scopes.length; i++) {
+                if (scopes[i].getVersion() != versions[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
     public static final class PlcObject {
 
         private final Type type;
@@ -9,10 +9,20 @@ import java.util.List;
 public final class Generator implements Ast.Visitor<Void> {
 
     private final PrintWriter writer;
+    private final Optimizer optimizer;
     private int indent = 0;
 
     public Generator(PrintWriter writer) {
+        this(writer, new Optimizer(0));
+    }
+
+    /**
+     * Creates a generator which runs (analyzed) sources through the given
+     * optimizer before emitting them.
+     */
+    public Generator(PrintWriter writer, Optimizer optimizer) {
         this.writer = writer;
+        this.optimizer = optimizer;
     }
 
     private void print(Object... objects) {
@@ -51,6 +61,7 @@ public final class Generator implements Ast.Visitor<Void> {
 
     @Override
     public Void visit(Ast.Source ast) {
+        ast = optimizer.optimize(ast);
         makeMain();
 
         if (ast.getFields().size() > 0) {
@@ -0,0 +1,242 @@
+package plc.project;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The basic induction variable of a {@code WHILE} loop: a variable the body
+ * steps by an integer literal once per iteration, and which the condition of
+ * the loop compares to a bound, as in
+ *
+ *     WHILE i < n DO ... i = i + 1; END
+ *
+ * The step is a statement {@code i = i + c}, {@code i = c + i} or
+ * {@code i = i - c} at the top level of the body, and no other statement of
+ * the loop (including nested loops) declares or assigns the variable. The
+ * bound is an integer literal or a variable the loop does not declare or
+ * assign. If the loop calls a method, which could assign globals, both
+ * variables must be bound to locals of the enclosing method (see
+ * {@link Effects.Bindings}). Loops in counted form
+ * step the variable as their last statement, so that the whole body runs with
+ * the same value of the variable.
+ *
+ * Conditions comparing the bound to the variable are normalized to compare
+ * the variable to the bound, so {@code n > i} has the operator {@code <}.
+ */
+public final class Induction {
+
+    private static final Set<String> COMPARISONS = new HashSet<>(Arrays.asList("<", "<=", ">", ">=", "==", "!="));
+
+    private final String variable;
+    private final String operator;
+    private final Ast.Expr bound;
+    private final BigInteger step;
+    private final int update;
+    private final boolean counted;
+
+    private Induction(String variable, String operator, Ast.Expr bound, BigInteger step, int update, boolean counted) {
+        this.variable = variable;
+        this.operator = operator;
+        this.bound = bound;
+        this.step = step;
+        this.update = update;
+        this.counted = counted;
+    }
+
+    /**
+     * Returns the induction variable of the loop, given the {@code name/arity}
+     * keys of the methods of the source (see {@link Effects#methods}) and the
+     * bindings of the enclosing method.
+     */
+    public static Optional<Induction> of(Ast.Stmt.While loop, Set<String> methods, Effects.Bindings bindings) {
+        if (!(loop.getCondition() instanceof Ast.Expr.Binary)) {
+            return Optional.empty();
+        }
+        Ast.Expr.Binary condition = (Ast.Expr.Binary) loop.getCondition();
+        if (!COMPARISONS.contains(condition.getOperator())) {
+            return Optional.empty();
+        }
+        Effects effects = Effects.of(loop, methods);
+        Optional<Induction> induction = of(loop, condition.getOperator(), condition.getLeft(), condition.getRight(), effects, methods, bindings);
+        if (!induction.isPresent()) {
+            induction = of(loop, mirror(condition.getOperator()), condition.getRight(), condition.getLeft(), effects, methods, bindings);
+        }
+        return induction;
+    }
+
+    private static Optional<Induction> of(Ast.Stmt.While loop, String operator, Ast.Expr left, Ast.Expr bound, Effects effects, Set<String> methods, Effects.Bindings bindings) {
+        String variable = variable(left);
+        if (variable == null || effects.calls && !bindings.isLocal((Ast.Expr.Access) left)) {
+            return Optional.empty();
+        }
+        String limit = variable(bound);
+        if (limit != null) {
+            if (limit.equals(variable) || effects.assigned.contains(limit) || effects.declared.contains(limit)
+                    || effects.calls && !bindings.isLocal((Ast.Expr.Access) bound)) {
+                return Optional.empty();
+            }
+        } else if (integer(bound) == null) {
+            return Optional.empty();
+        }
+
+        List<Ast.Stmt> body = loop.getStatements();
+        int update = -1;
+        BigInteger step = null;
+        List<Ast.Stmt> others = new ArrayList<>();
+        for (int i = 0; i < body.size(); i++) {
+            BigInteger candidate = step(body.get(i), variable);
+            if (candidate != null && update == -1) {
+                update = i;
+                step = candidate;
+            } else {
+                others.add(body.get(i));
+            }
+        }
+        if (update == -1) {
+            return Optional.empty();
+        }
+        Effects rest = Effects.of(new Ast.Stmt.While(loop.getCondition(), others), methods);
+        if (rest.assigned.contains(variable) || rest.declared.contains(variable)) {
+            return Optional.empty();
+        }
+        return Optional.of(new Induction(variable, operator, bound, step, update, update == body.size() - 1));
+    }
+
+    public String getVariable() {
+        return variable;
+    }
+
+    /**
+     * Returns the comparison of the variable to the bound.
+     */
+    public String getOperator() {
+        return operator;
+    }
+
+    public Ast.Expr getBound() {
+        return bound;
+    }
+
+    public BigInteger getStep() {
+        return step;
+    }
+
+    /**
+     * Returns the index of the statement stepping the variable in the body.
+     */
+    public int getUpdate() {
+        return update;
+    }
+
+    public boolean isCounted() {
+        return counted;
+    }
+
+    /**
+     * Returns the number of iterations of the loop if the variable starts at
+     * the given value and the bound is a literal, or empty if that is unknown
+     * or more than {@code limit}.
+     */
+    public Optional<Integer> getTrips(BigInteger initial, int limit) {
+        BigInteger end = integer(bound);
+        if (end == null) {
+            return Optional.empty();
+        }
+        int trips = 0;
+        for (BigInteger value = initial; holds(operator, value.compareTo(end)); value = value.add(step)) {
+            if (++trips > limit) {
+                return Optional.empty();
+            }
+        }
+        return Optional.of(trips);
+    }
+
+    /**
+     * Returns the step of the variable if the statement is of the form
+     * {@code name = name + step}, {@code name = step + name} or
+     * {@code name = name - step}, else null.
+     */
+    static BigInteger step(Ast.Stmt statement, String name) {
+        if (!(statement instanceof Ast.Stmt.Assignment)) {
+            return null;
+        }
+        Ast.Stmt.Assignment assignment = (Ast.Stmt.Assignment) statement;
+        if (!name.equals(variable(assignment.getReceiver())) || !(assignment.getValue() instanceof Ast.Expr.Binary)) {
+            return null;
+        }
+        Ast.Expr.Binary value = (Ast.Expr.Binary) assignment.getValue();
+        if (name.equals(variable(value.getLeft())) && integer(value.getRight()) != null) {
+            switch (value.getOperator()) {
+                case "+":
+                    return integer(value.getRight());
+                case "-":
+                    return integer(value.getRight()).negate();
+            }
+        } else if (name.equals(variable(value.getRight())) && integer(value.getLeft()) != null
+                && value.getOperator().equals("+")) {
+            return integer(value.getLeft());
+        }
+        return null;
+    }
+
+    static String variable(Ast.Expr expr) {
+        if (expr instanceof Ast.Expr.Access && !((Ast.Expr.Access) expr).getReceiver().isPresent()) {
+            return ((Ast.Expr.Access) expr).getName();
+        }
+        return null;
+    }
+
+    static BigInteger integer(Ast.Expr expr) {
+        if (expr instanceof Ast.Expr.Literal && ((Ast.Expr.Literal) expr).getLiteral() instanceof BigInteger) {
+            return (BigInteger) ((Ast.Expr.Literal) expr).getLiteral();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the operator comparing the operands the other way around.
+     */
+    private static String mirror(String operator) {
+        switch (operator) {
+            case "<":
+                return ">";
+            case "<=":
+                return ">=";
+            case ">":
+                return "<";
+            case ">=":
+                return "<=";
+            default:
+                return operator;
+        }
+    }
+
+    /**
+     * Returns true if a comparison with the given result of {@code compareTo}
+     * satisfies the operator.
+     */
+    private static boolean holds(String operator, int comparison) {
+        switch (operator) {
+            case "<":
+                return comparison < 0;
+            case "<=":
+                return comparison <= 0;
+            case ">":
+                return comparison > 0;
+            case ">=":
+                return comparison >= 0;
+            case "==":
+                return comparison == 0;
+            case "!=":
+                return comparison != 0;
+            default:
+                throw new AssertionError("Unexpected comparison: " + operator + ".");
+        }
+    }
+
+}
@@ -0,0 +1,397 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Replaces calls to small, non-recursive methods with the body of the method.
+ *
+ * A method whose body is a single {@code RETURN} is inlined as an expression
+ * anywhere its arguments are free of side effects, substituting the arguments
+ * for the parameters, unless the returned value calls a method and an argument
+ * is not a literal, since the argument would then be read after the call. Other methods are inlined at statement level when the
+ * call is the whole value of an expression statement, declaration, assignment
+ * or {@code RETURN}: the arguments are bound to fresh variables declared ahead
+ * of the statement, followed by the body of the method and finally the
+ * statement itself with the returned value in place of the call. Methods with
+ * a {@code RETURN} anywhere but at the end of their body are not inlined.
+ *
+ * Renaming is hygienic: every variable declared by the inlined method gets a
+ * fresh name from {@link Names}, and a call is not inlined if a global the
+ * method refers to is shadowed by a variable of the calling method.
+ */
+public final class Inliner implements Optimizer.Pass {
+
+    public static final int DEFAULT_MAX_SIZE = 16;
+    public static final int DEFAULT_MAX_DEPTH = 3;
+
+    private final int maxSize;
+    private final int maxDepth;
+
+    public Inliner() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * Creates an inliner for methods of at most {@code maxSize} AST nodes,
+     * inlining calls within inlined bodies up to {@code maxDepth} levels deep.
+     */
+    public Inliner(int maxSize, int maxDepth) {
+        this.maxSize = maxSize;
+        this.maxDepth = maxDepth;
+    }
+
+    @Override
+    public String getName() {
+        return "inlining";
+    }
+
+    @Override
+    public Ast.Source apply(Ast.Source source, Optimizer.Statistics.Entry entry) {
+        Set<String> fields = new HashSet<>();
+        for (Ast.Field field : source.getFields()) {
+            fields.add(field.getName());
+        }
+        CallGraph graph = CallGraph.of(source);
+        Map<String, Ast.Method> candidates = new HashMap<>();
+        for (Ast.Method method : source.getMethods()) {
+            if (isCandidate(method, graph, fields)) {
+                candidates.put(key(method.getName(), method.getParameters().size()), method);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return source;
+        }
+        Inlining inlining = new Inlining(candidates, Effects.methods(source), Names.of(source));
+        Ast.Source result = (Ast.Source) inlining.visit(source);
+        entry.count("inlined", inlining.getChanges());
+        return result;
+    }
+
+    private static String key(String name, int arity) {
+        return name + "/" + arity;
+    }
+
+    private boolean isCandidate(Ast.Method method, CallGraph graph, Set<String> fields) {
+        Summary summary = new Summary();
+        summary.walk(method);
+        for (String name : summary.declared) {
+            if (fields.contains(name)) {
+                // Renaming by name could not tell the local and the global apart.
+                return false;
+            }
+        }
+        List<Ast.Stmt> statements = method.getStatements();
+        int returns = summary.returns;
+        if (!statements.isEmpty() && statements.get(statements.size() - 1) instanceof Ast.Stmt.Return) {
+            returns--;
+        }
+        return summary.size <= maxSize && returns == 0 && !graph.isRecursive(key(method.getName(), method.getParameters().size()));
+    }
+
+    /**
+     * Collects the size, declared and referenced variable names and
+     * returns of a method body.
+     */
+    private static final class Summary extends Traversal.Walk {
+
+        private int size = 0;
+        private int returns = 0;
+        private final Set<String> declared = new HashSet<>();
+        private final Set<String> referenced = new HashSet<>();
+
+        @Override
+        protected boolean enter(Ast ast) {
+            if (ast instanceof Ast.Method) {
+                declared.addAll(((Ast.Method) ast).getParameters());
+                // The size only counts the nodes of the body.
+                return true;
+            }
+            size++;
+            if (ast instanceof Ast.Stmt.Declaration) {
+                declared.add(((Ast.Stmt.Declaration) ast).getName());
+            } else if (ast instanceof Ast.Stmt.For) {
+                declared.add(((Ast.Stmt.For) ast).getName());
+            } else if (ast instanceof Ast.Stmt.Return) {
+                returns++;
+            } else if (ast instanceof Ast.Expr.Access) {
+                Ast.Expr.Access access = (Ast.Expr.Access) ast;
+                if (!access.getReceiver().isPresent()) {
+                    referenced.add(access.getName());
+                }
+            }
+            return true;
+        }
+
+    }
+
+    private final class Inlining extends Rewriter {
+
+        private final Map<String, Ast.Method> candidates;
+        private final Set<String> methods;
+        private final Names names;
+        private Set<String> callerNames = new HashSet<>();
+        private int depth = 0;
+
+        private Inlining(Map<String, Ast.Method> candidates, Set<String> methods, Names names) {
+            this.candidates = candidates;
+            this.methods = methods;
+            this.names = names;
+        }
+
+        @Override
+        public Ast visit(Ast.Field ast) {
+            // Fields are evaluated before any method is defined.
+            return ast;
+        }
+
+        @Override
+        public Ast visit(Ast.Method ast) {
+            Summary summary = new Summary();
+            summary.walk(ast);
+            callerNames = summary.declared;
+            return super.visit(ast);
+        }
+
+        @Override
+        public Ast visit(Ast.Expr.Function ast) {
+            Ast.Expr.Function call = (Ast.Expr.Function) super.visit(ast);
+            Ast.Method callee = lookup(call);
+            if (callee == null || callee.getStatements().size() != 1 || !(callee.getStatements().get(0) instanceof Ast.Stmt.Return)) {
+                return call;
+            }
+            Ast.Expr returned = ((Ast.Stmt.Return) callee.getStatements().get(0)).getValue();
+            boolean calls = Effects.of(returned, methods).calls;
+            for (Ast.Expr argument : call.getArguments()) {
+                if (!isSideEffectFree(argument) || calls && !(argument instanceof Ast.Expr.Literal)) {
+                    return call;
+                }
+            }
+            Map<String, Ast.Expr> arguments = new HashMap<>();
+            for (int i = 0; i < callee.getParameters().size(); i++) {
+                arguments.put(callee.getParameters().get(i), parenthesize(call.getArguments().get(i)));
+            }
+            changed();
+            Ast.Expr value = (Ast.Expr) new Substitution(arguments).visit(returned);
+            depth++;
+            try {
+                return parenthesize((Ast.Expr) visit(value));
+            } finally {
+                depth--;
+            }
+        }
+
+        @Override
+        protected List<Ast.Stmt> visitStatements(List<Ast.Stmt> statements) {
+            List<Ast.Stmt> result = new ArrayList<>();
+            boolean modified = false;
+            for (Ast.Stmt stmt : statements) {
+                Ast.Stmt rewritten = (Ast.Stmt) visit(stmt);
+                List<Ast.Stmt> expanded = expand(rewritten);
+                if (expanded != null) {
+                    changed();
+                    depth++;
+                    try {
+                        result.addAll(visitStatements(expanded));
+                    } finally {
+                        depth--;
+                    }
+                } else {
+                    result.add(rewritten);
+                }
+                modified |= expanded != null || rewritten != stmt;
+            }
+            return modified ? result : statements;
+        }
+
+        /**
+         * Returns the method a call may be inlined from, or null.
+         */
+        private Ast.Method lookup(Ast.Expr.Function call) {
+            if (call.getReceiver().isPresent() || depth >= maxDepth) {
+                return null;
+            }
+            Ast.Method callee = candidates.get(key(call.getName(), call.getArguments().size()));
+            if (callee == null) {
+                return null;
+            }
+            Summary summary = new Summary();
+            summary.walk(callee);
+            for (String name : summary.referenced) {
+                if (!summary.declared.contains(name) && callerNames.contains(name)) {
+                    return null;
+                }
+            }
+            return callee;
+        }
+
+        /**
+         * Returns the statements replacing a statement whose value is a call
+         * inlined at statement level, or null if it is not inlined.
+         */
+        private List<Ast.Stmt> expand(Ast.Stmt stmt) {
+            Ast.Expr value = stmt instanceof Ast.Stmt.Expression ? ((Ast.Stmt.Expression) stmt).getExpression()
+                    : stmt instanceof Ast.Stmt.Declaration ? ((Ast.Stmt.Declaration) stmt).getValue().orElse(null)
+                    : stmt instanceof Ast.Stmt.Assignment ? ((Ast.Stmt.Assignment) stmt).getValue()
+                    : stmt instanceof Ast.Stmt.Return ? ((Ast.Stmt.Return) stmt).getValue()
+                    : null;
+            if (!(value instanceof Ast.Expr.Function)) {
+                return null;
+            }
+            Ast.Expr.Function call = (Ast.Expr.Function) value;
+            Ast.Method callee = lookup(call);
+            if (callee == null) {
+                return null;
+            }
+            List<Ast.Stmt> body = callee.getStatements();
+            Ast.Stmt.Return last = !body.isEmpty() && body.get(body.size() - 1) instanceof Ast.Stmt.Return
+                    ? (Ast.Stmt.Return) body.get(body.size() - 1)
+                    : null;
+            if (stmt instanceof Ast.Stmt.Expression && last != null && !isSideEffectFree(last.getValue())
+                    && !(last.getValue() instanceof Ast.Expr.Function)) {
+                // The returned value would have to become an expression statement.
+                return null;
+            }
+
+            Renaming renaming = new Renaming(names);
+            List<Ast.Stmt> result = new ArrayList<>();
+            for (int i = 0; i < callee.getParameters().size(); i++) {
+                String typeName = callee.getParameterTypeNames().get(i);
+                Ast.Stmt.Declaration declaration = new Ast.Stmt.Declaration(
+                        renaming.rename(callee.getParameters().get(i)), Optional.of(typeName), Optional.of(call.getArguments().get(i)));
+                if (Ast.typeOf(call) != null) {
+                    declaration.setVariable(renaming.parameter(callee.getParameters().get(i), Environment.getType(typeName)));
+                }
+                result.add(declaration);
+            }
+            for (Ast.Stmt statement : last != null ? body.subList(0, body.size() - 1) : body) {
+                result.add((Ast.Stmt) renaming.visit(statement));
+            }
+            Ast.Expr returned = last != null ? (Ast.Expr) renaming.visit(last.getValue()) : literal(null, call);
+
+            if (stmt instanceof Ast.Stmt.Expression) {
+                if (returned instanceof Ast.Expr.Function) {
+                    result.add(new Ast.Stmt.Expression(returned));
+                }
+            } else if (stmt instanceof Ast.Stmt.Declaration) {
+                Ast.Stmt.Declaration declaration = (Ast.Stmt.Declaration) stmt;
+                result.add(Ast.copyAnnotations(declaration, new Ast.Stmt.Declaration(declaration.getName(), declaration.getTypeName(), Optional.of(returned))));
+            } else if (stmt instanceof Ast.Stmt.Assignment) {
+                result.add(new Ast.Stmt.Assignment(((Ast.Stmt.Assignment) stmt).getReceiver(), returned));
+            } else {
+                result.add(new Ast.Stmt.Return(returned));
+            }
+            return result;
+        }
+
+    }
+
+    /**
+     * Wraps binary expressions in a group, so they can replace an operand or
+     * a call without changing precedence.
+     */
+    private static Ast.Expr parenthesize(Ast.Expr expr) {
+        if (!(expr instanceof Ast.Expr.Binary)) {
+            return expr;
+        }
+        Ast.Expr.Group group = new Ast.Expr.Group(expr);
+        if (Ast.typeOf(expr) != null) {
+            group.setType(Ast.typeOf(expr));
+        }
+        return group;
+    }
+
+    /**
+     * Replaces accesses to parameters with the corresponding arguments.
+     */
+    private static final class Substitution extends Rewriter {
+
+        private final Map<String, Ast.Expr> arguments;
+
+        private Substitution(Map<String, Ast.Expr> arguments) {
+            this.arguments = arguments;
+        }
+
+        @Override
+        public Ast visit(Ast.Expr.Access ast) {
+            if (!ast.getReceiver().isPresent() && arguments.containsKey(ast.getName())) {
+                return arguments.get(ast.getName());
+            }
+            return super.visit(ast);
+        }
+
+    }
+
+    /**
+     * Gives every variable declared by an inlined method a fresh name, along
+     * with a fresh {@link Environment.Variable} if the method was analyzed.
+     */
+    private static final class Renaming extends Rewriter {
+
+        private final Names fresh;
+        private final Map<String, String> names = new HashMap<>();
+        private final Map<Environment.Variable, Environment.Variable> variables = new IdentityHashMap<>();
+        private final Map<String, Environment.Variable> parameters = new HashMap<>();
+
+        private Renaming(Names fresh) {
+            this.fresh = fresh;
+        }
+
+        private String rename(String name) {
+            return names.computeIfAbsent(name, fresh::fresh);
+        }
+
+        private Environment.Variable parameter(String name, Environment.Type type) {
+            return parameters.computeIfAbsent(name, n -> new Environment.Variable(rename(n), rename(n), type, Environment.NIL));
+        }
+
+        private Environment.Variable variable(String name, Environment.Variable variable) {
+            if (variable == null) {
+                return null;
+            } else if (!variables.containsKey(variable) && parameters.containsKey(name)) {
+                return parameters.get(name);
+            }
+            return variables.computeIfAbsent(variable, v -> new Environment.Variable(rename(name), rename(name), v.getType(), Environment.NIL));
+        }
+
+        @Override
+        public Ast visit(Ast.Stmt.Declaration ast) {
+            Ast.Stmt.Declaration declaration = (Ast.Stmt.Declaration) super.visit(ast);
+            Ast.Stmt.Declaration renamed = new Ast.Stmt.Declaration(rename(ast.getName()), declaration.getTypeName(), declaration.getValue());
+            Environment.Variable variable = variable(ast.getName(), Ast.variableOf(ast));
+            if (variable != null) {
+                renamed.setVariable(variable);
+            }
+            return renamed;
+        }
+
+        @Override
+        public Ast visit(Ast.Stmt.For ast) {
+            Ast.Expr value = (Ast.Expr) visit(ast.getValue());
+            String name = rename(ast.getName());
+            return new Ast.Stmt.For(name, value, visitStatements(ast.getStatements()));
+        }
+
+        @Override
+        public Ast visit(Ast.Expr.Access ast) {
+            Ast.Expr.Access access = (Ast.Expr.Access) super.visit(ast);
+            if (access.getReceiver().isPresent() || !names.containsKey(ast.getName()) && !parameters.containsKey(ast.getName())) {
+                return access;
+            }
+            Ast.Expr.Access renamed = new Ast.Expr.Access(Optional.empty(), rename(ast.getName()));
+            Environment.Variable variable = variable(ast.getName(), Ast.variableOf(ast));
+            if (variable != null) {
+                renamed.setVariable(variable);
+            }
+            return renamed;
+        }
+
+    }
+
+}
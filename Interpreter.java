@@ -11,9 +11,43 @@ import java.util.stream.Collectors;
 
 public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
+    /**
+     * The system property which, when set to {@code true}, keeps the runtime
+     * type checks of interpreters created to trust the analyzer, so that both
+     * modes can be compared.
+     */
+    public static final String CHECK_TYPES_PROPERTY = "plc.project.checkTypes";
+
     private Scope scope = new Scope(null);
+    private final Optimizer optimizer;
+    private final boolean trusted;
+    private long budget = Long.MAX_VALUE;
 
     public Interpreter(Scope parent) {
+        this(parent, new Optimizer(0));
+    }
+
+    /**
+     * Creates an interpreter which runs sources through the given optimizer
+     * before executing them.
+     */
+    public Interpreter(Scope parent, Optimizer optimizer) {
+        this(parent, optimizer, false);
+    }
+
+    /**
+     * Creates an interpreter which, if {@code trustTypes} is set, trusts the
+     * types recorded by the {@link Analyzer} and skips the runtime checks they
+     * make redundant: conditions and loop values are cast without the
+     * instanceof test and error reporting of {@code requireType} (the cast
+     * itself is still checked by the JVM), and typed operations are evaluated
+     * without testing their operands. Only sources that passed the analyzer may be run this way;
+     * nodes without types (such as those of unanalyzed trees) are still
+     * checked. See {@link #CHECK_TYPES_PROPERTY} to turn the checks back on.
+     */
+    public Interpreter(Scope parent, Optimizer optimizer, boolean trustTypes) {
+        this.optimizer = optimizer;
+        this.trusted = trustTypes && !Boolean.getBoolean(CHECK_TYPES_PROPERTY);
         scope = new Scope(parent);
         scope.defineFunction("print", 1, args -> {
             System.out.println(args.get(0).getValue());
@@ -21,12 +55,29 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         });
     }
 
+    /**
+     * Limits the number of method calls and loop iterations the interpreter
+     * may run before failing, so that code which may not terminate can be
+     * run safely (see {@link CompileTimeEvaluation}).
+     */
+    void setBudget(long steps) {
+        budget = steps;
+    }
+
+    private void step() {
+        if (--budget < 0) {
+            throw new RuntimeException("The step budget of the interpreter is exhausted.");
+        }
+    }
+
     public Scope getScope() {
         return scope;
     }
 
     @Override
     public Environment.PlcObject visit(Ast.Source ast) {
+        ast = Resolver.resolve(optimizer.optimize(ast));
+        Range.analyze(ast);
         for (Ast.Field field : ast.getFields()) {
             visit(field);
         }
@@ -57,17 +108,24 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     public Environment.PlcObject visit(Ast.Method ast) {
 
         Scope curScope = scope;
+        boolean elided = ast.getCapture().orElse(Capture.FRESH) == Capture.ELIDED;
 
         scope.defineFunction(ast.getName(), ast.getParameters().size(), args -> {
-            scope = new Scope(curScope);
-            for (int i = 0; i < ast.getParameters().size(); i++) {
-                scope.defineVariable(ast.getParameters().get(i), args.get(i));
-            }
-            for (Ast.Stmt stmt : ast.getStatements()) {
-                if (stmt instanceof Ast.Stmt.Return) {
-                    return visit(stmt);
+            step();
+            Scope callerScope = scope;
+            scope = elided ? curScope : new Scope(curScope);
+            try {
+                for (int i = 0; i < ast.getParameters().size(); i++) {
+                    scope.defineVariable(ast.getParameters().get(i), args.get(i));
                 }
-                visit(stmt);
+                for (Ast.Stmt stmt : ast.getStatements()) {
+                    visit(stmt);
+                }
+            } catch (Return r) {
+                // RETURN may be nested in any statement, not only at the top level.
+                return r.value;
+            } finally {
+                scope = callerScope;
             }
 
             return Environment.NIL;
@@ -101,7 +159,7 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
                 Environment.PlcObject receiver = visit(var.getReceiver().get());
                 receiver.setField(var.getName(), visit(ast.getValue()));
             } else {
-                Environment.Variable v = scope.lookupVariable(var.getName());
+                Environment.Variable v = lookupVariable(var);
                 v.setValue(visit(ast.getValue()));
             }
         } else {
@@ -112,7 +170,7 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     @Override
     public Environment.PlcObject visit(Ast.Stmt.If ast) {
-        Boolean condition = requireType(Boolean.class, visit(ast.getCondition()));
+        Boolean condition = requireType(Boolean.class, ast.getCondition());
         if (condition) {
             for (Ast.Stmt stmt : ast.getThenStatements()) {
                 visit(stmt);
@@ -127,17 +185,21 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     @Override
     public Environment.PlcObject visit(Ast.Stmt.For ast) {
-        Iterable list = requireType(Iterable.class, visit(ast.getValue()));
+        Iterable list = requireType(Iterable.class, ast.getValue());
+        Capture capture = ast.getCapture().orElse(Capture.FRESH);
+        Scope parent = scope;
+        Scope reused = null;
         for (Object obj : list) {
+            step();
             // Assume Objects are PlcObjects
             try {
-                scope = new Scope(scope);
+                scope = reused = iterationScope(parent, capture, reused);
                 scope.defineVariable(ast.getName(), (Environment.PlcObject) obj);
                 for (Ast.Stmt stmt : ast.getStatements()) {
                     visit(stmt);
                 }
             } finally {
-                scope = scope.getParent();
+                scope = parent;
             }
         }
         return Environment.NIL;
@@ -145,27 +207,42 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     @Override
     public Environment.PlcObject visit(Ast.Stmt.While ast) {
-        while (requireType(Boolean.class, visit(ast.getCondition()))) {
+        Capture capture = ast.getCapture().orElse(Capture.FRESH);
+        Scope parent = scope;
+        Scope reused = null;
+        while (requireType(Boolean.class, ast.getCondition())) {
+            step();
             try {
-                scope = new Scope(scope);
+                if (capture != Capture.ELIDED) {
+                    scope = reused = iterationScope(parent, capture, reused);
+                }
                 for (Ast.Stmt stmt : ast.getStatements()) {
                     visit(stmt);
                 }
 
             } finally {
-                scope = scope.getParent();
+                scope = parent;
             }
         }
         return Environment.NIL;
     }
 
+    /**
+     * Returns the scope for the next iteration of a loop, clearing and reusing
+     * the scope of the previous iteration when it cannot have escaped.
+     */
+    private static Scope iterationScope(Scope parent, Capture capture, Scope previous) {
+        if (capture == Capture.REUSED && previous != null) {
+            previous.clear();
+            return previous;
+        }
+        return new Scope(parent);
+    }
+
     @Override
     public Environment.PlcObject visit(Ast.Stmt.Return ast) {
-        if (ast.getValue().equals(null)) {
-            return new Return(null).value;
-        }
         Environment.PlcObject obj = visit(ast.getValue());
-        return new Return(obj).value;
+        throw new Return(obj);
     }
 
     @Override
@@ -222,6 +299,16 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     @Override
     public Environment.PlcObject visit(Ast.Expr.Binary ast) {
+        if (ast.getOperation().isPresent() && isTrusted(ast)) {
+            // Operations are never resolved for AND and OR, so both operands
+            // are always evaluated. They do not check the classes of the
+            // operands, so they are only used when types are trusted.
+            Object left = visit(ast.getLeft()).getValue();
+            Object right = visit(ast.getRight()).getValue();
+            Environment.PlcObject result = evaluateLong(ast, left, right);
+            return result != null ? result : Environment.create(ast.getOperation().get().apply(left, right));
+        }
+
         // Grab left & right
         Object left = visit(ast.getLeft()).getValue();
 
@@ -247,6 +334,13 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
         Object right = visit(ast.getRight()).getValue();
 
+        Environment.PlcObject primitive = evaluateLong(ast, left, right);
+        if (primitive != null) {
+            return primitive;
+        } else if (isTrusted(ast) && ast.getOperator().equals("AND")) {
+            return Environment.create((Boolean) left && (Boolean) right);
+        }
+
         if (ast.getOperator().equals("+")) {
             // Concatenation
             if (left instanceof String || right instanceof String) {
@@ -559,8 +653,20 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
             Environment.PlcObject obj = visit(expr);
             return obj.getField(ast.getName()).getValue();
         } else {
-            return scope.lookupVariable(ast.getName()).getValue();
+            return lookupVariable(ast).getValue();
+        }
+    }
+
+    /**
+     * Looks up the variable of an access without a receiver, using the address
+     * from the {@link Resolver} if it has one.
+     */
+    private Environment.Variable lookupVariable(Ast.Expr.Access ast) {
+        if (ast.getAddress().isPresent()) {
+            Resolver.Address address = ast.getAddress().get();
+            return scope.lookupVariable(ast.getName(), address.getDepth(), address.getSlot());
         }
+        return scope.lookupVariable(ast.getName());
     }
 
     @Override
@@ -582,6 +688,43 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         }
     }
 
+    /**
+     * Evaluates {@code +}, {@code -} and {@code *} on longs if the operands
+     * and the result are known to fit in one (see {@link Range}), else
+     * returns null.
+     */
+    private Environment.PlcObject evaluateLong(Ast.Expr.Binary ast, Object left, Object right) {
+        if (!ast.getRange().map(Range::isLong).orElse(false)
+                || !(trusted || left instanceof BigInteger && right instanceof BigInteger)) {
+            return null;
+        }
+        // The operands and the result fit in a long, so it cannot overflow.
+        long l = ((BigInteger) left).longValue();
+        long r = ((BigInteger) right).longValue();
+        switch (ast.getOperator()) {
+            case "+": return Environment.create(BigInteger.valueOf(l + r));
+            case "-": return Environment.create(BigInteger.valueOf(l - r));
+            case "*": return Environment.create(BigInteger.valueOf(l * r));
+            default: return null;
+        }
+    }
+
+    private boolean isTrusted(Ast.Expr ast) {
+        return trusted && Ast.typeOf(ast) != null;
+    }
+
+    /**
+     * Evaluates an expression whose value must be of the given type, which is
+     * only tested if the expression's static type is not trusted. Callers
+     * still cast the result, so a trusted value of the wrong type fails with
+     * a {@link ClassCastException} rather than the interpreter's error.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T requireType(Class<T> type, Ast.Expr ast) {
+        Environment.PlcObject object = visit(ast);
+        return isTrusted(ast) ? (T) object.getValue() : requireType(type, object);
+    }
+
     /**
      * Helper function to ensure an object is of the appropriate type.
      */
@@ -601,6 +744,8 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         private final Environment.PlcObject value;
 
         private Return(Environment.PlcObject value) {
+            // Used for control flow on every RETURN, so skip the stack trace.
+            super(null, null, false, false);
             this.value = value;
         }
 
@@ -0,0 +1,812 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A typed intermediate representation of methods in static single assignment
+ * (SSA) form, sitting between the {@link Analyzer} and the backends. A method
+ * is built from an analyzed {@link Ast.Method} by {@link SsaConstruction},
+ * rewritten by {@link Pass}es (see {@link SsaOptimizer}) and turned back into
+ * an analyzed {@link Ast.Method} by {@link SsaDestruction}, which the
+ * {@link Interpreter} and the {@link Generator} run as any other.
+ *
+ * A {@link Function} is a graph of {@link Block}s, each holding {@link Phi}
+ * nodes, a list of instructions and a {@link Terminator}. Every instruction is
+ * a {@link Value} with the type the analyzer gave the expression it comes
+ * from, and every value is defined once: locals of the method only exist as
+ * the values they are bound to, merged by phi nodes where control flow joins.
+ * Globals and the fields of objects are still read and written by name, in
+ * the order the source does, as are calls.
+ *
+ * Since the graph is built from structured statements, functions also keep
+ * the tree of {@link Region}s the blocks form, which destruction follows to
+ * emit {@code IF} and {@code WHILE} statements again. Passes rewrite the
+ * instructions of blocks, but not the regions or the edges between blocks.
+ */
+public final class Ir {
+
+    private Ir() {}
+
+    public static final class Function {
+
+        private final Ast.Method method;
+        private final List<Parameter> parameters = new ArrayList<>();
+        private final List<Block> blocks = new ArrayList<>();
+        private final List<Region> body = new ArrayList<>();
+
+        Function(Ast.Method method) {
+            this.method = method;
+        }
+
+        /**
+         * Returns the method the function was built from, which has the
+         * signature of the function.
+         */
+        public Ast.Method getMethod() {
+            return method;
+        }
+
+        public String getName() {
+            return method.getName();
+        }
+
+        public List<Parameter> getParameters() {
+            return parameters;
+        }
+
+        /**
+         * Returns the blocks of the function, starting with the entry block.
+         */
+        public List<Block> getBlocks() {
+            return blocks;
+        }
+
+        public List<Region> getBody() {
+            return body;
+        }
+
+        Block newBlock() {
+            Block block = new Block(blocks.size());
+            blocks.add(block);
+            return block;
+        }
+
+        /**
+         * Replaces every use of the keys of the map with their values,
+         * following replacements of replacements.
+         */
+        void replace(Map<Value, Value> replacements) {
+            if (replacements.isEmpty()) {
+                return;
+            }
+            for (Block block : blocks) {
+                for (Phi phi : block.phis) {
+                    replace(phi.operands, replacements);
+                }
+                for (Value instruction : block.instructions) {
+                    replace(instruction.operands, replacements);
+                }
+                if (block.terminator != null) {
+                    replace(block.terminator.operands, replacements);
+                }
+            }
+        }
+
+        private static void replace(List<Value> operands, Map<Value, Value> replacements) {
+            for (int i = 0; i < operands.size(); i++) {
+                Value value = operands.get(i);
+                while (replacements.containsKey(value)) {
+                    value = replacements.get(value);
+                }
+                operands.set(i, value);
+            }
+        }
+
+        /**
+         * Returns the number of uses of each value by phi nodes, instructions
+         * and terminators.
+         */
+        Map<Value, Integer> uses() {
+            Map<Value, Integer> uses = new HashMap<>();
+            for (Block block : blocks) {
+                for (Phi phi : block.phis) {
+                    count(phi.operands, uses);
+                }
+                for (Value instruction : block.instructions) {
+                    count(instruction.operands, uses);
+                }
+                if (block.terminator != null) {
+                    count(block.terminator.operands, uses);
+                }
+            }
+            return uses;
+        }
+
+        private static void count(List<Value> operands, Map<Value, Integer> uses) {
+            for (Value operand : operands) {
+                uses.merge(operand, 1, Integer::sum);
+            }
+        }
+
+        @Override
+        public String toString() {
+            Map<Value, String> names = new HashMap<>();
+            List<String> parameters = new ArrayList<>();
+            for (Parameter parameter : this.parameters) {
+                names.put(parameter, parameter.name);
+                parameters.add(parameter.name + ": " + parameter.getType().getName());
+            }
+            for (Block block : blocks) {
+                for (Phi phi : block.phis) {
+                    names.put(phi, "%" + names.size());
+                }
+                for (Value instruction : block.instructions) {
+                    names.put(instruction, "%" + names.size());
+                }
+            }
+            StringBuilder builder = new StringBuilder();
+            builder.append("function ").append(getName()).append(parameters.toString().replace('[', '(').replace(']', ')'))
+                    .append(": ").append(Ast.functionOf(method).getReturnType().getName()).append(System.lineSeparator());
+            for (Block block : blocks) {
+                builder.append(block).append(':').append(System.lineSeparator());
+                for (Phi phi : block.phis) {
+                    builder.append("    ").append(phi.format(names)).append(System.lineSeparator());
+                }
+                for (Value instruction : block.instructions) {
+                    builder.append("    ").append(instruction.format(names)).append(System.lineSeparator());
+                }
+                if (block.terminator != null) {
+                    builder.append("    ").append(block.terminator.format(names)).append(System.lineSeparator());
+                }
+            }
+            return builder.toString();
+        }
+
+    }
+
+    public static final class Block {
+
+        private final int id;
+        private final List<Phi> phis = new ArrayList<>();
+        private final List<Value> instructions = new ArrayList<>();
+        private final List<Block> predecessors = new ArrayList<>();
+        private Terminator terminator = null;
+
+        private Block(int id) {
+            this.id = id;
+        }
+
+        public List<Phi> getPhis() {
+            return phis;
+        }
+
+        public List<Value> getInstructions() {
+            return instructions;
+        }
+
+        public List<Block> getPredecessors() {
+            return Collections.unmodifiableList(predecessors);
+        }
+
+        /**
+         * Returns the terminator of the block, or null while it is built.
+         */
+        public Terminator getTerminator() {
+            return terminator;
+        }
+
+        void terminate(Terminator terminator) {
+            this.terminator = terminator;
+            for (Block successor : terminator.getSuccessors()) {
+                successor.predecessors.add(this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "b" + id;
+        }
+
+    }
+
+    /**
+     * A value defined once in a function: a parameter, a constant, a phi node
+     * or an instruction. Instructions that only have effects, such as
+     * stores, are values of type {@code Nil}.
+     */
+    public abstract static class Value {
+
+        private final Environment.Type type;
+        final List<Value> operands = new ArrayList<>();
+        private String hint = null;
+
+        private Value(Environment.Type type, Value... operands) {
+            this.type = type;
+            this.operands.addAll(Arrays.asList(operands));
+        }
+
+        public Environment.Type getType() {
+            return type;
+        }
+
+        /**
+         * Returns the operands of the value, in the order they are evaluated.
+         */
+        public List<Value> getOperands() {
+            return Collections.unmodifiableList(operands);
+        }
+
+        /**
+         * Returns the name of the local the value was first bound to, which
+         * destruction names its variable after, if any.
+         */
+        public Optional<String> getHint() {
+            return Optional.ofNullable(hint);
+        }
+
+        public void setHint(String hint) {
+            this.hint = hint;
+        }
+
+        /**
+         * Returns true if computing the value has no effect and cannot fail,
+         * so that it can be removed when it is unused.
+         */
+        public boolean isPure() {
+            return false;
+        }
+
+        abstract String format(Map<Value, String> names);
+
+        static String name(Value value, Map<Value, String> names) {
+            return value instanceof Constant ? value.format(names) : names.getOrDefault(value, "?");
+        }
+
+        String define(Map<Value, String> names, String rest) {
+            return names.get(this) + ": " + type.getName() + " = " + rest;
+        }
+
+    }
+
+    public static final class Parameter extends Value {
+
+        private final String name;
+        private final int index;
+
+        Parameter(String name, int index, Environment.Type type) {
+            super(type);
+            this.name = name;
+            this.index = index;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public boolean isPure() {
+            return true;
+        }
+
+        @Override
+        String format(Map<Value, String> names) {
+            return name;
+        }
+
+    }
+
+    /**
+     * The value of a literal. Constants are not held by blocks, so the same
+     * literal may be several constants.
+     */
+    public static final class Constant extends Value {
+
+        private final Object literal;
+
+        Constant(Object literal, Environment.Type type) {
+            super(type);
+            this.literal = literal;
+        }
+
+        public Object getLiteral() {
+            return literal;
+        }
+
+        @Override
+        public boolean isPure() {
+            return true;
+        }
+
+        @Override
+        String format(Map<Value, String> names) {
+            if (literal == null) {
+                return "NIL";
+            } else if (literal instanceof String) {
+                return "\"" + literal + "\"";
+            } else if (literal instanceof Character) {
+                return "'" + literal + "'";
+            }
+            return literal.toString();
+        }
+
+    }
+
+    /**
+     * A value selected by the predecessor control came from, with one operand
+     * per predecessor of its block.
+     */
+    public static final class Phi extends Value {
+
+        private final Block block;
+        private final List<Block> predecessors = new ArrayList<>();
+
+        Phi(Block block, Environment.Type type) {
+            super(type);
+            this.block = block;
+        }
+
+        public Block getBlock() {
+            return block;
+        }
+
+        /**
+         * Returns the value coming from the given predecessor, if it has one.
+         */
+        public Optional<Value> getIncoming(Block predecessor) {
+            int index = predecessors.indexOf(predecessor);
+            return index == -1 ? Optional.empty() : Optional.of(operands.get(index));
+        }
+
+        void addIncoming(Block predecessor, Value value) {
+            predecessors.add(predecessor);
+            operands.add(value);
+        }
+
+        @Override
+        public boolean isPure() {
+            return true;
+        }
+
+        @Override
+        String format(Map<Value, String> names) {
+            StringBuilder builder = new StringBuilder("phi");
+            for (int i = 0; i < operands.size(); i++) {
+                builder.append(" [").append(predecessors.get(i)).append(' ').append(name(operands.get(i), names)).append(']');
+            }
+            return define(names, builder.toString());
+        }
+
+    }
+
+    /**
+     * The value of another value, as bound to a second local.
+     */
+    public static final class Copy extends Value {
+
+        Copy(Value value, Environment.Type type) {
+            super(type, value);
+        }
+
+        @Override
+        public boolean isPure() {
+            return true;
+        }
+
+        @Override
+        String format(Map<Value, String> names) {
+            return define(names, "copy " + name(operands.get(0), names));
+        }
+
+    }
+
+    public static final class Binary extends Value {
+
+        private final String operator;
+        private final Operation operation;
+        private final Range range;
+
+        Binary(String operator, Operation operation, Range range, Value left, Value right, Environment.Type type) {
+            super(type, left, right);
+            this.operator = operator;
+            this.operation = operation;
+            this.range = range;
+        }
+
+        public String getOperator() {
+            return operator;
+        }
+
+        public Optional<Operation> getOperation() {
+            return Optional.ofNullable(operation);
+        }
+
+        public Optional<Range> getRange() {
+            return Optional.ofNullable(range);
+        }
+
+        /**
+         * Divisions may divide by zero, and operations on operands of types
+         * the analyzer did not resolve may fail, except for {@code AND} and
+         * {@code OR}, whose operands are always booleans.
+         */
+        @Override
+        public boolean isPure() {
+            if (operation == null) {
+                return operator.equals("AND") || operator.equals("OR");
+            }
+            return operation != Operation.INTEGER_DIVIDE && operation != Operation.DECIMAL_DIVIDE;
+        }
+
+        @Override
+        String format(Map<Value, String> names) {
+            return define(names, operator + " " + name(operands.get(0), names) + " " + name(operands.get(1), names));
+        }
+
+    }
+
+    public static final class LoadGlobal extends Value {
+
+        private final Environment.Variable variable;
+
+        LoadGlobal(Environment.Variable variable) {
+            super(variable.getType());
+            this.variable = variable;
+        }
+
+        public Environment.Variable getVariable() {
+            return variable;
+        }
+
+        /**
+         * Reading a global cannot fail, since the analyzer defined it.
+         */
+        @Override
+        public boolean isPure() {
+            return true;
+        }
+
+        @Override
+        String format(Map<Value, String> names) {
+            return define(names, "load " + variable.getName());
+        }
+
+    }
+
+    public static final class StoreGlobal extends Value {
+
+        private final Environment.Variable variable;
+
+        StoreGlobal(Environment.Variable variable, Value value) {
+            super(Environment.Type.NIL, value);
+            this.variable = variable;
+        }
+
+        public Environment.Variable getVariable() {
+            return variable;
+        }
+
+        @Override
+        String format(Map<Value, String> names) {
+            return "store " + variable.getName() + " " + name(operands.get(0), names);
+        }
+
+    }
+
+    /**
+     * A read of a field of an object, whose only operand is the object.
+     */
+    public static final class LoadField extends Value {
+
+        private final Environment.Variable variable;
+
+        LoadField(Value receiver, Environment.Variable variable) {
+            super(variable.getType(), receiver);
+            this.variable = variable;
+        }
+
+        public Environment.Variable getVariable() {
+            return variable;
+        }
+
+        @Override
+        String format(Map<Value, String> names) {
+            return define(names, "load " + name(operands.get(0), names) + "." + variable.getName());
+        }
+
+    }
+
+    /**
+     * A write of a field of an object, whose operands are the object and the
+     * value.
+     */
+    public static final class StoreField extends Value {
+
+        private final Environment.Variable variable;
+
+        StoreField(Value receiver, Environment.Variable variable, Value value) {
+            super(Environment.Type.NIL, receiver, value);
+            this.variable = variable;
+        }
+
+        public Environment.Variable getVariable() {
+            return variable;
+        }
+
+        @Override
+        String format(Map<Value, String> names) {
+            return "store " + name(operands.get(0), names) + "." + variable.getName() + " " + name(operands.get(1), names);
+        }
+
+    }
+
+    /**
+     * A call of a method or function, whose operands are the arguments
+     * followed by the receiver, if it has one, since the {@link Interpreter}
+     * evaluates the receiver last.
+     */
+    public static final class Call extends Value {
+
+        private final String name;
+        private final Environment.Function function;
+        private final boolean receiver;
+
+        Call(String name, Environment.Function function, boolean receiver, List<Value> operands) {
+            super(function.getReturnType());
+            this.name = name;
+            this.function = function;
+            this.receiver = receiver;
+            this.operands.addAll(operands);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Environment.Function getFunction() {
+            return function;
+        }
+
+        public boolean hasReceiver() {
+            return receiver;
+        }
+
+        @Override
+        String format(Map<Value, String> names) {
+            List<String> arguments = new ArrayList<>();
+            for (Value operand : operands) {
+                arguments.add(name(operand, names));
+            }
+            String target = receiver ? arguments.remove(arguments.size() - 1) + "." + name : name;
+            return define(names, "call " + target + arguments.toString().replace('[', '(').replace(']', ')'));
+        }
+
+    }
+
+    /**
+     * The last instruction of a block, passing control to its successors or
+     * returning from the function.
+     */
+    public abstract static class Terminator {
+
+        final List<Value> operands = new ArrayList<>();
+
+        public List<Value> getOperands() {
+            return Collections.unmodifiableList(operands);
+        }
+
+        public abstract List<Block> getSuccessors();
+
+        abstract String format(Map<Value, String> names);
+
+        public static final class Jump extends Terminator {
+
+            private final Block target;
+
+            Jump(Block target) {
+                this.target = target;
+            }
+
+            public Block getTarget() {
+                return target;
+            }
+
+            @Override
+            public List<Block> getSuccessors() {
+                return Collections.singletonList(target);
+            }
+
+            @Override
+            String format(Map<Value, String> names) {
+                return "jump " + target;
+            }
+
+        }
+
+        public static final class Branch extends Terminator {
+
+            private final Block then;
+            private final Block otherwise;
+
+            Branch(Value condition, Block then, Block otherwise) {
+                this.operands.add(condition);
+                this.then = then;
+                this.otherwise = otherwise;
+            }
+
+            public Value getCondition() {
+                return operands.get(0);
+            }
+
+            public Block getThen() {
+                return then;
+            }
+
+            public Block getOtherwise() {
+                return otherwise;
+            }
+
+            @Override
+            public List<Block> getSuccessors() {
+                return Arrays.asList(then, otherwise);
+            }
+
+            @Override
+            String format(Map<Value, String> names) {
+                return "branch " + Value.name(operands.get(0), names) + " " + then + " " + otherwise;
+            }
+
+        }
+
+        /**
+         * Returns from the function, with a value unless control reaches the
+         * end of the method.
+         */
+        public static final class Return extends Terminator {
+
+            Return(Optional<Value> value) {
+                value.ifPresent(operands::add);
+            }
+
+            public Optional<Value> getValue() {
+                return operands.isEmpty() ? Optional.empty() : Optional.of(operands.get(0));
+            }
+
+            @Override
+            public List<Block> getSuccessors() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            String format(Map<Value, String> names) {
+                return operands.isEmpty() ? "return" : "return " + Value.name(operands.get(0), names);
+            }
+
+        }
+
+    }
+
+    /**
+     * The structured statement a group of blocks comes from. The blocks of a
+     * sequence of regions run one after the other, each jumping to the next,
+     * and blocks dominate the regions that follow them in their sequence and
+     * the regions nested in those.
+     */
+    public abstract static class Region {
+
+        private Region() {}
+
+        /**
+         * A block running straight after the preceding region.
+         */
+        public static final class Straight extends Region {
+
+            private final Block block;
+
+            Straight(Block block) {
+                this.block = block;
+            }
+
+            public Block getBlock() {
+                return block;
+            }
+
+        }
+
+        /**
+         * An {@code IF} statement, branching at the end of the preceding
+         * block and joining at the following one, unless neither branch
+         * reaches it.
+         */
+        public static final class Conditional extends Region {
+
+            private final Block condition;
+            private final List<Region> thenRegions = new ArrayList<>();
+            private final List<Region> elseRegions = new ArrayList<>();
+            private Block join = null;
+
+            Conditional(Block condition) {
+                this.condition = condition;
+            }
+
+            /**
+             * Returns the block ending with the branch.
+             */
+            public Block getCondition() {
+                return condition;
+            }
+
+            public List<Region> getThenRegions() {
+                return thenRegions;
+            }
+
+            public List<Region> getElseRegions() {
+                return elseRegions;
+            }
+
+            public Optional<Block> getJoin() {
+                return Optional.ofNullable(join);
+            }
+
+            void setJoin(Block join) {
+                this.join = join;
+            }
+
+        }
+
+        /**
+         * A {@code WHILE} statement, whose header evaluates the condition and
+         * branches to the body or to the exit block that follows.
+         */
+        public static final class Loop extends Region {
+
+            private final Block header;
+            private final List<Region> body = new ArrayList<>();
+            private Block exit = null;
+
+            Loop(Block header) {
+                this.header = header;
+            }
+
+            public Block getHeader() {
+                return header;
+            }
+
+            public List<Region> getBody() {
+                return body;
+            }
+
+            public Block getExit() {
+                return exit;
+            }
+
+            void setExit(Block exit) {
+                this.exit = exit;
+            }
+
+        }
+
+    }
+
+    /**
+     * A rewrite of the instructions of a function into equivalent ones.
+     * Passes count the rewrites they perform on the given statistics entry.
+     */
+    public interface Pass {
+
+        String getName();
+
+        void apply(Function function, Optimizer.Statistics.Entry entry);
+
+    }
+
+}
@@ -0,0 +1,254 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Hoists loop-invariant expressions out of {@code WHILE} and {@code FOR}
+ * loops into declarations placed right before the loop.
+ *
+ * An expression is invariant if it is a binary expression or a field access
+ * that is free of side effects and none of the variables it reads is declared
+ * or assigned anywhere in the loop. If the loop calls a method, which could
+ * assign globals or fields, only expressions reading locals of the enclosing
+ * method (see {@link Effects.Bindings}) and no fields qualify.
+ *
+ * Hoisting evaluates the expression once even if the loop body never runs,
+ * or never reaches the expression (as in the right operand of an {@code OR}),
+ * so only expressions that cannot fail are hoisted: expressions typed by the
+ * analyzer whose variables are all definitely assigned locals. A local is
+ * definitely assigned if it is declared with a value and every value it is
+ * given is a literal other than {@code NIL}, a binary expression or another
+ * such local; parameters, globals, fields and results of calls may be
+ * {@code NIL}, which fails when used as an operand.
+ *
+ * Loops are processed outermost first, so an expression invariant in several
+ * nested loops is hoisted out of all of them, and identical expressions in one
+ * loop share a single declaration.
+ */
+public final class LoopInvariantCodeMotion implements Optimizer.Pass {
+
+    @Override
+    public String getName() {
+        return "loop-invariant-code-motion";
+    }
+
+    @Override
+    public Ast.Source apply(Ast.Source source, Optimizer.Statistics.Entry entry) {
+        Hoister hoister = new Hoister(Names.of(source), Effects.methods(source));
+        Ast.Source result = (Ast.Source) hoister.visit(source);
+        entry.count("hoisted", hoister.getChanges());
+        return result;
+    }
+
+    private static final class Hoister extends Rewriter {
+
+        private final Names names;
+        private final Set<String> methods;
+        private Effects.Bindings bindings;
+        private Set<Object> assigned;
+
+        private Hoister(Names names, Set<String> methods) {
+            this.names = names;
+            this.methods = methods;
+        }
+
+        @Override
+        public Ast visit(Ast.Field ast) {
+            return ast;
+        }
+
+        @Override
+        public Ast visit(Ast.Method ast) {
+            bindings = Effects.Bindings.of(ast);
+            assigned = assigned(ast, bindings);
+            return super.visit(ast);
+        }
+
+        @Override
+        protected List<Ast.Stmt> visitStatements(List<Ast.Stmt> statements) {
+            List<Ast.Stmt> result = new ArrayList<>();
+            boolean modified = false;
+            for (Ast.Stmt stmt : statements) {
+                Ast.Stmt loop = stmt;
+                if (stmt instanceof Ast.Stmt.While || stmt instanceof Ast.Stmt.For) {
+                    Replacer replacer = new Replacer(Effects.of(stmt, methods));
+                    loop = replacer.hoist(stmt);
+                    for (Map.Entry<Ast.Expr, Ast.Expr.Access> hoisted : replacer.hoisted.entrySet()) {
+                        Ast.Stmt.Declaration declaration = new Ast.Stmt.Declaration(hoisted.getValue().getName(), Optional.of(hoisted.getKey()));
+                        declaration.setVariable(hoisted.getValue().getVariable());
+                        result.add(declaration);
+                        changed();
+                    }
+                }
+                Ast.Stmt rewritten = (Ast.Stmt) visit(loop);
+                result.add(rewritten);
+                modified |= rewritten != stmt;
+            }
+            return modified ? result : statements;
+        }
+
+        /**
+         * Replaces invariant expressions of a loop with accesses to the
+         * declarations that will hold their values.
+         */
+        private final class Replacer extends Rewriter {
+
+            private final Effects loop;
+            private final Map<Ast.Expr, Ast.Expr.Access> hoisted = new LinkedHashMap<>();
+
+            private Replacer(Effects loop) {
+                this.loop = loop;
+            }
+
+            private Ast.Stmt hoist(Ast.Stmt stmt) {
+                if (stmt instanceof Ast.Stmt.While) {
+                    Ast.Stmt.While ast = (Ast.Stmt.While) stmt;
+                    return (Ast.Stmt) super.visit(ast);
+                } else {
+                    // The value of a FOR loop is only evaluated once.
+                    Ast.Stmt.For ast = (Ast.Stmt.For) stmt;
+                    List<Ast.Stmt> statements = visitStatements(ast.getStatements());
+                    return statements == ast.getStatements() ? ast : new Ast.Stmt.For(ast.getName(), ast.getValue(), statements);
+                }
+            }
+
+            @Override
+            public Ast visit(Ast.Expr.Group ast) {
+                return isInvariant(ast.getExpression()) ? replace(ast.getExpression()) : super.visit(ast);
+            }
+
+            @Override
+            public Ast visit(Ast.Expr.Binary ast) {
+                return isInvariant(ast) ? replace(ast) : super.visit(ast);
+            }
+
+            @Override
+            public Ast visit(Ast.Expr.Access ast) {
+                return ast.getReceiver().isPresent() && isInvariant(ast) ? replace(ast) : super.visit(ast);
+            }
+
+            private Ast.Expr.Access replace(Ast.Expr expr) {
+                return hoisted.computeIfAbsent(expr, e -> {
+                    String name = names.fresh("inv");
+                    Ast.Expr.Access access = new Ast.Expr.Access(Optional.empty(), name);
+                    access.setVariable(new Environment.Variable(name, name, Ast.typeOf(e), Environment.NIL));
+                    return access;
+                });
+            }
+
+            private boolean isInvariant(Ast.Expr expr) {
+                if (!(expr instanceof Ast.Expr.Binary || expr instanceof Ast.Expr.Access)
+                        || Ast.typeOf(expr) == null || !isSideEffectFree(expr) || !cannotFail(expr)) {
+                    return false;
+                }
+                Effects reads = Effects.of(expr, methods);
+                for (String name : reads.read) {
+                    if (loop.declared.contains(name) || loop.assigned.contains(name)) {
+                        return false;
+                    }
+                }
+                if (loop.calls && bindings.readsGlobals(expr)) {
+                    return false;
+                }
+                for (String field : reads.fields) {
+                    if (loop.calls || loop.assignedFields.contains(field)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+        }
+
+        /**
+         * Returns true if the expression only reads literals other than
+         * {@code NIL} and definitely assigned locals.
+         */
+        private boolean cannotFail(Ast.Expr expr) {
+            boolean[] fails = {false};
+            new Traversal.Walk() {
+
+                @Override
+                protected boolean enter(Ast ast) {
+                    if (ast instanceof Ast.Expr.Literal && ((Ast.Expr.Literal) ast).getLiteral() == null
+                            || ast instanceof Ast.Expr.Access && !((Ast.Expr.Access) ast).getReceiver().isPresent()
+                            && !assigned.contains(bindings.of(ast))) {
+                        fails[0] = true;
+                    }
+                    return !fails[0];
+                }
+
+            }.walk(expr);
+            return !fails[0];
+        }
+
+    }
+
+    /**
+     * Returns the definitely assigned locals of a method, starting from
+     * those declared with a value and dropping those given a value that may
+     * be {@code NIL} until none is left.
+     */
+    private static Set<Object> assigned(Ast.Method method, Effects.Bindings bindings) {
+        Map<Object, List<Ast.Expr>> values = new HashMap<>();
+        Set<Object> unassigned = new HashSet<>();
+        new Traversal.Walk() {
+
+            @Override
+            protected boolean enter(Ast ast) {
+                if (ast instanceof Ast.Stmt.Declaration) {
+                    Ast.Stmt.Declaration declaration = (Ast.Stmt.Declaration) ast;
+                    Object variable = bindings.of(declaration);
+                    if (declaration.getValue().isPresent()) {
+                        values.computeIfAbsent(variable, v -> new ArrayList<>()).add(declaration.getValue().get());
+                    } else {
+                        unassigned.add(variable);
+                    }
+                } else if (ast instanceof Ast.Stmt.Assignment) {
+                    Ast.Stmt.Assignment assignment = (Ast.Stmt.Assignment) ast;
+                    values.computeIfAbsent(bindings.of(assignment.getReceiver()), v -> new ArrayList<>()).add(assignment.getValue());
+                }
+                return true;
+            }
+
+        }.walk(method);
+        // Globals, and locals bound ambiguously, have no binding.
+        values.remove(null);
+        Set<Object> assigned = new HashSet<>(values.keySet());
+        assigned.removeAll(unassigned);
+        boolean changed = true;
+        while (changed) {
+            changed = assigned.removeIf(variable -> {
+                for (Ast.Expr value : values.get(variable)) {
+                    if (!isAssigned(value, assigned, bindings)) {
+                        return true;
+                    }
+                }
+                return false;
+            });
+        }
+        return assigned;
+    }
+
+    /**
+     * Returns true if the value is not {@code NIL} once it is computed.
+     */
+    private static boolean isAssigned(Ast.Expr value, Set<Object> assigned, Effects.Bindings bindings) {
+        if (value instanceof Ast.Expr.Literal) {
+            return ((Ast.Expr.Literal) value).getLiteral() != null;
+        } else if (value instanceof Ast.Expr.Group) {
+            return isAssigned(((Ast.Expr.Group) value).getExpression(), assigned, bindings);
+        } else if (value instanceof Ast.Expr.Access) {
+            return !((Ast.Expr.Access) value).getReceiver().isPresent() && assigned.contains(bindings.of(value));
+        }
+        return value instanceof Ast.Expr.Binary;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,172 @@
+package plc.project;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Replaces {@code WHILE} loops with a small, constant number of iterations by
+ * that many copies of their body.
+ *
+ * A loop qualifies if it counts a local integer from a literal to a literal:
+ *
+ *  - it is in counted form (see {@link Induction}), comparing its induction
+ *    variable to an integer literal, as in {@code i < 8}
+ *  - the variable is declared with an integer literal earlier in the same
+ *    block, and not declared or assigned by the statements in between
+ *  - its body declares nothing in the scope of the iteration, so the copies
+ *    can run in the enclosing scope (see {@link Capture#ELIDED})
+ *
+ * The number of iterations is found by stepping the variable from its initial
+ * value, and the loop is unrolled if it runs at most {@code maxTrips} times
+ * and the copies have at most {@code maxSize} AST nodes. The condition is free
+ * of side effects, so a loop that never runs is removed, and the copies keep
+ * the step, so the variable has the same value afterwards.
+ *
+ * {@code FOR} loops iterate over values only known at runtime, so they are not
+ * unrolled.
+ */
+public final class LoopUnrolling implements Optimizer.Pass {
+
+    public static final int DEFAULT_MAX_TRIPS = 8;
+    public static final int DEFAULT_MAX_SIZE = 64;
+
+    private final int maxTrips;
+    private final int maxSize;
+
+    public LoopUnrolling() {
+        this(DEFAULT_MAX_TRIPS, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a pass unrolling loops running at most {@code maxTrips} times
+     * into at most {@code maxSize} AST nodes.
+     */
+    public LoopUnrolling(int maxTrips, int maxSize) {
+        this.maxTrips = maxTrips;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public String getName() {
+        return "loop-unrolling";
+    }
+
+    @Override
+    public Ast.Source apply(Ast.Source source, Optimizer.Statistics.Entry entry) {
+        Unroller unroller = new Unroller(Effects.methods(source));
+        Ast.Source result = (Ast.Source) unroller.visit(source);
+        entry.count("unrolled", unroller.getChanges());
+        return result;
+    }
+
+    private final class Unroller extends Rewriter {
+
+        private final Set<String> methods;
+        private Effects.Bindings bindings;
+
+        private Unroller(Set<String> methods) {
+            this.methods = methods;
+        }
+
+        @Override
+        public Ast visit(Ast.Field ast) {
+            return ast;
+        }
+
+        @Override
+        public Ast visit(Ast.Method ast) {
+            bindings = Effects.Bindings.of(ast);
+            return super.visit(ast);
+        }
+
+        @Override
+        protected List<Ast.Stmt> visitStatements(List<Ast.Stmt> statements) {
+            List<Ast.Stmt> visited = super.visitStatements(statements);
+            List<Ast.Stmt> result = null;
+            for (int i = 0; i < visited.size(); i++) {
+                List<Ast.Stmt> unrolled = visited.get(i) instanceof Ast.Stmt.While
+                        ? unroll((Ast.Stmt.While) visited.get(i), visited.subList(0, i))
+                        : null;
+                if (result == null && unrolled != null) {
+                    result = new ArrayList<>(visited.subList(0, i));
+                }
+                if (unrolled != null) {
+                    changed();
+                    result.addAll(unrolled);
+                } else if (result != null) {
+                    result.add(visited.get(i));
+                }
+            }
+            return result == null ? visited : result;
+        }
+
+        /**
+         * Returns the statements replacing the loop, given the statements
+         * preceding it in its block, or null if it is not unrolled.
+         */
+        private List<Ast.Stmt> unroll(Ast.Stmt.While loop, List<Ast.Stmt> preceding) {
+            List<Ast.Stmt> body = loop.getStatements();
+            if (body.isEmpty() || Capture.of(loop) != Capture.ELIDED) {
+                return null;
+            }
+            Optional<Induction> induction = Induction.of(loop, methods, bindings);
+            if (!induction.isPresent() || !induction.get().isCounted()) {
+                return null;
+            }
+            BigInteger initial = initial(preceding, induction.get().getVariable());
+            Optional<Integer> trips = initial == null ? Optional.empty() : induction.get().getTrips(initial, maxTrips);
+            if (!trips.isPresent() || trips.get() * size(body) > maxSize) {
+                return null;
+            }
+            List<Ast.Stmt> unrolled = new ArrayList<>();
+            for (int i = 0; i < trips.get(); i++) {
+                for (Ast.Stmt statement : body) {
+                    unrolled.add(Traversal.copy(statement));
+                }
+            }
+            return unrolled;
+        }
+
+        /**
+         * Returns the value the variable is declared with, if it is declared
+         * with an integer literal earlier in the block and the statements
+         * since do not declare or assign it, else null.
+         */
+        private BigInteger initial(List<Ast.Stmt> preceding, String name) {
+            for (int i = preceding.size() - 1; i >= 0; i--) {
+                Ast.Stmt statement = preceding.get(i);
+                if (statement instanceof Ast.Stmt.Declaration && ((Ast.Stmt.Declaration) statement).getName().equals(name)) {
+                    Optional<Ast.Expr> value = ((Ast.Stmt.Declaration) statement).getValue();
+                    return value.isPresent() ? Induction.integer(value.get()) : null;
+                }
+                Effects effects = Effects.of(statement, methods);
+                if (effects.assigned.contains(name) || effects.declared.contains(name)) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+    }
+
+    private static int size(List<Ast.Stmt> statements) {
+        int[] size = {0};
+        Traversal.Walk counter = new Traversal.Walk() {
+
+            @Override
+            protected boolean enter(Ast ast) {
+                size[0]++;
+                return true;
+            }
+
+        };
+        for (Ast.Stmt statement : statements) {
+            counter.walk(statement);
+        }
+        return size[0];
+    }
+
+}
@@ -0,0 +1,192 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Specializes methods to the concrete types of the arguments they are called
+ * with. A call without a receiver passing, for some parameter, an argument of
+ * a concrete type narrower than the parameter's (such as an {@code Integer}
+ * for an {@code Any}) is rebound to a clone of the method declaring those
+ * parameters with the argument types. The clone is analyzed again with its
+ * precise parameter types, so the operations within it are specialized (see
+ * {@link Operation}) where those of the generic method are not. Calls within
+ * clones are specialized in turn, and a call of a recursive method from its
+ * own clone is rebound to that clone.
+ *
+ * Each method gets at most {@code maxClones} clones over the lifetime of the
+ * pass, one per distinct signature. Clones keep the return type of their
+ * method, so the type of a rebound call does not change, and a clone whose
+ * body no longer type checks with the narrower parameters (for instance, as it
+ * assigns a parameter a value of another type) is not created.
+ *
+ * The pass needs the scope the source was analyzed in, as the clones are
+ * defined in it, and leaves unanalyzed trees unchanged.
+ */
+public final class Monomorphizer implements Optimizer.Pass {
+
+    public static final int DEFAULT_MAX_CLONES = 4;
+
+    private final Scope scope;
+    private final int maxClones;
+    private final Map<Environment.Function, Environment.Function> origins = new IdentityHashMap<>();
+    private final Map<Environment.Function, Integer> cloned = new IdentityHashMap<>();
+    private final Map<Environment.Function, Set<List<Environment.Type>>> failed = new IdentityHashMap<>();
+
+    public Monomorphizer(Scope scope) {
+        this(scope, DEFAULT_MAX_CLONES);
+    }
+
+    /**
+     * Creates a pass defining clones in the scope the source was analyzed in
+     * (see {@link Analyzer#getScope()}), with at most {@code maxClones} clones
+     * per method.
+     */
+    public Monomorphizer(Scope scope, int maxClones) {
+        this.scope = scope;
+        this.maxClones = maxClones;
+    }
+
+    @Override
+    public String getName() {
+        return "monomorphization";
+    }
+
+    @Override
+    public Ast.Source apply(Ast.Source source, Optimizer.Statistics.Entry entry) {
+        Specialization specialization = new Specialization(source);
+        List<Ast.Method> methods = specialization.methods;
+        // Clones are appended as they are created, so their calls are
+        // specialized as well.
+        for (int i = 0; i < methods.size(); i++) {
+            methods.set(i, (Ast.Method) specialization.rewrite(methods.get(i)));
+        }
+        if (specialization.getChanges() == 0) {
+            return source;
+        }
+        entry.count("rebound", specialization.getChanges());
+        entry.count("cloned", specialization.clones);
+        return new Ast.Source(source.getFields(), methods);
+    }
+
+    /**
+     * Returns true if values of the type may be of a narrower type at
+     * runtime, in which case it is not worth specializing to.
+     */
+    private static boolean isAbstract(Environment.Type type) {
+        return type == Environment.Type.ANY || type == Environment.Type.COMPARABLE;
+    }
+
+    private final class Specialization extends Traversal.Rewrite {
+
+        private final List<Ast.Method> methods;
+        private final Map<Environment.Function, Ast.Method> bindings = new IdentityHashMap<>();
+        private final Map<Environment.Function, Map<List<Environment.Type>, Environment.Function>> signatures = new IdentityHashMap<>();
+        private final Names names;
+        private final Set<String> taken = new HashSet<>();
+        private int clones = 0;
+
+        private Specialization(Ast.Source source) {
+            this.methods = new ArrayList<>(source.getMethods());
+            this.names = Names.of(source);
+            for (Environment.Function function : scope.getFunctions()) {
+                taken.add(function.getName());
+            }
+            for (Ast.Method method : methods) {
+                Environment.Function function = Ast.functionOf(method);
+                if (function != null) {
+                    bindings.put(function, method);
+                    if (origins.containsKey(function)) {
+                        signatures.computeIfAbsent(origins.get(function), k -> new LinkedHashMap<>())
+                                .put(function.getParameterTypes(), function);
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected Ast exit(Ast ast) {
+            if (!(ast instanceof Ast.Expr.Function) || ((Ast.Expr.Function) ast).getReceiver().isPresent()) {
+                return ast;
+            }
+            Ast.Expr.Function call = (Ast.Expr.Function) ast;
+            Environment.Function function = Ast.functionOf(call);
+            if (function == null || !bindings.containsKey(function)) {
+                return ast;
+            }
+            Environment.Function origin = origins.getOrDefault(function, function);
+            List<Environment.Type> parameters = origin.getParameterTypes();
+            List<Environment.Type> signature = new ArrayList<>();
+            for (int i = 0; i < parameters.size(); i++) {
+                Environment.Type type = Ast.typeOf(call.getArguments().get(i));
+                boolean narrower = type != null && type != parameters.get(i) && type.isSubtypeOf(parameters.get(i));
+                signature.add(narrower && !isAbstract(type) ? type : parameters.get(i));
+            }
+            Environment.Function target = signature.equals(parameters) ? origin : specialize(origin, signature);
+            if (target == null || target == function) {
+                return ast;
+            }
+            changed();
+            Ast.Expr.Function rebound = Ast.copyAnnotations(call, new Ast.Expr.Function(Optional.empty(), target.getName(), call.getArguments()));
+            rebound.setFunction(target);
+            return rebound;
+        }
+
+        /**
+         * Returns the clone of the method for the signature, creating it if
+         * needed, or null if it cannot be created.
+         */
+        private Environment.Function specialize(Environment.Function origin, List<Environment.Type> signature) {
+            Map<List<Environment.Type>, Environment.Function> clonesOf = signatures.computeIfAbsent(origin, k -> new LinkedHashMap<>());
+            if (clonesOf.containsKey(signature)) {
+                return clonesOf.get(signature);
+            }
+            Ast.Method method = bindings.get(origin);
+            if (method == null || cloned.getOrDefault(origin, 0) >= maxClones
+                    || failed.getOrDefault(origin, Collections.emptySet()).contains(signature)) {
+                return null;
+            }
+
+            String name;
+            do {
+                name = names.fresh(method.getName());
+            } while (!taken.add(name));
+            List<String> typeNames = new ArrayList<>();
+            for (Environment.Type type : signature) {
+                typeNames.add(type.getName());
+            }
+            List<Ast.Stmt> statements = new ArrayList<>();
+            for (Ast.Stmt statement : method.getStatements()) {
+                statements.add(Traversal.copy(statement));
+            }
+            Ast.Method clone = new Ast.Method(name, method.getParameters(), typeNames, method.getReturnTypeName(), statements);
+            try {
+                // The clone is checked in a scope of its own, so that it is
+                // only defined once it is known to type check.
+                new Analyzer(scope).visit(clone);
+            } catch (RuntimeException e) {
+                failed.computeIfAbsent(origin, k -> new HashSet<>()).add(signature);
+                return null;
+            }
+            Environment.Function function = scope.defineFunction(name, name, signature, origin.getReturnType(), args -> Environment.NIL);
+            clone.setFunction(function);
+
+            origins.put(function, origin);
+            cloned.merge(origin, 1, Integer::sum);
+            clonesOf.put(signature, function);
+            bindings.put(function, clone);
+            methods.add(clone);
+            clones++;
+            return function;
+        }
+
+    }
+
+}
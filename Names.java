@@ -0,0 +1,64 @@
+package plc.project;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Generates fresh variable names for passes that synthesize declarations.
+ * Fresh names have the form {@code base$N}; the lexer never produces a
+ * {@code $}, so they cannot clash with names from the source, and names from
+ * earlier runs are collected up front so they are not reused either.
+ */
+final class Names {
+
+    private final Set<String> used;
+    private int counter = 0;
+
+    private Names(Set<String> used) {
+        this.used = used;
+    }
+
+    /**
+     * Returns a generator avoiding every variable name declared in the source.
+     */
+    static Names of(Ast.Source source) {
+        Set<String> used = new HashSet<>();
+        new Traversal.Walk() {
+
+            @Override
+            protected boolean enter(Ast ast) {
+                if (ast instanceof Ast.Field) {
+                    used.add(((Ast.Field) ast).getName());
+                } else if (ast instanceof Ast.Method) {
+                    used.addAll(((Ast.Method) ast).getParameters());
+                } else if (ast instanceof Ast.Stmt.Declaration) {
+                    used.add(((Ast.Stmt.Declaration) ast).getName());
+                } else if (ast instanceof Ast.Stmt.For) {
+                    used.add(((Ast.Stmt.For) ast).getName());
+                }
+                // Names are only declared by statements.
+                return !(ast instanceof Ast.Expr);
+            }
+
+        }.walk(source);
+        return new Names(used);
+    }
+
+    /**
+     * Returns a generator avoiding only the given names, which numbers names
+     * the same way each time it is given the same names.
+     */
+    static Names of(Collection<String> names) {
+        return new Names(new HashSet<>(names));
+    }
+
+    String fresh(String base) {
+        String name;
+        do {
+            name = base + "$" + ++counter;
+        } while (!used.add(name));
+        return name;
+    }
+
+}
@@ -0,0 +1,188 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Objects;
+
+/**
+ * The operation a {@link Ast.Expr.Binary} performs given the types of its
+ * operands, as resolved by the {@link Analyzer}. Each operation applies to the
+ * values of the operands directly, so the {@link Interpreter} can dispatch to
+ * it without comparing operators or testing the classes of values when it
+ * trusts the types recorded by the analyzer. Results are the same as the
+ * unspecialized evaluation, including its treatment of comparisons of
+ * strings and characters (which only hold when {@code compareTo} returns
+ * exactly -1 or 1).
+ *
+ * {@code AND} and {@code OR} are not specialized, since they do not always
+ * evaluate their right operand once.
+ */
+public enum Operation {
+
+    INTEGER_ADD("+") {
+        @Override
+        public Object apply(Object left, Object right) {
+            return ((BigInteger) left).add((BigInteger) right);
+        }
+    },
+    INTEGER_SUBTRACT("-") {
+        @Override
+        public Object apply(Object left, Object right) {
+            return ((BigInteger) left).subtract((BigInteger) right);
+        }
+    },
+    INTEGER_MULTIPLY("*") {
+        @Override
+        public Object apply(Object left, Object right) {
+            return ((BigInteger) left).multiply((BigInteger) right);
+        }
+    },
+    INTEGER_DIVIDE("/") {
+        @Override
+        public Object apply(Object left, Object right) {
+            return ((BigInteger) left).divide((BigInteger) right);
+        }
+    },
+    DECIMAL_ADD("+") {
+        @Override
+        public Object apply(Object left, Object right) {
+            return ((BigDecimal) left).add((BigDecimal) right);
+        }
+    },
+    DECIMAL_SUBTRACT("-") {
+        @Override
+        public Object apply(Object left, Object right) {
+            return ((BigDecimal) left).subtract((BigDecimal) right);
+        }
+    },
+    DECIMAL_MULTIPLY("*") {
+        @Override
+        public Object apply(Object left, Object right) {
+            return ((BigDecimal) left).multiply((BigDecimal) right);
+        }
+    },
+    DECIMAL_DIVIDE("/") {
+        @Override
+        public Object apply(Object left, Object right) {
+            return ((BigDecimal) left).divide((BigDecimal) right, 1, RoundingMode.HALF_EVEN);
+        }
+    },
+    STRING_CONCATENATE("+") {
+        @Override
+        public Object apply(Object left, Object right) {
+            return left.toString() + right.toString();
+        }
+    },
+    LESS("<") {
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object apply(Object left, Object right) {
+            return ((Comparable<Object>) left).compareTo(right) < 0;
+        }
+    },
+    LESS_EQUAL("<=") {
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object apply(Object left, Object right) {
+            return ((Comparable<Object>) left).compareTo(right) <= 0;
+        }
+    },
+    GREATER(">") {
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object apply(Object left, Object right) {
+            return ((Comparable<Object>) left).compareTo(right) > 0;
+        }
+    },
+    GREATER_EQUAL(">=") {
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object apply(Object left, Object right) {
+            return ((Comparable<Object>) left).compareTo(right) >= 0;
+        }
+    },
+    TEXT_LESS("<") {
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object apply(Object left, Object right) {
+            return ((Comparable<Object>) left).compareTo(right) == -1;
+        }
+    },
+    TEXT_GREATER(">") {
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object apply(Object left, Object right) {
+            return ((Comparable<Object>) left).compareTo(right) == 1;
+        }
+    },
+    EQUAL("==") {
+        @Override
+        public Object apply(Object left, Object right) {
+            return Objects.equals(left, right);
+        }
+    },
+    NOT_EQUAL("!=") {
+        @Override
+        public Object apply(Object left, Object right) {
+            return !Objects.equals(left, right);
+        }
+    };
+
+    private final String operator;
+
+    Operation(String operator) {
+        this.operator = operator;
+    }
+
+    public String getOperator() {
+        return operator;
+    }
+
+    /**
+     * Returns the result of the operation on the values of its operands.
+     */
+    public abstract Object apply(Object left, Object right);
+
+    /**
+     * Returns the operation performed by the operator on operands of the
+     * given types, or null if it is not specialized.
+     */
+    public static Operation of(String operator, Environment.Type left, Environment.Type right) {
+        if (left == null || right == null) {
+            return null;
+        }
+        boolean integers = left == Environment.Type.INTEGER && right == Environment.Type.INTEGER;
+        boolean decimals = left == Environment.Type.DECIMAL && right == Environment.Type.DECIMAL;
+        boolean numbers = integers || decimals;
+        boolean texts = left == right && (left == Environment.Type.STRING || left == Environment.Type.CHARACTER);
+        switch (operator) {
+            case "+":
+                if (left == Environment.Type.STRING || right == Environment.Type.STRING) {
+                    return STRING_CONCATENATE;
+                }
+                return integers ? INTEGER_ADD : decimals ? DECIMAL_ADD : null;
+            case "-":
+                return integers ? INTEGER_SUBTRACT : decimals ? DECIMAL_SUBTRACT : null;
+            case "*":
+                return integers ? INTEGER_MULTIPLY : decimals ? DECIMAL_MULTIPLY : null;
+            case "/":
+                return integers ? INTEGER_DIVIDE : decimals ? DECIMAL_DIVIDE : null;
+            case "<":
+                return numbers ? LESS : texts ? TEXT_LESS : null;
+            case "<=":
+                return numbers || texts ? LESS_EQUAL : null;
+            case ">":
+                return numbers ? GREATER : texts ? TEXT_GREATER : null;
+            case ">=":
+                return numbers || texts ? GREATER_EQUAL : null;
+            case "==":
+                return EQUAL;
+            case "!=":
+                return NOT_EQUAL;
+            default:
+                return null;
+        }
+    }
+
+}
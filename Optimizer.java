@@ -0,0 +1,222 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The optimizer sits between the parser/analyzer and the backends, running a
+ * pipeline of {@link Pass}es that each rewrite an {@link Ast.Source} into an
+ * equivalent one. The pipeline is chosen by an optimization level:
+ *
+ *  - 0: no passes, the tree is returned unchanged
+ *  - 1: constant propagation and folding, dead branch and dead code
+ *       elimination
+ *  - 2: level 1 plus inlining, compile-time evaluation of pure calls,
+ *       algebraic simplification, loop-invariant code motion, loop
+ *       unrolling, strength reduction, common subexpression elimination and
+ *       tree shaking, repeated until no pass changes the tree (or
+ *       {@link #MAX_ITERATIONS} is reached)
+ *  - 3: level 2 plus the passes on methods in SSA form (see
+ *       {@link SsaOptimizer}) before dead code elimination
+ *
+ * Passes work on both analyzed and unanalyzed trees. Rewritten nodes keep the
+ * annotations of the nodes they replace, so an analyzed tree can be optimized
+ * and then handed to the {@link Generator}.
+ */
+public final class Optimizer {
+
+    public static final int MAX_ITERATIONS = 4;
+
+    private final List<Pass> passes;
+    private final int iterations;
+    private final Statistics statistics = new Statistics();
+
+    public Optimizer(int level) {
+        this(passes(level), level >= 2 ? MAX_ITERATIONS : 1);
+    }
+
+    public Optimizer(List<Pass> passes, int iterations) {
+        this.passes = passes;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Returns the built-in passes enabled at the given optimization level, in
+     * the order they are run.
+     */
+    public static List<Pass> passes(int level) {
+        List<Pass> passes = new ArrayList<>();
+        if (level >= 2) {
+            passes.add(new Inliner());
+            passes.add(new CompileTimeEvaluation());
+        }
+        if (level >= 1) {
+            passes.add(new ConstantPropagation());
+            passes.add(new ConstantFolding());
+        }
+        if (level >= 2) {
+            passes.add(new AlgebraicSimplification());
+        }
+        if (level >= 1) {
+            passes.add(new DeadBranchElimination());
+        }
+        if (level >= 2) {
+            passes.add(new LoopInvariantCodeMotion());
+            passes.add(new LoopUnrolling());
+            passes.add(new StrengthReduction());
+            passes.add(new CommonSubexpressionElimination());
+        }
+        if (level >= 3) {
+            passes.add(new SsaOptimizer());
+        }
+        if (level >= 1) {
+            passes.add(new DeadCodeElimination());
+        }
+        if (level >= 2) {
+            passes.add(new TreeShaking());
+        }
+        return passes;
+    }
+
+    public List<Pass> getPasses() {
+        return passes;
+    }
+
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Runs the pipeline over the source, repeating it while some pass still
+     * changes the tree and the iteration limit has not been reached.
+     */
+    public Ast.Source optimize(Ast.Source source) {
+        for (int i = 0; i < iterations; i++) {
+            int changes = 0;
+            for (Pass pass : passes) {
+                Statistics.Entry entry = statistics.getEntry(pass.getName());
+                int before = entry.getChanges();
+                long start = System.nanoTime();
+                source = pass.apply(source, entry);
+                entry.record(System.nanoTime() - start);
+                changes += entry.getChanges() - before;
+            }
+            if (changes == 0) {
+                break;
+            }
+        }
+        return source;
+    }
+
+    /**
+     * A rewrite from one {@link Ast.Source} to an equivalent one. Passes count
+     * the rewrites they perform on the given statistics entry.
+     */
+    public interface Pass {
+
+        String getName();
+
+        Ast.Source apply(Ast.Source source, Statistics.Entry entry);
+
+    }
+
+    /**
+     * Per-pass timing and change counters, accumulated over every run of the
+     * optimizer.
+     */
+    public static final class Statistics {
+
+        private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+        public Entry getEntry(String pass) {
+            return entries.computeIfAbsent(pass, Entry::new);
+        }
+
+        public Map<String, Entry> getEntries() {
+            return Collections.unmodifiableMap(entries);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (Entry entry : entries.values()) {
+                builder.append(entry).append(System.lineSeparator());
+            }
+            return builder.toString();
+        }
+
+        public static final class Entry {
+
+            private final String pass;
+            private final Map<String, Integer> counters = new LinkedHashMap<>();
+            private int runs = 0;
+            private long nanos = 0;
+
+            private Entry(String pass) {
+                this.pass = pass;
+            }
+
+            public String getPass() {
+                return pass;
+            }
+
+            public int getRuns() {
+                return runs;
+            }
+
+            public long getNanos() {
+                return nanos;
+            }
+
+            /**
+             * Returns the value of a named counter, such as the number of
+             * folded expressions, or 0 if it was never incremented.
+             */
+            public int getCounter(String name) {
+                return counters.getOrDefault(name, 0);
+            }
+
+            public Map<String, Integer> getCounters() {
+                return Collections.unmodifiableMap(counters);
+            }
+
+            /**
+             * Returns the total number of changes over all counters.
+             */
+            public int getChanges() {
+                int changes = 0;
+                for (int count : counters.values()) {
+                    changes += count;
+                }
+                return changes;
+            }
+
+            public void count(String name, int amount) {
+                if (amount != 0) {
+                    counters.merge(name, amount, Integer::sum);
+                }
+            }
+
+            private void record(long nanos) {
+                this.runs++;
+                this.nanos += nanos;
+            }
+
+            @Override
+            public String toString() {
+                return "Entry{" +
+                        "pass='" + pass + '\'' +
+                        ", runs=" + runs +
+                        ", nanos=" + nanos +
+                        ", counters=" + counters +
+                        '}';
+            }
+
+        }
+
+    }
+
+}
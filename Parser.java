@@ -4,7 +4,9 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -23,9 +25,20 @@ import java.util.Optional;
 public final class Parser {
 
     private final TokenStream tokens;
+    private final Map<Ast.Expr, Ast.Expr> interned;
 
     public Parser(List<Token> tokens) {
+        this(tokens, false);
+    }
+
+    /**
+     * Creates a parser which, if {@code hashConsing} is enabled, shares
+     * structurally identical expression subtrees between all their occurrences
+     * in the parsed source (see {@link #intern(Ast.Expr)}).
+     */
+    public Parser(List<Token> tokens, boolean hashConsing) {
         this.tokens = new TokenStream(tokens);
+        this.interned = hashConsing ? new HashMap<>() : null;
     }
 
     /**
@@ -437,13 +450,13 @@ public final class Parser {
         while (peek("AND") || peek("OR")) {
             if (match("AND")) {
                 Ast.Expr right = parseEqualityExpression();
-                expr = new Ast.Expr.Binary("AND", expr, right);
+                expr = intern(new Ast.Expr.Binary("AND", expr, right));
             }
 
             else {
                 match("OR");
                 Ast.Expr right = parseEqualityExpression();
-                expr = new Ast.Expr.Binary("OR", expr, right);
+                expr = intern(new Ast.Expr.Binary("OR", expr, right));
             }
         }
         return expr;
@@ -462,33 +475,33 @@ public final class Parser {
         while (peek("<") || peek("<=") || peek(">") || peek(">=") || peek("==") || peek("!=")) {
             if (match("<")) {
                 Ast.Expr right = parseAdditiveExpression();
-                expr = new Ast.Expr.Binary("<", expr, right);
+                expr = intern(new Ast.Expr.Binary("<", expr, right));
             }
 
             else if (match("<=")){
                 Ast.Expr right = parseAdditiveExpression();
-                expr = new Ast.Expr.Binary("<=", expr, right);
+                expr = intern(new Ast.Expr.Binary("<=", expr, right));
             }
 
             else if (match(">")){
                 Ast.Expr right = parseAdditiveExpression();
-                expr = new Ast.Expr.Binary(">", expr, right);
+                expr = intern(new Ast.Expr.Binary(">", expr, right));
             }
 
             else if (match(">=")){
                 Ast.Expr right = parseAdditiveExpression();
-                expr = new Ast.Expr.Binary(">=", expr, right);
+                expr = intern(new Ast.Expr.Binary(">=", expr, right));
             }
 
             else if (match("==")){
                 Ast.Expr right = parseAdditiveExpression();
-                expr = new Ast.Expr.Binary("==", expr, right);
+                expr = intern(new Ast.Expr.Binary("==", expr, right));
             }
 
             else {
                 match("!=");
                 Ast.Expr right = parseEqualityExpression();
-                expr = new Ast.Expr.Binary("!=", expr, right);
+                expr = intern(new Ast.Expr.Binary("!=", expr, right));
             }
         }
 
@@ -504,13 +517,13 @@ public final class Parser {
         while (peek("+") || peek("-")) {
             if (match("+")) {
                 Ast.Expr right = parseMultiplicativeExpression();
-                expr = new Ast.Expr.Binary("+", expr, right);
+                expr = intern(new Ast.Expr.Binary("+", expr, right));
             }
 
             else {
                 match("-");
                 Ast.Expr right = parseMultiplicativeExpression();
-                expr = new Ast.Expr.Binary("-", expr, right);
+                expr = intern(new Ast.Expr.Binary("-", expr, right));
             }
         }
         return expr;
@@ -525,13 +538,13 @@ public final class Parser {
         while (peek("*") || peek("/")) {
             if (match("*")) {
                 Ast.Expr right = parseSecondaryExpression();
-                expr = new Ast.Expr.Binary("*", expr, right);
+                expr = intern(new Ast.Expr.Binary("*", expr, right));
             }
 
             else {
                 match("/");
                 Ast.Expr right = parseSecondaryExpression();
-                expr = new Ast.Expr.Binary("/", expr, right);
+                expr = intern(new Ast.Expr.Binary("/", expr, right));
             }
         }
         return expr;
@@ -589,9 +602,9 @@ public final class Parser {
      */
     public Ast.Expr parsePrimaryExpression() throws ParseException {
         // Booleans
-        if (match("NIL"))   { return new Ast.Expr.Literal(null);  }
-        if (match("TRUE"))  { return new Ast.Expr.Literal(true);  }
-        if (match("FALSE")) { return new Ast.Expr.Literal(false); }
+        if (match("NIL"))   { return intern(new Ast.Expr.Literal(null));  }
+        if (match("TRUE"))  { return intern(new Ast.Expr.Literal(true));  }
+        if (match("FALSE")) { return intern(new Ast.Expr.Literal(false)); }
 
         // Characters
         if (match(Token.Type.CHARACTER)) {
@@ -620,7 +633,7 @@ public final class Parser {
                 newVal = val.charAt(0);
             }
 
-            return new Ast.Expr.Literal(newVal);
+            return intern(new Ast.Expr.Literal(newVal));
         }
 
         // Strings
@@ -634,19 +647,19 @@ public final class Parser {
             val = val.replace("\\t", "\t");
             val = val.replace("\\'", "\'");
             val = val.replace("\\\\", "\\");
-            return new Ast.Expr.Literal(val);
+            return intern(new Ast.Expr.Literal(val));
         }
 
         //Don't think the && statement is necessary
         //Also remember to use getLiteral() instead of toString()
 
         if (match(Token.Type.INTEGER) && !match(Token.Type.DECIMAL)) {
-            return new Ast.Expr.Literal(new BigInteger(tokens.get(-1).getLiteral()));
+            return intern(new Ast.Expr.Literal(new BigInteger(tokens.get(-1).getLiteral())));
         }
 
         // Decimals
         if (match(Token.Type.DECIMAL)) {
-            return new Ast.Expr.Literal(new BigDecimal(tokens.get(-1).getLiteral()));
+            return intern(new Ast.Expr.Literal(new BigDecimal(tokens.get(-1).getLiteral())));
         }
 
         // Group Expression
@@ -657,7 +670,7 @@ public final class Parser {
             Ast.Expr expr = parseExpression();
 
             if (match(")")) {
-                return new Ast.Expr.Group(expr);
+                return intern(new Ast.Expr.Group(expr));
             }
             else {
                 throw new ParseException("Error: No closing right parenthesis. \")\"", tokens.get(-1).getIndex() + 1);
@@ -708,6 +721,31 @@ public final class Parser {
 
     }
 
+    /**
+     * Returns the shared instance of the given expression when hash-consing is
+     * enabled. Only context-free subtrees (literals, and groups and binary
+     * expressions over them) are shared, since the analyzer annotates accesses
+     * and function calls with bindings that depend on the enclosing scope.
+     * Children are interned before their parents, so checking that each child
+     * is itself the interned instance is enough to know the subtree is
+     * context-free.
+     */
+    private Ast.Expr intern(Ast.Expr expr) {
+        if (interned == null) {
+            return expr;
+        } else if (expr instanceof Ast.Expr.Group && !isInterned(((Ast.Expr.Group) expr).getExpression())) {
+            return expr;
+        } else if (expr instanceof Ast.Expr.Binary && (!isInterned(((Ast.Expr.Binary) expr).getLeft()) || !isInterned(((Ast.Expr.Binary) expr).getRight()))) {
+            return expr;
+        }
+        Ast.Expr existing = interned.putIfAbsent(expr, expr);
+        return existing != null ? existing : expr;
+    }
+
+    private boolean isInterned(Ast.Expr expr) {
+        return interned.get(expr) == expr;
+    }
+
     /**
      * As in the lexer, returns {@code true} if the current sequence of tokens
      * matches the given patterns. Unlike the lexer, the pattern is not a regex;
@@ -0,0 +1,292 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Specializes a source to known values of some of its fields, producing a
+ * residual source that only does the work depending on the rest of the
+ * program. The residual source can be run by the {@link Interpreter} and, if
+ * the source was analyzed, emitted by the {@link Generator}.
+ *
+ * The initializers of the given fields are replaced with the values, which
+ * the level 2 passes of the {@link Optimizer} then propagate (see {@link
+ * ConstantPropagation}) into folded expressions, eliminated branches,
+ * evaluated calls (see {@link CompileTimeEvaluation}) and shaken methods and
+ * fields. Along with them, calls passing literals to methods are rebound to
+ * variants of the methods with those parameters replaced by the literals, so
+ * that the methods are specialized to them as well. Each method gets at most
+ * {@code maxVariants} variants, and only parameters the method never assigns
+ * are replaced.
+ */
+public final class PartialEvaluator {
+
+    public static final int DEFAULT_MAX_VARIANTS = 8;
+    public static final int MAX_ITERATIONS = 8;
+
+    private final Map<String, Object> fields;
+    private final int maxVariants;
+    private Optimizer.Statistics statistics = new Optimizer.Statistics();
+
+    public PartialEvaluator(Map<String, Object> fields) {
+        this(fields, DEFAULT_MAX_VARIANTS);
+    }
+
+    /**
+     * Creates an evaluator specializing sources to the given values of their
+     * fields, by name, with at most {@code maxVariants} variants per method.
+     * Values are those of literals: {@link BigInteger}, {@link BigDecimal},
+     * {@link Boolean}, {@link Character}, {@link String} or null for
+     * {@code NIL}.
+     */
+    public PartialEvaluator(Map<String, Object> fields, int maxVariants) {
+        this.fields = fields;
+        this.maxVariants = maxVariants;
+    }
+
+    /**
+     * Returns the statistics of the passes run by the last evaluation,
+     * including the rebinding of calls to variants ({@code specialization}).
+     */
+    public Optimizer.Statistics getStatistics() {
+        return statistics;
+    }
+
+    public Ast.Source evaluate(Ast.Source source) {
+        List<Optimizer.Pass> passes = new ArrayList<>();
+        passes.add(new Specialization());
+        passes.addAll(Optimizer.passes(2));
+        Optimizer optimizer = new Optimizer(passes, MAX_ITERATIONS);
+        statistics = optimizer.getStatistics();
+        return optimizer.optimize(bind(source));
+    }
+
+    /**
+     * Replaces the initializers of the given fields with their values.
+     */
+    private Ast.Source bind(Ast.Source source) {
+        Set<String> bound = new HashSet<>();
+        List<Ast.Field> result = new ArrayList<>();
+        for (Ast.Field field : source.getFields()) {
+            if (!fields.containsKey(field.getName())) {
+                result.add(field);
+                continue;
+            }
+            Object value = fields.get(field.getName());
+            if (value != null && !(value instanceof BigInteger || value instanceof BigDecimal || value instanceof Boolean
+                    || value instanceof Character || value instanceof String)) {
+                throw new RuntimeException("The value of the field " + field.getName() + " is not a literal.");
+            }
+            Ast.Expr.Literal literal = new Ast.Expr.Literal(value);
+            Environment.Variable variable = Ast.variableOf(field);
+            if (variable != null) {
+                literal.setType(Rewriter.literalType(value));
+                if (!literal.getType().isSubtypeOf(variable.getType())) {
+                    throw new RuntimeException("The value of the field " + field.getName() + " is not of type " + variable.getType().getName() + ".");
+                }
+            }
+            result.add(Ast.copyAnnotations(field, new Ast.Field(field.getName(), field.getTypeName(), Optional.of(literal))));
+            bound.add(field.getName());
+        }
+        for (String name : fields.keySet()) {
+            if (!bound.contains(name)) {
+                throw new RuntimeException("The field " + name + " is not defined.");
+            }
+        }
+        return new Ast.Source(result, source.getMethods());
+    }
+
+    /**
+     * Rebinds calls passing literals to variants of their methods. Variants
+     * are remembered over the iterations of the optimizer, and recreated if
+     * they were shaken off in the meantime, so their names are never reused.
+     */
+    private final class Specialization implements Optimizer.Pass {
+
+        private final Map<String, Map<Map<Integer, Object>, String>> variants = new HashMap<>();
+        private final Map<String, Integer> counts = new HashMap<>();
+        private final Set<String> taken = new HashSet<>();
+
+        @Override
+        public String getName() {
+            return "specialization";
+        }
+
+        @Override
+        public Ast.Source apply(Ast.Source source, Optimizer.Statistics.Entry entry) {
+            Rebinding rebinding = new Rebinding(source);
+            List<Ast.Method> methods = rebinding.worklist;
+            // Variants are appended as they are created, so their calls are
+            // rebound as well.
+            for (int i = 0; i < methods.size(); i++) {
+                methods.set(i, (Ast.Method) rebinding.rewrite(methods.get(i)));
+            }
+            if (rebinding.getChanges() == 0) {
+                return source;
+            }
+            entry.count("rebound", rebinding.getChanges());
+            entry.count("variants", rebinding.created);
+            return new Ast.Source(source.getFields(), methods);
+        }
+
+        private final class Rebinding extends Traversal.Rewrite {
+
+            private final List<Ast.Method> worklist;
+            private final Map<String, Ast.Method> methods = new HashMap<>();
+            private final Names names;
+            private int created = 0;
+
+            private Rebinding(Ast.Source source) {
+                this.worklist = new ArrayList<>(source.getMethods());
+                this.names = Names.of(source);
+                for (Ast.Method method : worklist) {
+                    methods.put(key(method.getName(), method.getParameters().size()), method);
+                    taken.add(method.getName());
+                }
+            }
+
+            @Override
+            protected Ast exit(Ast ast) {
+                if (!(ast instanceof Ast.Expr.Function) || ((Ast.Expr.Function) ast).getReceiver().isPresent()) {
+                    return ast;
+                }
+                Ast.Expr.Function call = (Ast.Expr.Function) ast;
+                String key = key(call.getName(), call.getArguments().size());
+                Ast.Method method = methods.get(key);
+                if (method == null) {
+                    return ast;
+                }
+                Set<String> assigned = assigned(method);
+                Map<Integer, Object> bound = new LinkedHashMap<>();
+                List<Ast.Expr> arguments = new ArrayList<>();
+                for (int i = 0; i < call.getArguments().size(); i++) {
+                    Ast.Expr argument = call.getArguments().get(i);
+                    if (argument instanceof Ast.Expr.Literal && !assigned.contains(method.getParameters().get(i))) {
+                        bound.put(i, ((Ast.Expr.Literal) argument).getLiteral());
+                    } else {
+                        arguments.add(argument);
+                    }
+                }
+                if (bound.isEmpty()) {
+                    return ast;
+                }
+                Ast.Method variant = variant(key, method, bound);
+                if (variant == null) {
+                    return ast;
+                }
+                changed();
+                Ast.Expr.Function rebound = Ast.copyAnnotations(call, new Ast.Expr.Function(Optional.empty(), variant.getName(), arguments));
+                if (Ast.functionOf(variant) != null) {
+                    rebound.setFunction(Ast.functionOf(variant));
+                }
+                return rebound;
+            }
+
+            /**
+             * Returns the variant of the method for the bound parameters,
+             * creating it if needed, or null if the method has too many.
+             */
+            private Ast.Method variant(String key, Ast.Method method, Map<Integer, Object> bound) {
+                Map<Map<Integer, Object>, String> variantsOf = variants.computeIfAbsent(key, k -> new HashMap<>());
+                String existing = variantsOf.get(bound);
+                if (existing != null && methods.containsKey(key(existing, method.getParameters().size() - bound.size()))) {
+                    return methods.get(key(existing, method.getParameters().size() - bound.size()));
+                } else if (existing == null && counts.getOrDefault(key, 0) >= maxVariants) {
+                    return null;
+                }
+
+                String name = existing;
+                if (name == null) {
+                    do {
+                        name = names.fresh(method.getName());
+                    } while (!taken.add(name));
+                    counts.merge(key, 1, Integer::sum);
+                    variantsOf.put(bound, name);
+                }
+                Map<String, Object> values = new HashMap<>();
+                List<String> parameters = new ArrayList<>();
+                List<String> typeNames = new ArrayList<>();
+                List<Environment.Type> types = new ArrayList<>();
+                for (int i = 0; i < method.getParameters().size(); i++) {
+                    if (bound.containsKey(i)) {
+                        values.put(method.getParameters().get(i), bound.get(i));
+                    } else {
+                        parameters.add(method.getParameters().get(i));
+                        typeNames.add(method.getParameterTypeNames().get(i));
+                        if (Ast.functionOf(method) != null) {
+                            types.add(Ast.functionOf(method).getParameterTypes().get(i));
+                        }
+                    }
+                }
+                List<Ast.Stmt> statements = new ArrayList<>();
+                Substitution substitution = new Substitution(values);
+                for (Ast.Stmt statement : method.getStatements()) {
+                    statements.add((Ast.Stmt) substitution.rewrite(Traversal.copy(statement)));
+                }
+                Ast.Method variant = new Ast.Method(name, parameters, typeNames, method.getReturnTypeName(), statements);
+                if (Ast.functionOf(method) != null) {
+                    variant.setFunction(new Environment.Function(name, name, types, Ast.functionOf(method).getReturnType(), args -> Environment.NIL));
+                }
+                methods.put(key(name, parameters.size()), variant);
+                worklist.add(variant);
+                created++;
+                return variant;
+            }
+
+        }
+
+    }
+
+    /**
+     * Returns the parameters of the method that its body assigns or declares
+     * again, which cannot be replaced by a value.
+     */
+    private static Set<String> assigned(Ast.Method method) {
+        // Calls do not matter here, since they cannot assign locals.
+        Effects effects = new Effects(Collections.emptySet());
+        for (Ast.Stmt statement : method.getStatements()) {
+            effects.walk(statement);
+        }
+        Set<String> assigned = new HashSet<>(effects.assigned);
+        assigned.addAll(effects.declared);
+        return assigned;
+    }
+
+    private static String key(String name, int arity) {
+        return name + "/" + arity;
+    }
+
+    /**
+     * Replaces accesses of the bound parameters with their values.
+     */
+    private static final class Substitution extends Traversal.Rewrite {
+
+        private final Map<String, Object> values;
+
+        private Substitution(Map<String, Object> values) {
+            this.values = values;
+        }
+
+        @Override
+        protected Ast exit(Ast ast) {
+            if (ast instanceof Ast.Expr.Access) {
+                Ast.Expr.Access access = (Ast.Expr.Access) ast;
+                if (!access.getReceiver().isPresent() && values.containsKey(access.getName())) {
+                    return Rewriter.literal(values.get(access.getName()), access);
+                }
+            }
+            return ast;
+        }
+
+    }
+
+}
@@ -0,0 +1,207 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Classifies the methods of a source by the effects a call to them can have,
+ * from the least to the most effectful:
+ *
+ *  - {@link #PURE}: only reads its parameters and local variables, so calls
+ *    with the same arguments always give the same result
+ *  - {@link #READ_ONLY}: may also read globals or the fields of objects, but
+ *    never changes them
+ *  - {@link #IMPURE}: may print, assign globals or the fields of objects, or
+ *    call something that does
+ *
+ * The analysis is interprocedural: a method is as effectful as the most
+ * effectful method it calls, which is solved as a fixpoint so that recursive
+ * methods are handled. Calls to functions not defined by the source (other
+ * than those of its own methods) and calls with a receiver, which dispatch on
+ * the object at runtime, are assumed to be impure.
+ */
+public enum Purity {
+
+    PURE, READ_ONLY, IMPURE;
+
+    /**
+     * Returns the more effectful of the two classifications.
+     */
+    public Purity join(Purity other) {
+        return compareTo(other) >= 0 ? this : other;
+    }
+
+    /**
+     * Classifies the methods of a source, annotating each method with its
+     * purity (see {@link Ast.Method#getPurity()}) and returning the purities
+     * by {@code name/arity}.
+     */
+    public static Map<String, Purity> analyze(Ast.Source source) {
+        Map<String, Summary> summaries = new LinkedHashMap<>();
+        for (Ast.Method method : source.getMethods()) {
+            summaries.put(method.getName() + "/" + method.getParameters().size(), new Summary());
+        }
+        for (Ast.Method method : source.getMethods()) {
+            Summary summary = summaries.get(method.getName() + "/" + method.getParameters().size());
+            new Collector(summary, summaries.keySet()).visit(method);
+        }
+
+        // Methods start out pure and only become more effectful, so this
+        // terminates after at most two raises per method.
+        Map<String, Purity> purities = new LinkedHashMap<>();
+        for (Map.Entry<String, Summary> entry : summaries.entrySet()) {
+            purities.put(entry.getKey(), entry.getValue().local);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<String, Summary> entry : summaries.entrySet()) {
+                Purity purity = purities.get(entry.getKey());
+                for (String callee : entry.getValue().callees) {
+                    purity = purity.join(purities.get(callee));
+                }
+                if (purity != purities.get(entry.getKey())) {
+                    purities.put(entry.getKey(), purity);
+                    changed = true;
+                }
+            }
+        }
+
+        for (Ast.Method method : source.getMethods()) {
+            method.setPurity(purities.get(method.getName() + "/" + method.getParameters().size()));
+        }
+        return purities;
+    }
+
+    /**
+     * The effects of the body of a method itself, and the methods of the
+     * source it calls.
+     */
+    private static final class Summary {
+
+        private Purity local = PURE;
+        private final Set<String> callees = new HashSet<>();
+
+    }
+
+    /**
+     * Collects the summary of a method. Variables are tracked by scope, so a
+     * name only counts as local where it refers to a parameter or a variable
+     * declared in an enclosing block. Variables declared in a branch of an
+     * {@code IF} are only defined if the branch is taken, so after the
+     * statement they are conservatively treated as globals.
+     */
+    private static final class Collector extends Walker {
+
+        private final Summary summary;
+        private final Set<String> methods;
+        private final Deque<Set<String>> scopes = new ArrayDeque<>();
+
+        private Collector(Summary summary, Set<String> methods) {
+            this.summary = summary;
+            this.methods = methods;
+        }
+
+        private boolean isLocal(String name) {
+            for (Set<String> scope : scopes) {
+                if (scope.contains(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void effect(Purity purity) {
+            summary.local = summary.local.join(purity);
+        }
+
+        @Override
+        public Void visit(Ast.Method ast) {
+            scopes.push(new HashSet<>(ast.getParameters()));
+            super.visit(ast);
+            scopes.pop();
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Declaration ast) {
+            super.visit(ast);
+            scopes.peek().add(ast.getName());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Assignment ast) {
+            if (ast.getReceiver() instanceof Ast.Expr.Access) {
+                Ast.Expr.Access access = (Ast.Expr.Access) ast.getReceiver();
+                if (access.getReceiver().isPresent()) {
+                    visit(access.getReceiver().get());
+                    effect(IMPURE);
+                } else if (!isLocal(access.getName())) {
+                    effect(IMPURE);
+                }
+            } else {
+                visit(ast.getReceiver());
+            }
+            visit(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.If ast) {
+            visit(ast.getCondition());
+            scopes.push(new HashSet<>());
+            visitAll(ast.getThenStatements());
+            scopes.pop();
+            scopes.push(new HashSet<>());
+            visitAll(ast.getElseStatements());
+            scopes.pop();
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.For ast) {
+            visit(ast.getValue());
+            Set<String> scope = new HashSet<>();
+            scope.add(ast.getName());
+            scopes.push(scope);
+            visitAll(ast.getStatements());
+            scopes.pop();
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.While ast) {
+            visit(ast.getCondition());
+            scopes.push(new HashSet<>());
+            visitAll(ast.getStatements());
+            scopes.pop();
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Access ast) {
+            if (ast.getReceiver().isPresent() || !isLocal(ast.getName())) {
+                effect(READ_ONLY);
+            }
+            return super.visit(ast);
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Function ast) {
+            String key = ast.getName() + "/" + ast.getArguments().size();
+            if (!ast.getReceiver().isPresent() && methods.contains(key)) {
+                summary.callees.add(key);
+            } else {
+                effect(IMPURE);
+            }
+            return super.visit(ast);
+        }
+
+    }
+
+}
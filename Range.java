@@ -0,0 +1,446 @@
+package plc.project;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * An interval of integers, with either bound possibly unbounded, and an
+ * analysis inferring such intervals for the {@code Integer} variables and
+ * expressions of method bodies.
+ *
+ * The analysis tracks the local variables of each method through its
+ * statements, starting from the values of integer literals and narrowing
+ * variables compared against known ranges in the conditions of {@code IF}
+ * and {@code WHILE} statements. Loops are iterated to a fixpoint, widening
+ * any bound that keeps growing to unbounded. Globals, which calls may change,
+ * and variables without a known value are only known to be integers if the
+ * {@link Analyzer} typed them as such.
+ *
+ * Each arithmetic {@link Ast.Expr.Binary} whose operands are known to be
+ * integers is annotated with a range covering both its operands and its
+ * result (see {@link Ast.Expr.Binary#getRange()}), so that an operation whose
+ * range {@link #isInt()} or {@link #isLong()} can be evaluated with primitive
+ * arithmetic without checking for overflow. Ranges depend on the position of
+ * a node in the tree, so they are not carried over by rewrites.
+ */
+public final class Range {
+
+    public static final Range ALL = new Range(null, null);
+
+    private static final BigInteger INT_MIN = BigInteger.valueOf(Integer.MIN_VALUE);
+    private static final BigInteger INT_MAX = BigInteger.valueOf(Integer.MAX_VALUE);
+    private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private final BigInteger lower;
+    private final BigInteger upper;
+
+    /**
+     * Creates the range between the given bounds (inclusive), where a null
+     * bound is unbounded.
+     */
+    public Range(BigInteger lower, BigInteger upper) {
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    public static Range of(BigInteger value) {
+        return new Range(value, value);
+    }
+
+    public Optional<BigInteger> getLower() {
+        return Optional.ofNullable(lower);
+    }
+
+    public Optional<BigInteger> getUpper() {
+        return Optional.ofNullable(upper);
+    }
+
+    public boolean isWithin(BigInteger min, BigInteger max) {
+        return lower != null && upper != null && lower.compareTo(min) >= 0 && upper.compareTo(max) <= 0;
+    }
+
+    public boolean isInt() {
+        return isWithin(INT_MIN, INT_MAX);
+    }
+
+    public boolean isLong() {
+        return isWithin(LONG_MIN, LONG_MAX);
+    }
+
+    public Range join(Range other) {
+        return new Range(lower == null || other.lower == null ? null : lower.min(other.lower),
+                upper == null || other.upper == null ? null : upper.max(other.upper));
+    }
+
+    /**
+     * Joins the ranges, making any bound of this range that the other one
+     * exceeds unbounded, so that repeated widening terminates.
+     */
+    public Range widen(Range other) {
+        return new Range(lower == null || other.lower == null || other.lower.compareTo(lower) < 0 ? null : lower,
+                upper == null || other.upper == null || other.upper.compareTo(upper) > 0 ? null : upper);
+    }
+
+    public Range intersect(Range other) {
+        return new Range(lower == null ? other.lower : other.lower == null ? lower : lower.max(other.lower),
+                upper == null ? other.upper : other.upper == null ? upper : upper.min(other.upper));
+    }
+
+    public Range add(Range other) {
+        return new Range(lower == null || other.lower == null ? null : lower.add(other.lower),
+                upper == null || other.upper == null ? null : upper.add(other.upper));
+    }
+
+    public Range subtract(Range other) {
+        return new Range(lower == null || other.upper == null ? null : lower.subtract(other.upper),
+                upper == null || other.lower == null ? null : upper.subtract(other.lower));
+    }
+
+    public Range multiply(Range other) {
+        if (isZero() || other.isZero()) {
+            return of(BigInteger.ZERO);
+        } else if (lower == null || upper == null || other.lower == null || other.upper == null) {
+            return ALL;
+        }
+        return corners(lower.multiply(other.lower), lower.multiply(other.upper),
+                upper.multiply(other.lower), upper.multiply(other.upper));
+    }
+
+    /**
+     * Returns the range of truncating division, as done by
+     * {@link BigInteger#divide}, by a divisor in the other range.
+     */
+    public Range divide(Range other) {
+        if (lower == null || upper == null) {
+            return ALL;
+        } else if (other.lower != null && other.upper != null && other.lower.signum() == other.upper.signum() && other.lower.signum() != 0) {
+            return corners(lower.divide(other.lower), lower.divide(other.upper),
+                    upper.divide(other.lower), upper.divide(other.upper));
+        }
+        // Dividing by any non-zero integer never increases the magnitude.
+        BigInteger magnitude = lower.abs().max(upper.abs());
+        return new Range(magnitude.negate(), magnitude);
+    }
+
+    private boolean isZero() {
+        return lower != null && upper != null && lower.signum() == 0 && upper.signum() == 0;
+    }
+
+    private static Range corners(BigInteger a, BigInteger b, BigInteger c, BigInteger d) {
+        return new Range(a.min(b).min(c.min(d)), a.max(b).max(c.max(d)));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Range &&
+                Objects.equals(lower, ((Range) obj).lower) &&
+                Objects.equals(upper, ((Range) obj).upper);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(lower, upper);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + (lower == null ? "-inf" : lower) + ", " + (upper == null ? "+inf" : upper) + "]";
+    }
+
+    /**
+     * Annotates the arithmetic operations of the methods of a source with
+     * their ranges. A node shared between several positions gets the join of
+     * its ranges.
+     */
+    public static void analyze(Ast.Source source) {
+        Analysis analysis = new Analysis();
+        for (Ast.Method method : source.getMethods()) {
+            analysis.method(method);
+        }
+        analysis.annotate();
+    }
+
+    public static void analyze(Ast.Method method) {
+        Analysis analysis = new Analysis();
+        analysis.method(method);
+        analysis.annotate();
+    }
+
+    /**
+     * The abstract interpretation of a method body. Variables map to their
+     * range, or to null if they may not hold an integer; names missing from
+     * the map are not local variables.
+     */
+    private static final class Analysis {
+
+        private final Map<Ast.Expr.Binary, Range> ranges = new IdentityHashMap<>();
+        private final Set<Ast.Expr.Binary> unknown = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private void method(Ast.Method method) {
+            Map<String, Range> variables = new HashMap<>();
+            for (String parameter : method.getParameters()) {
+                variables.put(parameter, null);
+            }
+            block(variables, method.getStatements());
+        }
+
+        private void annotate() {
+            for (Map.Entry<Ast.Expr.Binary, Range> entry : ranges.entrySet()) {
+                entry.getKey().setRange(entry.getValue());
+            }
+            for (Ast.Expr.Binary binary : unknown) {
+                binary.setRange(null);
+            }
+        }
+
+        /**
+         * Analyzes statements running in a scope of their own, returning the
+         * ranges of the variables of the enclosing scopes afterwards. A
+         * variable the statements declare may shadow (or, if declared in a
+         * branch, only sometimes shadow) one of the same name, so those keep
+         * the join of both ranges.
+         */
+        private Map<String, Range> block(Map<String, Range> variables, List<Ast.Stmt> statements) {
+            Map<String, Range> inner = new HashMap<>(variables);
+            for (Ast.Stmt statement : statements) {
+                statement(inner, statement);
+            }
+            Set<String> declared = new HashSet<>();
+            declared(statements, declared);
+            Map<String, Range> result = new HashMap<>();
+            for (Map.Entry<String, Range> entry : variables.entrySet()) {
+                Range range = inner.get(entry.getKey());
+                result.put(entry.getKey(), declared.contains(entry.getKey()) ? join(entry.getValue(), range) : range);
+            }
+            return result;
+        }
+
+        private void statement(Map<String, Range> variables, Ast.Stmt ast) {
+            if (ast instanceof Ast.Stmt.Expression) {
+                expression(variables, ((Ast.Stmt.Expression) ast).getExpression());
+            } else if (ast instanceof Ast.Stmt.Declaration) {
+                Ast.Stmt.Declaration declaration = (Ast.Stmt.Declaration) ast;
+                Range range = declaration.getValue().isPresent() ? expression(variables, declaration.getValue().get()) : null;
+                variables.put(declaration.getName(), range);
+            } else if (ast instanceof Ast.Stmt.Assignment) {
+                Ast.Stmt.Assignment assignment = (Ast.Stmt.Assignment) ast;
+                if (assignment.getReceiver() instanceof Ast.Expr.Access && ((Ast.Expr.Access) assignment.getReceiver()).getReceiver().isPresent()) {
+                    expression(variables, ((Ast.Expr.Access) assignment.getReceiver()).getReceiver().get());
+                }
+                Range range = expression(variables, assignment.getValue());
+                if (assignment.getReceiver() instanceof Ast.Expr.Access) {
+                    Ast.Expr.Access access = (Ast.Expr.Access) assignment.getReceiver();
+                    if (!access.getReceiver().isPresent() && variables.containsKey(access.getName())) {
+                        variables.put(access.getName(), range);
+                    }
+                }
+            } else if (ast instanceof Ast.Stmt.If) {
+                Ast.Stmt.If ifStmt = (Ast.Stmt.If) ast;
+                expression(variables, ifStmt.getCondition());
+                Map<String, Range> then = new HashMap<>(variables);
+                refine(then, ifStmt.getCondition(), true);
+                then = block(then, ifStmt.getThenStatements());
+                Map<String, Range> otherwise = new HashMap<>(variables);
+                refine(otherwise, ifStmt.getCondition(), false);
+                otherwise = block(otherwise, ifStmt.getElseStatements());
+                for (String name : variables.keySet()) {
+                    variables.put(name, join(then.get(name), otherwise.get(name)));
+                }
+            } else if (ast instanceof Ast.Stmt.For) {
+                Ast.Stmt.For forStmt = (Ast.Stmt.For) ast;
+                expression(variables, forStmt.getValue());
+                loop(variables, null, forStmt.getName(), forStmt.getStatements());
+            } else if (ast instanceof Ast.Stmt.While) {
+                Ast.Stmt.While whileStmt = (Ast.Stmt.While) ast;
+                loop(variables, whileStmt.getCondition(), null, whileStmt.getStatements());
+            } else if (ast instanceof Ast.Stmt.Return) {
+                expression(variables, ((Ast.Stmt.Return) ast).getValue());
+            }
+        }
+
+        /**
+         * Iterates a loop body to a fixpoint, leaving the variables as they
+         * are after the loop.
+         */
+        private void loop(Map<String, Range> variables, Ast.Expr condition, String name, List<Ast.Stmt> statements) {
+            Map<String, Range> head = new HashMap<>(variables);
+            while (true) {
+                Map<String, Range> body = new HashMap<>(head);
+                if (condition != null) {
+                    expression(body, condition);
+                    refine(body, condition, true);
+                }
+                if (name != null) {
+                    body.put(name, null);
+                }
+                Map<String, Range> out = block(body, statements);
+                Map<String, Range> next = new HashMap<>();
+                for (Map.Entry<String, Range> entry : head.entrySet()) {
+                    Range range = entry.getValue();
+                    Range after = out.get(entry.getKey());
+                    next.put(entry.getKey(), range == null || after == null ? null : range.widen(range.join(after)));
+                }
+                if (next.equals(head)) {
+                    break;
+                }
+                head = next;
+            }
+            if (condition != null) {
+                refine(head, condition, false);
+            }
+            variables.putAll(head);
+        }
+
+        private Range expression(Map<String, Range> variables, Ast.Expr ast) {
+            Range range = null;
+            if (ast instanceof Ast.Expr.Literal) {
+                Object literal = ((Ast.Expr.Literal) ast).getLiteral();
+                range = literal instanceof BigInteger ? of((BigInteger) literal) : null;
+            } else if (ast instanceof Ast.Expr.Group) {
+                range = expression(variables, ((Ast.Expr.Group) ast).getExpression());
+            } else if (ast instanceof Ast.Expr.Binary) {
+                range = binary(variables, (Ast.Expr.Binary) ast);
+            } else if (ast instanceof Ast.Expr.Access) {
+                Ast.Expr.Access access = (Ast.Expr.Access) ast;
+                if (access.getReceiver().isPresent()) {
+                    expression(variables, access.getReceiver().get());
+                } else {
+                    range = variables.get(access.getName());
+                }
+            } else if (ast instanceof Ast.Expr.Function) {
+                Ast.Expr.Function function = (Ast.Expr.Function) ast;
+                function.getReceiver().ifPresent(receiver -> expression(variables, receiver));
+                for (Ast.Expr argument : function.getArguments()) {
+                    expression(variables, argument);
+                }
+            }
+            return range == null && Ast.typeOf(ast) == Environment.Type.INTEGER ? ALL : range;
+        }
+
+        private Range binary(Map<String, Range> variables, Ast.Expr.Binary ast) {
+            Range left = expression(variables, ast.getLeft());
+            Range right = expression(variables, ast.getRight());
+            Range result = null;
+            if (left != null && right != null) {
+                switch (ast.getOperator()) {
+                    case "+": result = left.add(right); break;
+                    case "-": result = left.subtract(right); break;
+                    case "*": result = left.multiply(right); break;
+                    case "/": result = left.divide(right); break;
+                }
+            }
+            if (result == null) {
+                unknown.add(ast);
+                ranges.remove(ast);
+            } else if (!unknown.contains(ast)) {
+                Range covered = result.join(left).join(right);
+                ranges.put(ast, ranges.containsKey(ast) ? ranges.get(ast).join(covered) : covered);
+            }
+            return result;
+        }
+
+        /**
+         * Narrows the ranges of the local variables compared in a condition,
+         * given the value of the condition.
+         */
+        private void refine(Map<String, Range> variables, Ast.Expr condition, boolean value) {
+            if (condition instanceof Ast.Expr.Group) {
+                refine(variables, ((Ast.Expr.Group) condition).getExpression(), value);
+                return;
+            } else if (!(condition instanceof Ast.Expr.Binary)) {
+                return;
+            }
+            Ast.Expr.Binary binary = (Ast.Expr.Binary) condition;
+            String operator = binary.getOperator();
+            if (operator.equals("AND") && value || operator.equals("OR") && !value) {
+                refine(variables, binary.getLeft(), value);
+                refine(variables, binary.getRight(), value);
+            } else if (isLocal(variables, binary.getLeft())) {
+                narrow(variables, (Ast.Expr.Access) binary.getLeft(), operator, binary.getRight(), value);
+            } else if (isLocal(variables, binary.getRight())) {
+                narrow(variables, (Ast.Expr.Access) binary.getRight(), mirror(operator), binary.getLeft(), value);
+            }
+        }
+
+        /**
+         * Narrows a variable given that {@code variable operator bound} has
+         * the given value. Comparing against an integer fails unless the
+         * variable holds an integer too, so an unknown variable becomes one.
+         */
+        private void narrow(Map<String, Range> variables, Ast.Expr.Access variable, String operator, Ast.Expr bound, boolean value) {
+            Range range = expression(variables, bound);
+            if (range == null) {
+                return;
+            }
+            if (!value) {
+                operator = negate(operator);
+            }
+            BigInteger lower = range.lower;
+            BigInteger upper = range.upper;
+            Range narrowed;
+            switch (operator) {
+                case "<": narrowed = new Range(null, upper == null ? null : upper.subtract(BigInteger.ONE)); break;
+                case "<=": narrowed = new Range(null, upper); break;
+                case ">": narrowed = new Range(lower == null ? null : lower.add(BigInteger.ONE), null); break;
+                case ">=": narrowed = new Range(lower, null); break;
+                case "==": narrowed = range; break;
+                default: return;
+            }
+            Range current = variables.get(variable.getName());
+            variables.put(variable.getName(), (current == null ? ALL : current).intersect(narrowed));
+        }
+
+        private static boolean isLocal(Map<String, Range> variables, Ast.Expr ast) {
+            return ast instanceof Ast.Expr.Access && !((Ast.Expr.Access) ast).getReceiver().isPresent()
+                    && variables.containsKey(((Ast.Expr.Access) ast).getName());
+        }
+
+        private static String mirror(String operator) {
+            switch (operator) {
+                case "<": return ">";
+                case "<=": return ">=";
+                case ">": return "<";
+                case ">=": return "<=";
+                default: return operator;
+            }
+        }
+
+        private static String negate(String operator) {
+            switch (operator) {
+                case "<": return ">=";
+                case "<=": return ">";
+                case ">": return "<=";
+                case ">=": return "<";
+                case "==": return "!=";
+                case "!=": return "==";
+                default: return operator;
+            }
+        }
+
+        private static Range join(Range a, Range b) {
+            return a == null || b == null ? null : a.join(b);
+        }
+
+        private static void declared(List<Ast.Stmt> statements, Set<String> declared) {
+            for (Ast.Stmt statement : statements) {
+                if (statement instanceof Ast.Stmt.Declaration) {
+                    declared.add(((Ast.Stmt.Declaration) statement).getName());
+                } else if (statement instanceof Ast.Stmt.If) {
+                    declared(((Ast.Stmt.If) statement).getThenStatements(), declared);
+                    declared(((Ast.Stmt.If) statement).getElseStatements(), declared);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,261 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Assigns lexical addresses to variables, so the {@link Interpreter} can find
+ * them by position rather than by name. An address is the number of scopes to
+ * go up from the current one at runtime ({@code depth}) and the index of the
+ * variable in the order variables are defined in that scope ({@code slot}).
+ * Accesses without a receiver (including the receivers of assignments) are
+ * annotated with the address of the variable they refer to, and declarations
+ * with the address of the variable they define.
+ *
+ * The resolver mirrors the scopes created by the interpreter: the global scope
+ * holding the fields, one scope per method call holding the parameters, and
+ * one scope per iteration of a loop (holding the variable of a {@code FOR}).
+ * Branches of an {@code IF} run in the enclosing scope, so a declaration in a
+ * branch may or may not define its variable; such variables, and any defined
+ * after them in the same scope, are left unresolved. Variables not declared in
+ * the source, such as those defined by the caller of the interpreter, are left
+ * unresolved too, and unresolved variables are looked up by name.
+ *
+ * Methods and loops whose scopes can be elided (see {@link Capture}) get no
+ * frame, and are annotated with their capture so that the interpreter
+ * allocates exactly the scopes resolved here.
+ *
+ * Addresses depend on the position of a node in the tree, so they are not
+ * carried over by rewrites and sources must be resolved after optimizing.
+ * Nodes shared between several positions (as passes may do) are copied.
+ */
+public final class Resolver extends Rewriter {
+
+    private final Deque<Frame> frames = new ArrayDeque<>();
+    private final Set<Ast> resolved = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int branches = 0;
+
+    public static Ast.Source resolve(Ast.Source source) {
+        return (Ast.Source) new Resolver().visit(source);
+    }
+
+    @Override
+    public Ast visit(Ast.Source ast) {
+        frames.push(new Frame(branches));
+        try {
+            return super.visit(ast);
+        } finally {
+            frames.pop();
+        }
+    }
+
+    @Override
+    public Ast visit(Ast.Field ast) {
+        Ast result = super.visit(ast);
+        frames.peek().define(ast.getName(), branches);
+        return result;
+    }
+
+    @Override
+    public Ast visit(Ast.Method ast) {
+        Capture capture = Capture.of(ast);
+        if (capture == Capture.ELIDED) {
+            return captured((Ast.Method) super.visit(ast), capture);
+        }
+        frames.push(new Frame(branches));
+        try {
+            for (String parameter : ast.getParameters()) {
+                frames.peek().define(parameter, branches);
+            }
+            return captured((Ast.Method) super.visit(ast), capture);
+        } finally {
+            frames.pop();
+        }
+    }
+
+    private static Ast.Method captured(Ast.Method ast, Capture capture) {
+        ast.setCapture(capture);
+        return ast;
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.Declaration ast) {
+        Optional<Ast.Expr> value = visitOptional(ast.getValue());
+        int slot = frames.peek().define(ast.getName(), branches);
+        Ast.Stmt.Declaration result = ast;
+        if (value != ast.getValue() || !resolved.add(ast)) {
+            result = Ast.copyAnnotations(ast, new Ast.Stmt.Declaration(ast.getName(), ast.getTypeName(), value));
+            resolved.add(result);
+        }
+        result.setAddress(slot >= 0 ? new Address(0, slot) : null);
+        return result;
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.If ast) {
+        branches++;
+        try {
+            return super.visit(ast);
+        } finally {
+            branches--;
+        }
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.For ast) {
+        Ast.Expr value = (Ast.Expr) visit(ast.getValue());
+        frames.push(new Frame(branches));
+        List<Ast.Stmt> statements;
+        try {
+            frames.peek().define(ast.getName(), branches);
+            statements = visitStatements(ast.getStatements());
+        } finally {
+            frames.pop();
+        }
+        Ast.Stmt.For result = ast;
+        if (value != ast.getValue() || statements != ast.getStatements()) {
+            result = new Ast.Stmt.For(ast.getName(), value, statements);
+        }
+        result.setCapture(Capture.of(result));
+        return result;
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.While ast) {
+        // The condition is evaluated outside of the scope of each iteration.
+        Ast.Expr condition = (Ast.Expr) visit(ast.getCondition());
+        Capture capture = Capture.of(ast);
+        List<Ast.Stmt> statements;
+        if (capture == Capture.ELIDED) {
+            statements = visitStatements(ast.getStatements());
+        } else {
+            frames.push(new Frame(branches));
+            try {
+                statements = visitStatements(ast.getStatements());
+            } finally {
+                frames.pop();
+            }
+        }
+        Ast.Stmt.While result = ast;
+        if (condition != ast.getCondition() || statements != ast.getStatements()) {
+            result = new Ast.Stmt.While(condition, statements);
+        }
+        result.setCapture(capture);
+        return result;
+    }
+
+    @Override
+    public Ast visit(Ast.Expr.Access ast) {
+        if (ast.getReceiver().isPresent()) {
+            return super.visit(ast);
+        }
+        Ast.Expr.Access result = ast;
+        if (!resolved.add(ast)) {
+            result = Ast.copyAnnotations(ast, new Ast.Expr.Access(Optional.empty(), ast.getName()));
+            resolved.add(result);
+        }
+        result.setAddress(lookup(ast.getName()));
+        return result;
+    }
+
+    private Address lookup(String name) {
+        int depth = 0;
+        for (Frame frame : frames) {
+            if (frame.conditional.contains(name)) {
+                return null;
+            }
+            Integer slot = frame.slots.get(name);
+            if (slot != null) {
+                return slot >= 0 ? new Address(depth, slot) : null;
+            }
+            depth++;
+        }
+        return null;
+    }
+
+    /**
+     * The variables defined so far in a runtime scope.
+     */
+    private static final class Frame {
+
+        private final int branches;
+        private final Map<String, Integer> slots = new HashMap<>();
+        private final Set<String> conditional = new HashSet<>();
+        private int next = 0;
+        private boolean exact = true;
+
+        private Frame(int branches) {
+            this.branches = branches;
+        }
+
+        /**
+         * Defines a variable, returning its slot or -1 if it is not known.
+         */
+        private int define(String name, int branches) {
+            if (branches > this.branches) {
+                // The variable is only defined if the branch is taken, which
+                // also shifts the slots of the variables defined after it.
+                exact = false;
+                conditional.add(name);
+                return -1;
+            }
+            int slot = exact ? next++ : -1;
+            slots.put(name, slot);
+            return slot;
+        }
+
+    }
+
+    /**
+     * The position of a variable relative to the current scope.
+     */
+    public static final class Address {
+
+        private final int depth;
+        private final int slot;
+
+        public Address(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Address &&
+                    depth == ((Address) obj).depth &&
+                    slot == ((Address) obj).slot;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(depth, slot);
+        }
+
+        @Override
+        public String toString() {
+            return "Address{" +
+                    "depth=" + depth +
+                    ", slot=" + slot +
+                    '}';
+        }
+
+    }
+
+}
@@ -0,0 +1,275 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Base class for tree-to-tree transformations. Each visit method rewrites the
+ * children of a node and returns the node itself if nothing changed, or a new
+ * node carrying over the analyzer annotations of the original otherwise. This
+ * keeps unchanged subtrees shared (and their fingerprints cached) between the
+ * input and output trees.
+ *
+ * Subclasses override the visit methods for the nodes they transform, usually
+ * calling {@code super.visit} first to rewrite the children bottom-up, and call
+ * {@link #changed()} for every rewrite they perform. Like {@link Walker} this
+ * recurses on the Java stack; {@link Traversal.Rewrite} does not.
+ */
+public abstract class Rewriter implements Ast.Visitor<Ast> {
+
+    private int changes = 0;
+
+    /**
+     * Returns the number of rewrites recorded with {@link #changed()}.
+     */
+    public int getChanges() {
+        return changes;
+    }
+
+    protected void changed() {
+        changes++;
+    }
+
+    @Override
+    public Ast visit(Ast.Source ast) {
+        List<Ast.Field> fields = visitAll(ast.getFields());
+        List<Ast.Method> methods = visitAll(ast.getMethods());
+        if (fields == ast.getFields() && methods == ast.getMethods()) {
+            return ast;
+        }
+        return new Ast.Source(fields, methods);
+    }
+
+    @Override
+    public Ast visit(Ast.Field ast) {
+        Optional<Ast.Expr> value = visitOptional(ast.getValue());
+        if (value == ast.getValue()) {
+            return ast;
+        }
+        return Ast.copyAnnotations(ast, new Ast.Field(ast.getName(), ast.getTypeName(), value));
+    }
+
+    @Override
+    public Ast visit(Ast.Method ast) {
+        List<Ast.Stmt> statements = visitStatements(ast.getStatements());
+        if (statements == ast.getStatements()) {
+            return ast;
+        }
+        return Ast.copyAnnotations(ast, new Ast.Method(ast.getName(), ast.getParameters(), ast.getParameterTypeNames(), ast.getReturnTypeName(), statements));
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.Expression ast) {
+        Ast.Expr expression = (Ast.Expr) visit(ast.getExpression());
+        if (expression == ast.getExpression()) {
+            return ast;
+        }
+        return new Ast.Stmt.Expression(expression);
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.Declaration ast) {
+        Optional<Ast.Expr> value = visitOptional(ast.getValue());
+        if (value == ast.getValue()) {
+            return ast;
+        }
+        return Ast.copyAnnotations(ast, new Ast.Stmt.Declaration(ast.getName(), ast.getTypeName(), value));
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.Assignment ast) {
+        Ast.Expr receiver = (Ast.Expr) visit(ast.getReceiver());
+        Ast.Expr value = (Ast.Expr) visit(ast.getValue());
+        if (receiver == ast.getReceiver() && value == ast.getValue()) {
+            return ast;
+        }
+        return new Ast.Stmt.Assignment(receiver, value);
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.If ast) {
+        Ast.Expr condition = (Ast.Expr) visit(ast.getCondition());
+        List<Ast.Stmt> thenStatements = visitStatements(ast.getThenStatements());
+        List<Ast.Stmt> elseStatements = visitStatements(ast.getElseStatements());
+        if (condition == ast.getCondition() && thenStatements == ast.getThenStatements() && elseStatements == ast.getElseStatements()) {
+            return ast;
+        }
+        return new Ast.Stmt.If(condition, thenStatements, elseStatements);
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.For ast) {
+        Ast.Expr value = (Ast.Expr) visit(ast.getValue());
+        List<Ast.Stmt> statements = visitStatements(ast.getStatements());
+        if (value == ast.getValue() && statements == ast.getStatements()) {
+            return ast;
+        }
+        return new Ast.Stmt.For(ast.getName(), value, statements);
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.While ast) {
+        Ast.Expr condition = (Ast.Expr) visit(ast.getCondition());
+        List<Ast.Stmt> statements = visitStatements(ast.getStatements());
+        if (condition == ast.getCondition() && statements == ast.getStatements()) {
+            return ast;
+        }
+        return new Ast.Stmt.While(condition, statements);
+    }
+
+    @Override
+    public Ast visit(Ast.Stmt.Return ast) {
+        Ast.Expr value = (Ast.Expr) visit(ast.getValue());
+        if (value == ast.getValue()) {
+            return ast;
+        }
+        return new Ast.Stmt.Return(value);
+    }
+
+    @Override
+    public Ast visit(Ast.Expr.Literal ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast visit(Ast.Expr.Group ast) {
+        Ast.Expr expression = (Ast.Expr) visit(ast.getExpression());
+        if (expression == ast.getExpression()) {
+            return ast;
+        }
+        return Ast.copyAnnotations(ast, new Ast.Expr.Group(expression));
+    }
+
+    @Override
+    public Ast visit(Ast.Expr.Binary ast) {
+        Ast.Expr left = (Ast.Expr) visit(ast.getLeft());
+        Ast.Expr right = (Ast.Expr) visit(ast.getRight());
+        if (left == ast.getLeft() && right == ast.getRight()) {
+            return ast;
+        }
+        return Ast.copyAnnotations(ast, new Ast.Expr.Binary(ast.getOperator(), left, right));
+    }
+
+    @Override
+    public Ast visit(Ast.Expr.Access ast) {
+        Optional<Ast.Expr> receiver = visitOptional(ast.getReceiver());
+        if (receiver == ast.getReceiver()) {
+            return ast;
+        }
+        return Ast.copyAnnotations(ast, new Ast.Expr.Access(receiver, ast.getName()));
+    }
+
+    @Override
+    public Ast visit(Ast.Expr.Function ast) {
+        Optional<Ast.Expr> receiver = visitOptional(ast.getReceiver());
+        List<Ast.Expr> arguments = visitAll(ast.getArguments());
+        if (receiver == ast.getReceiver() && arguments == ast.getArguments()) {
+            return ast;
+        }
+        return Ast.copyAnnotations(ast, new Ast.Expr.Function(receiver, ast.getName(), arguments));
+    }
+
+    /**
+     * Rewrites a statement list. Subclasses may override this to replace one
+     * statement with several (or none), such as when splicing a branch into
+     * the enclosing block. Returns the original list if nothing changed.
+     */
+    protected List<Ast.Stmt> visitStatements(List<Ast.Stmt> statements) {
+        return visitAll(statements);
+    }
+
+    /**
+     * Rewrites each element of the list, returning the original list if every
+     * element was returned unchanged.
+     */
+    @SuppressWarnings("unchecked")
+    protected <T extends Ast> List<T> visitAll(List<T> asts) {
+        List<T> result = null;
+        for (int i = 0; i < asts.size(); i++) {
+            T rewritten = (T) visit(asts.get(i));
+            if (result == null && rewritten != asts.get(i)) {
+                result = new ArrayList<>(asts.subList(0, i));
+            }
+            if (result != null) {
+                result.add(rewritten);
+            }
+        }
+        return result == null ? asts : result;
+    }
+
+    protected Optional<Ast.Expr> visitOptional(Optional<Ast.Expr> expr) {
+        if (!expr.isPresent()) {
+            return expr;
+        }
+        Ast.Expr rewritten = (Ast.Expr) visit(expr.get());
+        return rewritten == expr.get() ? expr : Optional.of(rewritten);
+    }
+
+    /**
+     * Creates a literal for a value computed at compile time, typed if the
+     * expression it replaces was typed by the analyzer.
+     */
+    protected static Ast.Expr.Literal literal(Object value, Ast.Expr replaced) {
+        Ast.Expr.Literal literal = new Ast.Expr.Literal(value);
+        if (Ast.typeOf(replaced) != null) {
+            literal.setType(literalType(value));
+        }
+        return literal;
+    }
+
+    /**
+     * Returns the type the analyzer assigns to a literal with this value.
+     */
+    protected static Environment.Type literalType(Object value) {
+        if (value == null) {
+            return Environment.Type.NIL;
+        } else if (value instanceof Boolean) {
+            return Environment.Type.BOOLEAN;
+        } else if (value instanceof BigInteger) {
+            return Environment.Type.INTEGER;
+        } else if (value instanceof BigDecimal) {
+            return Environment.Type.DECIMAL;
+        } else if (value instanceof Character) {
+            return Environment.Type.CHARACTER;
+        } else if (value instanceof String) {
+            return Environment.Type.STRING;
+        }
+        throw new AssertionError("Unexpected literal type: " + value.getClass().getName() + ".");
+    }
+
+    /**
+     * Returns true if evaluating the expression cannot have side effects, call
+     * into user code or divide by zero, so it may be removed or evaluated fewer
+     * times.
+     */
+    protected static boolean isSideEffectFree(Ast.Expr expr) {
+        if (expr instanceof Ast.Expr.Literal) {
+            return true;
+        } else if (expr instanceof Ast.Expr.Group) {
+            return isSideEffectFree(((Ast.Expr.Group) expr).getExpression());
+        } else if (expr instanceof Ast.Expr.Binary) {
+            Ast.Expr.Binary binary = (Ast.Expr.Binary) expr;
+            if (binary.getOperator().equals("/") && !isNonZeroLiteral(binary.getRight())) {
+                return false;
+            }
+            return isSideEffectFree(binary.getLeft()) && isSideEffectFree(binary.getRight());
+        } else if (expr instanceof Ast.Expr.Access) {
+            Optional<Ast.Expr> receiver = ((Ast.Expr.Access) expr).getReceiver();
+            return !receiver.isPresent() || isSideEffectFree(receiver.get());
+        }
+        return false;
+    }
+
+    private static boolean isNonZeroLiteral(Ast.Expr expr) {
+        if (!(expr instanceof Ast.Expr.Literal)) {
+            return false;
+        }
+        Object literal = ((Ast.Expr.Literal) expr).getLiteral();
+        return literal instanceof BigInteger && ((BigInteger) literal).signum() != 0
+                || literal instanceof BigDecimal && ((BigDecimal) literal).signum() != 0;
+    }
+
+}
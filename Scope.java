@@ -1,19 +1,35 @@
 package plc.project;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 
 public final class Scope {
 
     private final Scope parent;
     private final Map<String, Environment.Variable> variables = new HashMap<>();
+    private final List<Environment.Variable> slots = new ArrayList<>();
     private final Map<String, Environment.Function> functions = new HashMap<>();
+    private final Set<String> hiddenFunctions;
+    private volatile int version = 0;
 
     public Scope(Scope parent) {
+        this(parent, Collections.emptySet());
+    }
+
+    /**
+     * Creates a scope in which the given {@code name/arity} functions of the
+     * parent scope are hidden, as if they were not defined yet. Lookups of a
+     * hidden function continue from the parent of the parent.
+     */
+    Scope(Scope parent, Set<String> hiddenFunctions) {
         this.parent = parent;
+        this.hiddenFunctions = hiddenFunctions;
     }
 
     public Scope getParent() {
@@ -30,7 +46,8 @@ public final class Scope {
         } else {
             Environment.Variable variable = new Environment.Variable(name, jvmName, type, value);
             variables.put(variable.getName(), variable);
-            return variables.get(name);
+            slots.add(variable);
+            return variable;
         }
     }
 
@@ -44,6 +61,27 @@ public final class Scope {
         }
     }
 
+    /**
+     * Looks up a variable by its address from the {@link Resolver}: the
+     * {@code slot}-th variable defined in the scope {@code depth} levels up.
+     * Falls back to looking the variable up by name if the address does not
+     * hold a variable with that name, such as when variables were defined in
+     * a scope before the resolved source was run.
+     */
+    public Environment.Variable lookupVariable(String name, int depth, int slot) {
+        Scope scope = this;
+        for (int i = 0; i < depth && scope != null; i++) {
+            scope = scope.parent;
+        }
+        if (scope != null && slot < scope.slots.size()) {
+            Environment.Variable variable = scope.slots.get(slot);
+            if (variable.getName().equals(name)) {
+                return variable;
+            }
+        }
+        return lookupVariable(name);
+    }
+
     public void defineFunction(String name, int arity, Function<List<Environment.PlcObject>, Environment.PlcObject> function) {
         List<Environment.Type> parameterTypes = new ArrayList<>();
         for (int i = 0; i < arity; i++) {
@@ -58,20 +96,50 @@ public final class Scope {
         } else {
             Environment.Function func = new Environment.Function(name, jvmName, parameterTypes, returnType, function);
             functions.put(func.getName() + "/" + func.getParameterTypes().size(), func);
+            version++;
             return func;
         }
     }
 
     public Environment.Function lookupFunction(String name, int arity) {
+        Scope next = parent != null && hiddenFunctions.contains(name + "/" + arity) ? parent.parent : parent;
         if (functions.containsKey(name + "/" + arity)) {
             return functions.get(name + "/" + arity);
-        } else if (parent != null) {
-            return parent.lookupFunction(name, arity);
+        } else if (next != null) {
+            return next.lookupFunction(name, arity);
         } else {
             throw new RuntimeException("The function " + name + "/" + arity + " is not defined in this scope.");
         }
     }
 
+    /**
+     * Removes the variables and functions defined in this scope, so that it
+     * can be reused where a fresh scope with the same parent is expected.
+     */
+    void clear() {
+        variables.clear();
+        slots.clear();
+        if (!functions.isEmpty()) {
+            functions.clear();
+            version++;
+        }
+    }
+
+    /**
+     * Returns the functions defined in this scope itself (not its parents).
+     */
+    Collection<Environment.Function> getFunctions() {
+        return Collections.unmodifiableCollection(functions.values());
+    }
+
+    /**
+     * Returns a counter incremented whenever a function is defined in this
+     * scope, which lets caches of its functions detect changes.
+     */
+    int getVersion() {
+        return version;
+    }
+
     @Override
     public String toString() {
         return "Scope{" +
@@ -0,0 +1,448 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Builds the {@link Ir.Function} of an analyzed {@link Ast.Method}, keeping
+ * the value each local is bound to while walking the statements and placing
+ * phi nodes where branches join and at the headers of loops. The phi nodes of
+ * a header are placed up front, for every local the loop may assign, and
+ * those that turn out to merge a single value are removed again.
+ *
+ * Methods are not built, and {@link #of} returns empty, if they are not
+ * analyzed or use a construct the IR does not represent:
+ *
+ *  - {@code FOR} loops, which iterate over values only known at runtime
+ *  - {@code AND} and {@code OR} whose right operand is not a literal or a
+ *    read of a local, since the IR always evaluates both operands while the
+ *    {@link Interpreter} and the {@link Generator} skip the right one, which
+ *    may fail (on a NIL operand, for instance) where it is not evaluated
+ *  - declarations in a branch of an {@code IF} of a name already defined in
+ *    the scope the branch runs in (see {@link Capture}), which the
+ *    {@link Interpreter} rejects when it runs them
+ */
+public final class SsaConstruction {
+
+    private final Ir.Function function;
+    private final Deque<Map<String, Local>> scopes = new ArrayDeque<>();
+    private Map<Local, Ir.Value> values = new LinkedHashMap<>();
+    private Ir.Block current;
+    private List<Ir.Region> regions;
+
+    private SsaConstruction(Ast.Method method) {
+        this.function = new Ir.Function(method);
+    }
+
+    public static Optional<Ir.Function> of(Ast.Method method) {
+        Environment.Function signature = Ast.functionOf(method);
+        if (signature == null || !supported(method)) {
+            return Optional.empty();
+        }
+        SsaConstruction construction = new SsaConstruction(method);
+        construction.build(signature);
+        return Optional.of(construction.function);
+    }
+
+    private void build(Environment.Function signature) {
+        Ast.Method method = function.getMethod();
+        scopes.push(new HashMap<>());
+        for (int i = 0; i < method.getParameters().size(); i++) {
+            String name = method.getParameters().get(i);
+            Ir.Parameter parameter = new Ir.Parameter(name, i, signature.getParameterTypes().get(i));
+            parameter.setHint(name);
+            function.getParameters().add(parameter);
+            values.put(declare(name, parameter.getType()), parameter);
+        }
+        current = function.newBlock();
+        regions = function.getBody();
+        regions.add(new Ir.Region.Straight(current));
+        statements(method.getStatements());
+        if (current != null) {
+            current.terminate(new Ir.Terminator.Return(Optional.empty()));
+        }
+        removeTrivialPhis();
+    }
+
+    /**
+     * Builds the statements in a scope of their own, stopping once control
+     * cannot reach the next one.
+     */
+    private void statements(List<Ast.Stmt> statements) {
+        scopes.push(new HashMap<>());
+        for (Ast.Stmt statement : statements) {
+            if (current == null) {
+                break;
+            }
+            statement(statement);
+        }
+        scopes.pop();
+    }
+
+    private void statement(Ast.Stmt statement) {
+        if (statement instanceof Ast.Stmt.Expression) {
+            expression(((Ast.Stmt.Expression) statement).getExpression());
+        } else if (statement instanceof Ast.Stmt.Declaration) {
+            Ast.Stmt.Declaration declaration = (Ast.Stmt.Declaration) statement;
+            Environment.Variable variable = declaration.getVariable();
+            Ir.Value value = declaration.getValue().isPresent()
+                    ? expression(declaration.getValue().get())
+                    : new Ir.Constant(null, Environment.Type.NIL);
+            values.put(declare(declaration.getName(), variable.getType()), bind(value, declaration.getName(), variable.getType()));
+        } else if (statement instanceof Ast.Stmt.Assignment) {
+            assignment((Ast.Stmt.Assignment) statement);
+        } else if (statement instanceof Ast.Stmt.If) {
+            conditional((Ast.Stmt.If) statement);
+        } else if (statement instanceof Ast.Stmt.While) {
+            loop((Ast.Stmt.While) statement);
+        } else if (statement instanceof Ast.Stmt.Return) {
+            Ir.Value value = expression(((Ast.Stmt.Return) statement).getValue());
+            current.terminate(new Ir.Terminator.Return(Optional.of(value)));
+            current = null;
+        } else {
+            throw new AssertionError("Unexpected statement: " + statement.getClass().getSimpleName() + ".");
+        }
+    }
+
+    private void assignment(Ast.Stmt.Assignment assignment) {
+        Ast.Expr.Access receiver = (Ast.Expr.Access) assignment.getReceiver();
+        if (receiver.getReceiver().isPresent()) {
+            Ir.Value object = expression(receiver.getReceiver().get());
+            Ir.Value value = expression(assignment.getValue());
+            append(new Ir.StoreField(object, receiver.getVariable(), value));
+            return;
+        }
+        Local local = lookup(receiver.getName());
+        Ir.Value value = expression(assignment.getValue());
+        if (local == null) {
+            append(new Ir.StoreGlobal(receiver.getVariable(), value));
+        } else {
+            values.put(local, bind(value, local.name, local.type));
+        }
+    }
+
+    /**
+     * Returns the value a local is bound to: the value itself if it was not
+     * bound yet, else a copy.
+     */
+    private Ir.Value bind(Ir.Value value, String name, Environment.Type type) {
+        if (!value.getHint().isPresent()) {
+            value.setHint(name);
+            return value;
+        }
+        Ir.Copy copy = new Ir.Copy(value, type);
+        copy.setHint(name);
+        return append(copy);
+    }
+
+    private void conditional(Ast.Stmt.If statement) {
+        Ir.Value condition = expression(statement.getCondition());
+        Ir.Region.Conditional region = new Ir.Region.Conditional(current);
+        Ir.Block then = function.newBlock();
+        Ir.Block otherwise = function.newBlock();
+        current.terminate(new Ir.Terminator.Branch(condition, then, otherwise));
+        regions.add(region);
+
+        List<Ir.Region> enclosing = regions;
+        Map<Local, Ir.Value> before = values;
+        Map<Ir.Block, Map<Local, Ir.Value>> ends = new LinkedHashMap<>();
+        branch(then, region.getThenRegions(), statement.getThenStatements(), before, ends);
+        branch(otherwise, region.getElseRegions(), statement.getElseStatements(), before, ends);
+        regions = enclosing;
+        values = new LinkedHashMap<>(before);
+        if (ends.isEmpty()) {
+            current = null;
+            return;
+        }
+
+        Ir.Block join = function.newBlock();
+        region.setJoin(join);
+        for (Ir.Block end : ends.keySet()) {
+            end.terminate(new Ir.Terminator.Jump(join));
+        }
+        for (Local local : before.keySet()) {
+            Set<Ir.Value> incoming = new HashSet<>();
+            for (Map<Local, Ir.Value> end : ends.values()) {
+                incoming.add(end.get(local));
+            }
+            if (incoming.size() == 1) {
+                values.put(local, incoming.iterator().next());
+                continue;
+            }
+            Ir.Phi phi = new Ir.Phi(join, local.type);
+            phi.setHint(local.name);
+            for (Map.Entry<Ir.Block, Map<Local, Ir.Value>> end : ends.entrySet()) {
+                phi.addIncoming(end.getKey(), end.getValue().get(local));
+            }
+            join.getPhis().add(phi);
+            values.put(local, phi);
+        }
+        current = join;
+        regions.add(new Ir.Region.Straight(join));
+    }
+
+    /**
+     * Builds a branch of a conditional, recording the values of the locals at
+     * its end if control reaches it.
+     */
+    private void branch(Ir.Block entry, List<Ir.Region> regions, List<Ast.Stmt> statements,
+                        Map<Local, Ir.Value> before, Map<Ir.Block, Map<Local, Ir.Value>> ends) {
+        this.regions = regions;
+        this.values = new LinkedHashMap<>(before);
+        current = entry;
+        regions.add(new Ir.Region.Straight(entry));
+        statements(statements);
+        if (current != null) {
+            ends.put(current, values);
+        }
+    }
+
+    private void loop(Ast.Stmt.While statement) {
+        Ir.Block header = function.newBlock();
+        current.terminate(new Ir.Terminator.Jump(header));
+        Map<Local, Ir.Phi> phis = new LinkedHashMap<>();
+        for (String name : assigned(statement)) {
+            Local local = lookup(name);
+            if (local != null && !phis.containsKey(local)) {
+                Ir.Phi phi = new Ir.Phi(header, local.type);
+                phi.setHint(local.name);
+                phi.addIncoming(current, values.get(local));
+                header.getPhis().add(phi);
+                phis.put(local, phi);
+                values.put(local, phi);
+            }
+        }
+        Ir.Region.Loop region = new Ir.Region.Loop(header);
+        regions.add(region);
+
+        current = header;
+        Ir.Value condition = expression(statement.getCondition());
+        Ir.Block body = function.newBlock();
+        Ir.Block exit = function.newBlock();
+        header.terminate(new Ir.Terminator.Branch(condition, body, exit));
+        Map<Local, Ir.Value> atHeader = values;
+
+        List<Ir.Region> enclosing = regions;
+        regions = region.getBody();
+        values = new LinkedHashMap<>(atHeader);
+        current = body;
+        regions.add(new Ir.Region.Straight(body));
+        statements(statement.getStatements());
+        if (current != null) {
+            Ir.Block latch = current;
+            latch.terminate(new Ir.Terminator.Jump(header));
+            for (Map.Entry<Local, Ir.Phi> phi : phis.entrySet()) {
+                phi.getValue().addIncoming(latch, values.get(phi.getKey()));
+            }
+        }
+
+        regions = enclosing;
+        values = atHeader;
+        region.setExit(exit);
+        current = exit;
+        regions.add(new Ir.Region.Straight(exit));
+    }
+
+    /**
+     * Returns the names the loop assigns without a receiver, which may be
+     * locals declared outside of it.
+     */
+    private static Set<String> assigned(Ast.Stmt.While loop) {
+        Set<String> names = new LinkedHashSet<>();
+        new Traversal.Walk() {
+
+            @Override
+            protected boolean enter(Ast ast) {
+                if (ast instanceof Ast.Stmt.Assignment && Induction.variable(((Ast.Stmt.Assignment) ast).getReceiver()) != null) {
+                    names.add(Induction.variable(((Ast.Stmt.Assignment) ast).getReceiver()));
+                }
+                return !(ast instanceof Ast.Expr);
+            }
+
+        }.walk(loop);
+        return names;
+    }
+
+    private Ir.Value expression(Ast.Expr expr) {
+        if (expr instanceof Ast.Expr.Literal) {
+            Ast.Expr.Literal literal = (Ast.Expr.Literal) expr;
+            return new Ir.Constant(literal.getLiteral(), literal.getType());
+        } else if (expr instanceof Ast.Expr.Group) {
+            return expression(((Ast.Expr.Group) expr).getExpression());
+        } else if (expr instanceof Ast.Expr.Binary) {
+            Ast.Expr.Binary binary = (Ast.Expr.Binary) expr;
+            Ir.Value left = expression(binary.getLeft());
+            Ir.Value right = expression(binary.getRight());
+            return append(new Ir.Binary(binary.getOperator(), binary.getOperation().orElse(null), binary.getRange().orElse(null),
+                    left, right, binary.getType()));
+        } else if (expr instanceof Ast.Expr.Access) {
+            Ast.Expr.Access access = (Ast.Expr.Access) expr;
+            if (access.getReceiver().isPresent()) {
+                return append(new Ir.LoadField(expression(access.getReceiver().get()), access.getVariable()));
+            }
+            Local local = lookup(access.getName());
+            return local != null ? values.get(local) : append(new Ir.LoadGlobal(access.getVariable()));
+        } else if (expr instanceof Ast.Expr.Function) {
+            Ast.Expr.Function call = (Ast.Expr.Function) expr;
+            List<Ir.Value> operands = new ArrayList<>();
+            for (Ast.Expr argument : call.getArguments()) {
+                operands.add(expression(argument));
+            }
+            if (call.getReceiver().isPresent()) {
+                operands.add(expression(call.getReceiver().get()));
+            }
+            return append(new Ir.Call(call.getName(), call.getFunction(), call.getReceiver().isPresent(), operands));
+        }
+        throw new AssertionError("Unexpected expression: " + expr.getClass().getSimpleName() + ".");
+    }
+
+    private <T extends Ir.Value> T append(T instruction) {
+        current.getInstructions().add(instruction);
+        return instruction;
+    }
+
+    private Local declare(String name, Environment.Type type) {
+        Local local = new Local(name, type);
+        scopes.peek().put(name, local);
+        return local;
+    }
+
+    private Local lookup(String name) {
+        for (Map<String, Local> scope : scopes) {
+            if (scope.containsKey(name)) {
+                return scope.get(name);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the phi nodes merging a single value besides themselves, such
+     * as those of loops that do not assign the local after all.
+     */
+    private void removeTrivialPhis() {
+        Map<Ir.Value, Ir.Value> replacements = new HashMap<>();
+        boolean removed;
+        do {
+            removed = false;
+            for (Ir.Block block : function.getBlocks()) {
+                for (Ir.Phi phi : new ArrayList<>(block.getPhis())) {
+                    Ir.Value value = trivial(phi, replacements);
+                    if (value != null) {
+                        replacements.put(phi, value);
+                        block.getPhis().remove(phi);
+                        removed = true;
+                    }
+                }
+            }
+        } while (removed);
+        function.replace(replacements);
+    }
+
+    /**
+     * Returns the only value the phi merges besides itself, given the
+     * replacements made so far, or null if it merges several.
+     */
+    static Ir.Value trivial(Ir.Phi phi, Map<Ir.Value, Ir.Value> replacements) {
+        Ir.Value value = null;
+        for (Ir.Value operand : phi.getOperands()) {
+            while (replacements.containsKey(operand)) {
+                operand = replacements.get(operand);
+            }
+            if (operand != phi && operand != value) {
+                if (value != null) {
+                    return null;
+                }
+                value = operand;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns true if the method only uses constructs the IR represents.
+     */
+    private static boolean supported(Ast.Method method) {
+        if (!declaresOnce(method.getStatements(), new HashSet<>(method.getParameters()))) {
+            return false;
+        }
+        boolean[] supported = {true};
+        Traversal.Walk walk = new Traversal.Walk() {
+
+            @Override
+            protected boolean enter(Ast ast) {
+                if (ast instanceof Ast.Stmt.For) {
+                    supported[0] = false;
+                } else if (ast instanceof Ast.Expr.Binary && isLogical((Ast.Expr.Binary) ast) && !isSimple(((Ast.Expr.Binary) ast).getRight())) {
+                    supported[0] = false;
+                }
+                return supported[0];
+            }
+
+        };
+        for (Ast.Stmt statement : method.getStatements()) {
+            walk.walk(statement);
+        }
+        return supported[0];
+    }
+
+    /**
+     * Returns true if the statements declare each name once in the scope
+     * they run in, given the names already defined in it.
+     */
+    private static boolean declaresOnce(List<Ast.Stmt> statements, Set<String> defined) {
+        for (Ast.Stmt statement : statements) {
+            if (statement instanceof Ast.Stmt.Declaration && !defined.add(((Ast.Stmt.Declaration) statement).getName())) {
+                return false;
+            } else if (statement instanceof Ast.Stmt.If && (!declaresOnce(((Ast.Stmt.If) statement).getThenStatements(), defined)
+                    || !declaresOnce(((Ast.Stmt.If) statement).getElseStatements(), defined))) {
+                return false;
+            } else if (statement instanceof Ast.Stmt.While && !declaresOnce(((Ast.Stmt.While) statement).getStatements(), new HashSet<>())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLogical(Ast.Expr.Binary binary) {
+        return binary.getOperator().equals("AND") || binary.getOperator().equals("OR");
+    }
+
+    /**
+     * Returns true if evaluating the expression cannot fail, which holds for
+     * literals and reads of locals but not for operators, whose operands may
+     * be NIL.
+     */
+    private static boolean isSimple(Ast.Expr expr) {
+        if (expr instanceof Ast.Expr.Group) {
+            return isSimple(((Ast.Expr.Group) expr).getExpression());
+        }
+        return expr instanceof Ast.Expr.Literal || expr instanceof Ast.Expr.Access && !((Ast.Expr.Access) expr).getReceiver().isPresent();
+    }
+
+    /**
+     * A local of the method, distinct from the locals of the same name it
+     * shadows or that shadow it.
+     */
+    private static final class Local {
+
+        private final String name;
+        private final Environment.Type type;
+
+        private Local(String name, Environment.Type type) {
+            this.name = name;
+            this.type = type;
+        }
+
+    }
+
+}
@@ -0,0 +1,558 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Turns an {@link Ir.Function} back into an analyzed {@link Ast.Method},
+ * following its regions to emit {@code IF} and {@code WHILE} statements.
+ *
+ * Values used once, in the block defining them, are emitted as part of the
+ * expression using them, as long as that keeps the order in which the source
+ * had effects, read globals and fields, and could fail. Other values are
+ * declared as variables with fresh names from {@link Names}, after the local
+ * they were bound to. Phi nodes become variables as well, assigned at the end
+ * of each predecessor: before an {@code IF} they are declared without a value
+ * and assigned at the end of the branches, and before a {@code WHILE} they
+ * are declared with the value from before the loop and assigned at the end of
+ * the body. The instructions of the header of a loop run before the loop and
+ * again at the end of its body, so that the condition can use them.
+ *
+ * A phi node shares the variable of a parameter or phi node bound to the same
+ * local if that value is only used by the phi node, comes from before the
+ * loop or the {@code IF} and is declared in a scope enclosing it, so that
+ * {@code n = n - 1} in a loop stays an assignment to {@code n} instead of a
+ * copy of it. The value is then no longer needed when the variable is
+ * assigned, and the assignments from it are left out.
+ *
+ * Names are only chosen to avoid the given globals and the parameters of the
+ * method, so destroying the same function twice gives equal methods.
+ */
+public final class SsaDestruction {
+
+    private final Names names;
+    private final Map<Ir.Value, Integer> uses;
+    private final Map<Ir.Value, Ir.Block> definitions = new HashMap<>();
+    private final Map<Ir.Value, Ir.Block> locations = new HashMap<>();
+    private final Map<Ir.Value, Environment.Variable> variables = new HashMap<>();
+    private final Set<Ir.Phi> declared = new HashSet<>();
+    private final Map<Ir.Block, List<Ast.Stmt>> headers = new HashMap<>();
+    private final Map<Ir.Value, Ir.Value> coalesced = new HashMap<>();
+    private final Map<Ir.Block, List<Ir.Region>> scopes = new HashMap<>();
+    private final Map<List<Ir.Region>, List<Ir.Region>> parents = new IdentityHashMap<>();
+    private final Set<Ir.Block> loops = new HashSet<>();
+
+    private SsaDestruction(Ir.Function function, Collection<String> globals) {
+        Set<String> avoided = new HashSet<>(globals);
+        avoided.addAll(function.getMethod().getParameters());
+        this.uses = function.uses();
+        for (Ir.Block block : function.getBlocks()) {
+            for (Ir.Phi phi : block.getPhis()) {
+                definitions.put(phi, block);
+            }
+            for (Ir.Value instruction : block.getInstructions()) {
+                definitions.put(instruction, block);
+                if (instruction instanceof Ir.LoadGlobal) {
+                    avoided.add(((Ir.LoadGlobal) instruction).getVariable().getName());
+                } else if (instruction instanceof Ir.StoreGlobal) {
+                    avoided.add(((Ir.StoreGlobal) instruction).getVariable().getName());
+                }
+                for (Ir.Value operand : instruction.getOperands()) {
+                    locations.put(operand, block);
+                }
+            }
+            if (block.getTerminator() != null) {
+                for (Ir.Value operand : block.getTerminator().getOperands()) {
+                    locations.put(operand, block);
+                }
+                // Phi operands are used at the end of the predecessor.
+                for (Ir.Block successor : block.getTerminator().getSuccessors()) {
+                    for (Ir.Phi phi : successor.getPhis()) {
+                        phi.getIncoming(block).ifPresent(value -> locations.put(value, block));
+                    }
+                }
+            }
+        }
+        this.names = Names.of(avoided);
+        scopes(function.getBody(), null);
+        coalesce(function);
+    }
+
+    /**
+     * Records the regions the phi nodes of each join and loop header are
+     * declared in, which are those holding the {@code IF} or {@code WHILE}.
+     */
+    private void scopes(List<Ir.Region> regions, List<Ir.Region> parent) {
+        parents.put(regions, parent);
+        for (Ir.Region region : regions) {
+            if (region instanceof Ir.Region.Conditional) {
+                Ir.Region.Conditional conditional = (Ir.Region.Conditional) region;
+                conditional.getJoin().ifPresent(join -> scopes.put(join, regions));
+                scopes(conditional.getThenRegions(), regions);
+                scopes(conditional.getElseRegions(), regions);
+            } else if (region instanceof Ir.Region.Loop) {
+                Ir.Region.Loop loop = (Ir.Region.Loop) region;
+                scopes.put(loop.getHeader(), regions);
+                loops.add(loop.getHeader());
+                scopes(loop.getBody(), regions);
+            }
+        }
+    }
+
+    /**
+     * Lets phi nodes share the variable of a value they merge, considering
+     * only the value from before the loop for the header of a loop, whose
+     * first predecessor is the block entering it.
+     */
+    private void coalesce(Ir.Function function) {
+        for (Ir.Block block : function.getBlocks()) {
+            List<Ir.Region> scope = scopes.get(block);
+            if (scope == null) {
+                continue;
+            }
+            List<Ir.Block> predecessors = loops.contains(block)
+                    ? block.getPredecessors().subList(0, 1)
+                    : block.getPredecessors();
+            for (Ir.Phi phi : block.getPhis()) {
+                String local = local(phi);
+                for (Ir.Block predecessor : predecessors) {
+                    Ir.Value value = phi.getIncoming(predecessor).get();
+                    List<Ir.Region> outer = value instanceof Ir.Parameter ? function.getBody()
+                            : value instanceof Ir.Phi && ((Ir.Phi) value).getBlock() != block ? scopes.get(((Ir.Phi) value).getBlock())
+                            : null;
+                    if (outer != null && encloses(outer, scope) && local != null && local.equals(local(value))
+                            && uses.get(value) == 1 && root(value) != phi) {
+                        coalesced.put(phi, value);
+                        declared.add(phi);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean encloses(List<Ir.Region> outer, List<Ir.Region> inner) {
+        for (List<Ir.Region> regions = inner; regions != null; regions = parents.get(regions)) {
+            if (regions == outer) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the value whose variable the value shares, if any, else the
+     * value itself.
+     */
+    private Ir.Value root(Ir.Value value) {
+        while (coalesced.containsKey(value)) {
+            value = coalesced.get(value);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the name of the local the value was bound to, if known.
+     */
+    private static String local(Ir.Value value) {
+        String hint = value instanceof Ir.Parameter ? ((Ir.Parameter) value).getName() : value.getHint().orElse(null);
+        return hint != null && hint.contains("$") ? hint.substring(0, hint.indexOf('$')) : hint;
+    }
+
+    /**
+     * Returns the method computing the function, given the names of the
+     * globals of the source.
+     */
+    public static Ast.Method of(Ir.Function function, Collection<String> globals) {
+        SsaDestruction destruction = new SsaDestruction(function, globals);
+        Ast.Method method = function.getMethod();
+        List<Ast.Stmt> statements = destruction.regions(function.getBody());
+        Ast.Method result = new Ast.Method(method.getName(), method.getParameters(), method.getParameterTypeNames(),
+                method.getReturnTypeName(), statements);
+        return Ast.copyAnnotations(method, result);
+    }
+
+    private List<Ast.Stmt> regions(List<Ir.Region> regions) {
+        List<Ast.Stmt> statements = new ArrayList<>();
+        Ast.Expr condition = null;
+        for (Ir.Region region : regions) {
+            if (region instanceof Ir.Region.Straight) {
+                Code code = new Code(statements);
+                condition = code.block(((Ir.Region.Straight) region).getBlock());
+            } else if (region instanceof Ir.Region.Conditional) {
+                Ir.Region.Conditional conditional = (Ir.Region.Conditional) region;
+                if (conditional.getJoin().isPresent()) {
+                    for (Ir.Phi phi : conditional.getJoin().get().getPhis()) {
+                        if (declared.add(phi)) {
+                            Environment.Variable variable = variable(phi);
+                            Ast.Stmt.Declaration declaration = new Ast.Stmt.Declaration(variable.getName(),
+                                    Optional.of(variable.getType().getName()), Optional.empty());
+                            declaration.setVariable(variable);
+                            statements.add(declaration);
+                        }
+                    }
+                }
+                statements.add(new Ast.Stmt.If(condition, regions(conditional.getThenRegions()), regions(conditional.getElseRegions())));
+            } else {
+                Ir.Region.Loop loop = (Ir.Region.Loop) region;
+                List<Ast.Stmt> header = new ArrayList<>();
+                Ast.Expr test = new Code(header).block(loop.getHeader());
+                statements.addAll(header);
+                headers.put(loop.getHeader(), header);
+                statements.add(new Ast.Stmt.While(test, regions(loop.getBody())));
+                headers.remove(loop.getHeader());
+            }
+        }
+        return statements;
+    }
+
+    /**
+     * Emits the statements of a block, keeping the expressions of values that
+     * are yet to be used in the pending map, in the order they are defined.
+     */
+    private final class Code {
+
+        private final List<Ast.Stmt> statements;
+        private final Map<Ir.Value, Pending> pending = new LinkedHashMap<>();
+
+        private Code(List<Ast.Stmt> statements) {
+            this.statements = statements;
+        }
+
+        /**
+         * Emits the block, returning the condition it branches on, if any.
+         */
+        private Ast.Expr block(Ir.Block block) {
+            for (Ir.Value instruction : block.getInstructions()) {
+                instruction(instruction);
+            }
+            Ir.Terminator terminator = block.getTerminator();
+            if (terminator instanceof Ir.Terminator.Branch) {
+                Ast.Expr condition = operands(terminator.getOperands(), new boolean[1]).get(0);
+                flush(true);
+                return condition;
+            } else if (terminator instanceof Ir.Terminator.Return) {
+                List<Ast.Expr> value = operands(terminator.getOperands(), new boolean[1]);
+                flush(true);
+                if (!value.isEmpty()) {
+                    statements.add(new Ast.Stmt.Return(value.get(0)));
+                }
+            } else {
+                Ir.Block target = ((Ir.Terminator.Jump) terminator).getTarget();
+                copies(block, target);
+                if (headers.containsKey(target)) {
+                    restate(headers.get(target));
+                }
+            }
+            return null;
+        }
+
+        private void instruction(Ir.Value instruction) {
+            boolean[] impure = {!floating(instruction)};
+            List<Ast.Expr> operands = operands(instruction.getOperands(), impure);
+            if (instruction instanceof Ir.StoreGlobal) {
+                flush(true);
+                Environment.Variable variable = ((Ir.StoreGlobal) instruction).getVariable();
+                statements.add(new Ast.Stmt.Assignment(access(Optional.empty(), variable), operands.get(0)));
+                return;
+            } else if (instruction instanceof Ir.StoreField) {
+                flush(true);
+                Environment.Variable variable = ((Ir.StoreField) instruction).getVariable();
+                statements.add(new Ast.Stmt.Assignment(access(Optional.of(operands.get(0)), variable), operands.get(1)));
+                return;
+            }
+            Ast.Expr expr = expression(instruction, operands);
+            int count = uses.getOrDefault(instruction, 0);
+            if (count == 0) {
+                if (impure[0]) {
+                    flush(true);
+                    if (expr instanceof Ast.Expr.Function) {
+                        statements.add(new Ast.Stmt.Expression(expr));
+                    } else {
+                        declare(instruction, expr);
+                    }
+                }
+            } else if (count == 1 && locations.get(instruction) == definitions.get(instruction)) {
+                pending.put(instruction, new Pending(expr, impure[0]));
+            } else {
+                flush(true);
+                declare(instruction, expr);
+            }
+        }
+
+        /**
+         * Returns the expressions of the operands, taking those that are
+         * pending if that keeps their order. Pending values are taken from the
+         * last one back, and pure values can be taken anywhere, so the impure
+         * values that are taken are always evaluated after those left
+         * pending, which are then declared first. Taking an impure value
+         * sets the flag.
+         */
+        private List<Ast.Expr> operands(List<Ir.Value> operands, boolean[] impure) {
+            List<Ir.Value> order = new ArrayList<>();
+            for (Map.Entry<Ir.Value, Pending> entry : pending.entrySet()) {
+                if (entry.getValue().impure) {
+                    order.add(entry.getKey());
+                }
+            }
+            int top = order.size() - 1;
+            for (int i = operands.size() - 1; i >= 0; i--) {
+                Pending value = pending.get(operands.get(i));
+                if (value != null && value.impure) {
+                    if (top < 0 || order.get(top) != operands.get(i)) {
+                        flush(false);
+                        break;
+                    }
+                    top--;
+                }
+            }
+            List<Ast.Expr> result = new ArrayList<>();
+            for (Ir.Value operand : operands) {
+                Pending value = pending.remove(operand);
+                if (value != null) {
+                    impure[0] |= value.impure;
+                    result.add(value.expr);
+                } else {
+                    result.add(reference(operand));
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Declares the pending values that are impure, or all of them, in the
+         * order they are defined.
+         */
+        private void flush(boolean impureOnly) {
+            for (Map.Entry<Ir.Value, Pending> entry : new ArrayList<>(pending.entrySet())) {
+                if (entry.getValue().impure || !impureOnly) {
+                    pending.remove(entry.getKey());
+                    declare(entry.getKey(), entry.getValue().expr);
+                }
+            }
+        }
+
+        private void declare(Ir.Value value, Ast.Expr expr) {
+            Environment.Variable variable = variable(value);
+            Ast.Stmt.Declaration declaration = new Ast.Stmt.Declaration(variable.getName(), Optional.of(expr));
+            declaration.setVariable(variable);
+            statements.add(declaration);
+        }
+
+        /**
+         * Assigns the phi nodes of the target their values from the block,
+         * except for those whose value is in their variable already. Pending
+         * values are emitted in place, but only pure ones when there are
+         * several assignments, which could otherwise change the order of
+         * impure ones. Assignments run one after the other, so each one is
+         * emitted once no other value left reads the variable it assigns, and
+         * if every one is still read, the values reading the first are saved.
+         */
+        private void copies(Ir.Block block, Ir.Block target) {
+            List<Ir.Phi> phis = new ArrayList<>();
+            for (Ir.Phi phi : target.getPhis()) {
+                if (root(phi.getIncoming(block).orElse(phi)) != root(phi)) {
+                    phis.add(phi);
+                }
+            }
+            if (phis.size() != 1) {
+                flush(true);
+            }
+            List<Ast.Expr> values = new ArrayList<>();
+            for (Ir.Phi phi : phis) {
+                values.add(operands(Collections.singletonList(phi.getIncoming(block).get()), new boolean[1]).get(0));
+            }
+            flush(true);
+            while (!phis.isEmpty()) {
+                int next = next(phis, values);
+                if (next == -1) {
+                    String name = variable(phis.get(0)).getName();
+                    for (int i = 1; i < phis.size(); i++) {
+                        if (reads(values.get(i)).contains(name)) {
+                            Environment.Variable variable = fresh(phis.get(i));
+                            Ast.Stmt.Declaration declaration = new Ast.Stmt.Declaration(variable.getName(), Optional.of(values.get(i)));
+                            declaration.setVariable(variable);
+                            statements.add(declaration);
+                            values.set(i, access(Optional.empty(), variable));
+                        }
+                    }
+                    next = 0;
+                }
+                Ir.Phi phi = phis.remove(next);
+                Ast.Expr value = values.remove(next);
+                Environment.Variable variable = variable(phi);
+                if (declared.add(phi)) {
+                    Ast.Stmt.Declaration declaration = new Ast.Stmt.Declaration(variable.getName(),
+                            Optional.of(variable.getType().getName()), Optional.of(value));
+                    declaration.setVariable(variable);
+                    statements.add(declaration);
+                } else {
+                    statements.add(new Ast.Stmt.Assignment(access(Optional.empty(), variable), value));
+                }
+            }
+        }
+
+        /**
+         * Returns the index of the first phi node whose variable no other
+         * value reads, or -1 if there is none.
+         */
+        private int next(List<Ir.Phi> phis, List<Ast.Expr> values) {
+            for (int i = 0; i < phis.size(); i++) {
+                String name = variable(phis.get(i)).getName();
+                boolean read = false;
+                for (int j = 0; j < values.size() && !read; j++) {
+                    read = j != i && reads(values.get(j)).contains(name);
+                }
+                if (!read) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Emits the statements of the header of a loop again, assigning the
+         * variables it declared.
+         */
+        private void restate(List<Ast.Stmt> header) {
+            for (Ast.Stmt statement : header) {
+                if (statement instanceof Ast.Stmt.Declaration) {
+                    Ast.Stmt.Declaration declaration = (Ast.Stmt.Declaration) statement;
+                    statements.add(new Ast.Stmt.Assignment(access(Optional.empty(), declaration.getVariable()),
+                            Traversal.copy(declaration.getValue().get())));
+                } else {
+                    statements.add(Traversal.copy(statement));
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Returns true if the value can be computed anywhere in its block, since
+     * it has no effect, cannot fail and only reads values.
+     */
+    private static boolean floating(Ir.Value value) {
+        return value.isPure() && !(value instanceof Ir.LoadGlobal);
+    }
+
+    private Ast.Expr expression(Ir.Value instruction, List<Ast.Expr> operands) {
+        if (instruction instanceof Ir.Copy) {
+            return operands.get(0);
+        } else if (instruction instanceof Ir.Binary) {
+            Ir.Binary binary = (Ir.Binary) instruction;
+            Ast.Expr.Binary expr = new Ast.Expr.Binary(binary.getOperator(), group(operands.get(0)), group(operands.get(1)));
+            expr.setType(binary.getType());
+            binary.getOperation().ifPresent(expr::setOperation);
+            binary.getRange().ifPresent(expr::setRange);
+            return expr;
+        } else if (instruction instanceof Ir.LoadGlobal) {
+            return access(Optional.empty(), ((Ir.LoadGlobal) instruction).getVariable());
+        } else if (instruction instanceof Ir.LoadField) {
+            return access(Optional.of(group(operands.get(0))), ((Ir.LoadField) instruction).getVariable());
+        } else if (instruction instanceof Ir.Call) {
+            Ir.Call call = (Ir.Call) instruction;
+            List<Ast.Expr> arguments = new ArrayList<>(operands);
+            Optional<Ast.Expr> receiver = call.hasReceiver()
+                    ? Optional.of(group(arguments.remove(arguments.size() - 1)))
+                    : Optional.empty();
+            Ast.Expr.Function expr = new Ast.Expr.Function(receiver, call.getName(), arguments);
+            expr.setFunction(call.getFunction());
+            return expr;
+        }
+        throw new AssertionError("Unexpected instruction: " + instruction.getClass().getSimpleName() + ".");
+    }
+
+    /**
+     * Returns the expression referring to a value that is not pending.
+     */
+    private Ast.Expr reference(Ir.Value value) {
+        if (value instanceof Ir.Constant) {
+            Ast.Expr.Literal literal = new Ast.Expr.Literal(((Ir.Constant) value).getLiteral());
+            literal.setType(value.getType());
+            return literal;
+        }
+        return access(Optional.empty(), variable(value));
+    }
+
+    /**
+     * Returns the variable holding the value, which is the parameter itself
+     * for parameters and is otherwise named after the local the value was
+     * bound to.
+     */
+    private Environment.Variable variable(Ir.Value value) {
+        return variables.computeIfAbsent(root(value), root -> {
+            if (root instanceof Ir.Parameter) {
+                Ir.Parameter parameter = (Ir.Parameter) root;
+                return new Environment.Variable(parameter.getName(), parameter.getName(), parameter.getType(), Environment.NIL);
+            }
+            return fresh(root);
+        });
+    }
+
+    private Environment.Variable fresh(Ir.Value value) {
+        String hint = value.getHint().orElse("t");
+        String name = names.fresh(hint.contains("$") ? hint.substring(0, hint.indexOf('$')) : hint);
+        return new Environment.Variable(name, name, value.getType(), Environment.NIL);
+    }
+
+    /**
+     * Returns the names of the variables the expression reads.
+     */
+    private static Set<String> reads(Ast.Expr expr) {
+        Set<String> names = new HashSet<>();
+        new Traversal.Walk() {
+
+            @Override
+            protected boolean enter(Ast ast) {
+                if (ast instanceof Ast.Expr.Access && !((Ast.Expr.Access) ast).getReceiver().isPresent()) {
+                    names.add(((Ast.Expr.Access) ast).getName());
+                }
+                return true;
+            }
+
+        }.walk(expr);
+        return names;
+    }
+
+    private static Ast.Expr.Access access(Optional<Ast.Expr> receiver, Environment.Variable variable) {
+        Ast.Expr.Access access = new Ast.Expr.Access(receiver, variable.getName());
+        access.setVariable(variable);
+        return access;
+    }
+
+    /**
+     * Wraps binary expressions in a group, since the {@link Generator} emits
+     * expressions as they are nested in the tree.
+     */
+    private static Ast.Expr group(Ast.Expr expr) {
+        if (!(expr instanceof Ast.Expr.Binary)) {
+            return expr;
+        }
+        Ast.Expr.Group group = new Ast.Expr.Group(expr);
+        group.setType(expr.getType());
+        return group;
+    }
+
+    private static final class Pending {
+
+        private final Ast.Expr expr;
+        private final boolean impure;
+
+        private Pending(Ast.Expr expr, boolean impure) {
+            this.expr = expr;
+            this.impure = impure;
+        }
+
+    }
+
+}
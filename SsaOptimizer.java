@@ -0,0 +1,340 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optimizes methods in SSA form (see {@link Ir}): each analyzed method is
+ * built by {@link SsaConstruction}, rewritten by a pipeline of
+ * {@link Ir.Pass}es until none of them changes it (or
+ * {@link Optimizer#MAX_ITERATIONS} is reached), and turned back into a method
+ * by {@link SsaDestruction}. Methods are only replaced if a pass changed them
+ * and the result differs from the method, so that running this pass again on
+ * its own output reports no changes, and if the result is no larger, does not
+ * run more nodes in loops and does not declare in more loops (which then need
+ * a scope of their own, see {@link Capture}), since destruction may add
+ * variables the passes do not make up for.
+ *
+ * The built-in passes are copy propagation, value numbering and dead code
+ * elimination. Methods that are not analyzed or that the IR does not
+ * represent are left alone.
+ */
+public final class SsaOptimizer implements Optimizer.Pass {
+
+    private final List<Ir.Pass> passes;
+
+    public SsaOptimizer() {
+        this(Arrays.asList(new CopyPropagation(), new ValueNumbering(), new DeadCodeElimination()));
+    }
+
+    public SsaOptimizer(List<Ir.Pass> passes) {
+        this.passes = passes;
+    }
+
+    @Override
+    public String getName() {
+        return "ssa";
+    }
+
+    @Override
+    public Ast.Source apply(Ast.Source source, Optimizer.Statistics.Entry entry) {
+        Set<String> globals = new HashSet<>();
+        for (Ast.Field field : source.getFields()) {
+            globals.add(field.getName());
+        }
+        List<Ast.Method> methods = new ArrayList<>();
+        boolean modified = false;
+        for (Ast.Method method : source.getMethods()) {
+            Ast.Method optimized = SsaConstruction.of(method)
+                    .map(function -> optimize(method, function, globals, entry))
+                    .orElse(method);
+            modified |= optimized != method;
+            methods.add(optimized);
+        }
+        return modified ? new Ast.Source(source.getFields(), methods) : source;
+    }
+
+    /**
+     * Runs the passes over the function, returning the method it becomes if
+     * they changed it, else the method itself. The changes are only counted
+     * on the entry when the method is replaced.
+     */
+    private Ast.Method optimize(Ast.Method method, Ir.Function function, Set<String> globals, Optimizer.Statistics.Entry entry) {
+        Optimizer.Statistics.Entry changes = new Optimizer.Statistics().getEntry(getName());
+        for (int i = 0; i < Optimizer.MAX_ITERATIONS; i++) {
+            int before = changes.getChanges();
+            for (Ir.Pass pass : passes) {
+                pass.apply(function, changes);
+            }
+            if (changes.getChanges() == before) {
+                break;
+            }
+        }
+        if (changes.getChanges() == 0) {
+            return method;
+        }
+        Ast.Method result = SsaDestruction.of(function, globals);
+        if (result.equals(method) || !cheaper(result.getStatements(), method.getStatements())) {
+            return method;
+        }
+        for (Map.Entry<String, Integer> counter : changes.getCounters().entrySet()) {
+            entry.count(counter.getKey(), counter.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if the statements are no costlier than the original ones.
+     */
+    private static boolean cheaper(List<Ast.Stmt> statements, List<Ast.Stmt> original) {
+        int[] cost = cost(statements);
+        int[] limit = cost(original);
+        for (int i = 0; i < cost.length; i++) {
+            if (cost[i] > limit[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of nodes of the statements, the number of nodes
+     * counted once for each loop they are nested in, and the number of loops
+     * declaring variables.
+     */
+    private static int[] cost(List<Ast.Stmt> statements) {
+        int[] cost = new int[3];
+        int[] depth = {0};
+        Traversal.Walk walk = new Traversal.Walk() {
+
+            @Override
+            protected boolean enter(Ast ast) {
+                cost[0]++;
+                cost[1] += depth[0];
+                if (ast instanceof Ast.Stmt.While) {
+                    depth[0]++;
+                    if (Capture.of((Ast.Stmt.While) ast) != Capture.ELIDED) {
+                        cost[2]++;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            protected void exit(Ast ast) {
+                if (ast instanceof Ast.Stmt.While) {
+                    depth[0]--;
+                }
+            }
+
+        };
+        for (Ast.Stmt statement : statements) {
+            walk.walk(statement);
+        }
+        return cost;
+    }
+
+    /**
+     * Replaces copies, and phi nodes merging a single value besides
+     * themselves, with that value.
+     */
+    public static final class CopyPropagation implements Ir.Pass {
+
+        @Override
+        public String getName() {
+            return "copy-propagation";
+        }
+
+        @Override
+        public void apply(Ir.Function function, Optimizer.Statistics.Entry entry) {
+            Map<Ir.Value, Ir.Value> replacements = new HashMap<>();
+            boolean removed;
+            do {
+                removed = false;
+                for (Ir.Block block : function.getBlocks()) {
+                    for (Ir.Phi phi : new ArrayList<>(block.getPhis())) {
+                        Ir.Value value = SsaConstruction.trivial(phi, replacements);
+                        if (value != null) {
+                            replace(phi, value, replacements);
+                            block.getPhis().remove(phi);
+                            removed = true;
+                        }
+                    }
+                    for (Ir.Value instruction : new ArrayList<>(block.getInstructions())) {
+                        if (instruction instanceof Ir.Copy) {
+                            replace(instruction, instruction.getOperands().get(0), replacements);
+                            block.getInstructions().remove(instruction);
+                            removed = true;
+                        }
+                    }
+                }
+            } while (removed);
+            function.replace(replacements);
+            entry.count("propagated", replacements.size());
+        }
+
+        /**
+         * Records the replacement, passing the name the value was bound to
+         * on to its replacement if that has none.
+         */
+        private static void replace(Ir.Value value, Ir.Value replacement, Map<Ir.Value, Ir.Value> replacements) {
+            while (replacements.containsKey(replacement)) {
+                replacement = replacements.get(replacement);
+            }
+            if (!replacement.getHint().isPresent() && !(replacement instanceof Ir.Constant)) {
+                value.getHint().ifPresent(replacement::setHint);
+            }
+            replacements.put(value, replacement);
+        }
+
+    }
+
+    /**
+     * Replaces binary instructions computing the same operation on the same
+     * operands as an instruction of a block dominating them with the value of
+     * that instruction. Regions give the dominators: a block dominates the
+     * regions following it in its sequence and those nested in them.
+     * Operands of commutative operations match in either order.
+     */
+    public static final class ValueNumbering implements Ir.Pass {
+
+        private static final Set<Operation> COMMUTATIVE = new HashSet<>(Arrays.asList(
+                Operation.INTEGER_ADD, Operation.INTEGER_MULTIPLY, Operation.DECIMAL_ADD, Operation.DECIMAL_MULTIPLY,
+                Operation.EQUAL, Operation.NOT_EQUAL));
+
+        @Override
+        public String getName() {
+            return "value-numbering";
+        }
+
+        @Override
+        public void apply(Ir.Function function, Optimizer.Statistics.Entry entry) {
+            Map<Ir.Value, Ir.Value> replacements = new HashMap<>();
+            number(function.getBody(), new ArrayList<>(), replacements);
+            function.replace(replacements);
+            entry.count("numbered", replacements.size());
+        }
+
+        private static void number(List<Ir.Region> regions, List<Map<List<Object>, Ir.Value>> tables, Map<Ir.Value, Ir.Value> replacements) {
+            tables.add(new HashMap<>());
+            for (Ir.Region region : regions) {
+                if (region instanceof Ir.Region.Straight) {
+                    number(((Ir.Region.Straight) region).getBlock(), tables, replacements);
+                } else if (region instanceof Ir.Region.Conditional) {
+                    number(((Ir.Region.Conditional) region).getThenRegions(), tables, replacements);
+                    number(((Ir.Region.Conditional) region).getElseRegions(), tables, replacements);
+                } else {
+                    number(((Ir.Region.Loop) region).getHeader(), tables, replacements);
+                    number(((Ir.Region.Loop) region).getBody(), tables, replacements);
+                }
+            }
+            tables.remove(tables.size() - 1);
+        }
+
+        private static void number(Ir.Block block, List<Map<List<Object>, Ir.Value>> tables, Map<Ir.Value, Ir.Value> replacements) {
+            Map<List<Object>, Ir.Value> table = tables.get(tables.size() - 1);
+            for (Ir.Value instruction : new ArrayList<>(block.getInstructions())) {
+                if (!(instruction instanceof Ir.Binary)) {
+                    continue;
+                }
+                Ir.Binary binary = (Ir.Binary) instruction;
+                Object left = key(binary.getOperands().get(0), replacements);
+                Object right = key(binary.getOperands().get(1), replacements);
+                List<Object> key = Arrays.asList(binary.getOperator(), binary.getOperation().orElse(null), binary.getType(), left, right);
+                Ir.Value existing = lookup(key, tables);
+                if (existing != null) {
+                    if (!existing.getHint().isPresent()) {
+                        binary.getHint().ifPresent(existing::setHint);
+                    }
+                    replacements.put(binary, existing);
+                    block.getInstructions().remove(binary);
+                    continue;
+                }
+                table.put(key, binary);
+                if (binary.getOperation().map(COMMUTATIVE::contains).orElse(false)) {
+                    table.put(Arrays.asList(binary.getOperator(), binary.getOperation().orElse(null), binary.getType(), right, left), binary);
+                }
+            }
+        }
+
+        private static Ir.Value lookup(List<Object> key, List<Map<List<Object>, Ir.Value>> tables) {
+            for (Map<List<Object>, Ir.Value> table : tables) {
+                if (table.containsKey(key)) {
+                    return table.get(key);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the key of an operand: its literal for a constant, since
+         * the same literal may be several constants, else the value itself.
+         */
+        private static Object key(Ir.Value value, Map<Ir.Value, Ir.Value> replacements) {
+            while (replacements.containsKey(value)) {
+                value = replacements.get(value);
+            }
+            if (value instanceof Ir.Constant) {
+                Object literal = ((Ir.Constant) value).getLiteral();
+                // The class is included since 1 and 1.0 are different literals.
+                return Arrays.asList(literal == null ? null : literal.getClass(), literal);
+            }
+            return value;
+        }
+
+    }
+
+    /**
+     * Removes the phi nodes and instructions that are pure (see
+     * {@link Ir.Value#isPure}) and whose values are not used by an
+     * instruction that has effects or by a terminator, directly or through
+     * other values.
+     */
+    public static final class DeadCodeElimination implements Ir.Pass {
+
+        @Override
+        public String getName() {
+            return "dead-code-elimination";
+        }
+
+        @Override
+        public void apply(Ir.Function function, Optimizer.Statistics.Entry entry) {
+            Set<Ir.Value> live = new HashSet<>();
+            List<Ir.Value> worklist = new ArrayList<>();
+            for (Ir.Block block : function.getBlocks()) {
+                for (Ir.Value instruction : block.getInstructions()) {
+                    if (!instruction.isPure() && live.add(instruction)) {
+                        worklist.add(instruction);
+                    }
+                }
+                for (Ir.Value operand : block.getTerminator().getOperands()) {
+                    if (live.add(operand)) {
+                        worklist.add(operand);
+                    }
+                }
+            }
+            while (!worklist.isEmpty()) {
+                for (Ir.Value operand : worklist.remove(worklist.size() - 1).getOperands()) {
+                    if (live.add(operand)) {
+                        worklist.add(operand);
+                    }
+                }
+            }
+            int removed = 0;
+            for (Ir.Block block : function.getBlocks()) {
+                removed += block.getPhis().size() + block.getInstructions().size();
+                block.getPhis().retainAll(live);
+                block.getInstructions().retainAll(live);
+                removed -= block.getPhis().size() + block.getInstructions().size();
+            }
+            entry.count("removed", removed);
+        }
+
+    }
+
+}
@@ -0,0 +1,188 @@
+package plc.project;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Replaces multiplications of the induction variable of a {@code WHILE} loop
+ * (see {@link Induction}) by an integer literal with derived induction
+ * variables, which are stepped by an addition where the induction variable is.
+ * For instance
+ *
+ *     WHILE i < n DO print(i * 4); i = i + 1; END
+ *
+ * becomes
+ *
+ *     LET t = i * 4; WHILE i < n DO print(t); i = i + 1; t = t + 4; END
+ *
+ * The derived variable is declared right before the loop with a fresh name
+ * from {@link Names}, and products sharing a factor share a variable. Only
+ * induction variables and products typed as integers by the analyzer are
+ * reduced, so declaring the derived variable cannot fail even if the loop
+ * never runs, and steps outside the 32-bit range that the {@link Generator}
+ * emits are left alone. Wrapping in generated code still agrees, since the
+ * sum of the steps wraps the same way as the product.
+ */
+public final class StrengthReduction implements Optimizer.Pass {
+
+    @Override
+    public String getName() {
+        return "strength-reduction";
+    }
+
+    @Override
+    public Ast.Source apply(Ast.Source source, Optimizer.Statistics.Entry entry) {
+        Reducer reducer = new Reducer(Names.of(source), Effects.methods(source));
+        Ast.Source result = (Ast.Source) reducer.visit(source);
+        entry.count("reduced", reducer.getChanges());
+        return result;
+    }
+
+    private static final class Reducer extends Rewriter {
+
+        private final Names names;
+        private final Set<String> methods;
+        private Effects.Bindings bindings;
+
+        private Reducer(Names names, Set<String> methods) {
+            this.names = names;
+            this.methods = methods;
+        }
+
+        @Override
+        public Ast visit(Ast.Field ast) {
+            return ast;
+        }
+
+        @Override
+        public Ast visit(Ast.Method ast) {
+            bindings = Effects.Bindings.of(ast);
+            return super.visit(ast);
+        }
+
+        @Override
+        protected List<Ast.Stmt> visitStatements(List<Ast.Stmt> statements) {
+            List<Ast.Stmt> result = new ArrayList<>();
+            boolean modified = false;
+            for (Ast.Stmt stmt : statements) {
+                // Inner loops are reduced first, so their derived variables
+                // are in place when the outer loop is reduced.
+                Ast.Stmt rewritten = (Ast.Stmt) visit(stmt);
+                if (rewritten instanceof Ast.Stmt.While) {
+                    rewritten = reduce((Ast.Stmt.While) rewritten, result);
+                }
+                result.add(rewritten);
+                modified |= rewritten != stmt;
+            }
+            return modified ? result : statements;
+        }
+
+        /**
+         * Reduces the products in the loop, adding the declarations of the
+         * derived variables to the statements preceding it.
+         */
+        private Ast.Stmt reduce(Ast.Stmt.While loop, List<Ast.Stmt> preceding) {
+            Optional<Induction> induction = Induction.of(loop, methods, bindings);
+            if (!induction.isPresent()) {
+                return loop;
+            }
+            Replacer replacer = new Replacer(induction.get());
+            List<Ast.Stmt> body = new ArrayList<>();
+            for (int i = 0; i < loop.getStatements().size(); i++) {
+                Ast.Stmt statement = loop.getStatements().get(i);
+                body.add(i == induction.get().getUpdate() ? statement : (Ast.Stmt) replacer.visit(statement));
+            }
+            if (replacer.derived.isEmpty()) {
+                return loop;
+            }
+
+            List<Ast.Stmt> steps = new ArrayList<>();
+            for (Derived derived : replacer.derived.values()) {
+                Ast.Stmt.Declaration declaration = new Ast.Stmt.Declaration(derived.variable.getName(), Optional.of(derived.product));
+                declaration.setVariable(derived.variable);
+                preceding.add(declaration);
+
+                BigInteger step = induction.get().getStep().multiply(derived.factor);
+                Ast.Expr.Binary value = new Ast.Expr.Binary(step.signum() < 0 ? "-" : "+", access(derived.variable), Rewriter.literal(step.abs(), derived.product));
+                value.setType(Environment.Type.INTEGER);
+                value.setOperation(step.signum() < 0 ? Operation.INTEGER_SUBTRACT : Operation.INTEGER_ADD);
+                steps.add(new Ast.Stmt.Assignment(access(derived.variable), value));
+                changed();
+            }
+            body.addAll(induction.get().getUpdate() + 1, steps);
+            return new Ast.Stmt.While(loop.getCondition(), body);
+        }
+
+        /**
+         * A derived induction variable, holding the product of the induction
+         * variable and a factor.
+         */
+        private final class Derived {
+
+            private final BigInteger factor;
+            private final Ast.Expr.Binary product;
+            private final Environment.Variable variable;
+
+            private Derived(BigInteger factor, Ast.Expr.Binary product) {
+                this.factor = factor;
+                this.product = product;
+                String name = names.fresh("ind");
+                this.variable = new Environment.Variable(name, name, Environment.Type.INTEGER, Environment.NIL);
+            }
+
+        }
+
+        /**
+         * Replaces the products of the induction variable and a literal with
+         * accesses to derived variables.
+         */
+        private final class Replacer extends Rewriter {
+
+            private final Induction induction;
+            private final Map<BigInteger, Derived> derived = new LinkedHashMap<>();
+
+            private Replacer(Induction induction) {
+                this.induction = induction;
+            }
+
+            @Override
+            public Ast visit(Ast.Expr.Binary ast) {
+                BigInteger factor = factor(ast);
+                if (factor == null || ast.getOperation().orElse(null) != Operation.INTEGER_MULTIPLY
+                        || induction.getStep().multiply(factor).bitLength() >= 32) {
+                    return super.visit(ast);
+                }
+                return access(derived.computeIfAbsent(factor, f -> new Derived(f, ast)).variable);
+            }
+
+            /**
+             * Returns the factor of a product of the induction variable and an
+             * integer literal, else null.
+             */
+            private BigInteger factor(Ast.Expr.Binary ast) {
+                if (!ast.getOperator().equals("*")) {
+                    return null;
+                } else if (induction.getVariable().equals(Induction.variable(ast.getLeft()))) {
+                    return Induction.integer(ast.getRight());
+                } else if (induction.getVariable().equals(Induction.variable(ast.getRight()))) {
+                    return Induction.integer(ast.getLeft());
+                }
+                return null;
+            }
+
+        }
+
+        private static Ast.Expr.Access access(Environment.Variable variable) {
+            Ast.Expr.Access access = new Ast.Expr.Access(Optional.empty(), variable.getName());
+            access.setVariable(variable);
+            return access;
+        }
+
+    }
+
+}
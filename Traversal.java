@@ -0,0 +1,282 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Depth-first traversals of an AST that keep their work stack on the heap, so
+ * they use a constant amount of Java stack however deeply the tree is nested.
+ * {@link Walker} and {@link Rewriter} recurse through {@code visit}, which is
+ * more convenient for passes needing context from enclosing nodes but can
+ * overflow on pathological inputs; analyses that can be phrased in terms of
+ * entering and exiting nodes should prefer the classes here.
+ *
+ *  - {@link Walk}: a read-only walk calling {@link Walk#enter} before and
+ *    {@link Walk#exit} after the children of each node
+ *  - {@link Rewrite}: a rewriting walk whose {@link Rewrite#exit} hook
+ *    receives each node rebuilt from its rewritten children, and may replace
+ *    it in turn
+ *
+ * Children are visited in source order, as listed by {@link #children(Ast)}.
+ */
+public final class Traversal {
+
+    private Traversal() {}
+
+    /**
+     * A read-only traversal with pre- and post-order hooks.
+     */
+    public abstract static class Walk {
+
+        /**
+         * Called before the children of a node are visited. Returning false
+         * skips the children (but {@link #exit} is still called).
+         */
+        protected boolean enter(Ast ast) {
+            return true;
+        }
+
+        /**
+         * Called after the children of a node have been visited.
+         */
+        protected void exit(Ast ast) {}
+
+        public final void walk(Ast root) {
+            Deque<Frame> stack = new ArrayDeque<>();
+            stack.push(new Frame(root, enter(root)));
+            while (!stack.isEmpty()) {
+                Frame frame = stack.peek();
+                if (frame.next < frame.children.size()) {
+                    Ast child = frame.children.get(frame.next++);
+                    stack.push(new Frame(child, enter(child)));
+                } else {
+                    stack.pop();
+                    exit(frame.node);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * A rewriting traversal with pre- and post-order hooks. Nodes whose
+     * children are unchanged are kept as is, and rebuilt nodes carry over the
+     * analyzer annotations of the originals, as with {@link Rewriter}.
+     */
+    public abstract static class Rewrite {
+
+        private int changes = 0;
+
+        /**
+         * Returns the number of rewrites recorded with {@link #changed()}.
+         */
+        public int getChanges() {
+            return changes;
+        }
+
+        protected void changed() {
+            changes++;
+        }
+
+        /**
+         * Called before the children of a node are rewritten. Returning false
+         * leaves the children as they are (but {@link #exit} is still called).
+         */
+        protected boolean enter(Ast ast) {
+            return true;
+        }
+
+        /**
+         * Called with a node once its children have been rewritten, returning
+         * its replacement. The replacement must be of a kind allowed where the
+         * node occurs, such as an {@link Ast.Expr} for an expression.
+         */
+        protected Ast exit(Ast ast) {
+            return ast;
+        }
+
+        public final Ast rewrite(Ast root) {
+            Deque<Frame> stack = new ArrayDeque<>();
+            stack.push(new Frame(root, enter(root)));
+            while (true) {
+                Frame frame = stack.peek();
+                if (frame.next < frame.children.size()) {
+                    Ast child = frame.children.get(frame.next++);
+                    stack.push(new Frame(child, enter(child)));
+                    continue;
+                }
+                stack.pop();
+                Ast result = exit(frame.results == null ? frame.node : withChildren(frame.node, frame.results));
+                if (stack.isEmpty()) {
+                    return result;
+                }
+                stack.peek().add(result);
+            }
+        }
+
+    }
+
+    private static final class Frame {
+
+        private final Ast node;
+        private final List<Ast> children;
+        private int next = 0;
+        private List<Ast> results = null;
+
+        private Frame(Ast node, boolean descend) {
+            this.node = node;
+            this.children = descend ? children(node) : new ArrayList<>();
+        }
+
+        /**
+         * Records the rewritten child at {@code next - 1}, only copying the
+         * children once one of them has changed.
+         */
+        private void add(Ast child) {
+            int index = next - 1;
+            if (results == null && child != children.get(index)) {
+                results = new ArrayList<>(children.subList(0, index));
+            }
+            if (results != null) {
+                results.add(child);
+            }
+        }
+
+    }
+
+    /**
+     * Returns a copy of a tree made of new nodes carrying over the annotations
+     * of the originals, so that the copy can be annotated again (or appear
+     * elsewhere in the same tree) without affecting the original.
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends Ast> T copy(T ast) {
+        return (T) new Rewrite() {
+
+            @Override
+            protected Ast exit(Ast ast) {
+                if (ast instanceof Ast.Expr.Literal) {
+                    return Ast.copyAnnotations((Ast.Expr.Literal) ast, new Ast.Expr.Literal(((Ast.Expr.Literal) ast).getLiteral()));
+                }
+                return withChildren(ast, children(ast));
+            }
+
+        }.rewrite(ast);
+    }
+
+    /**
+     * Returns the children of a node in source order. Statement and argument
+     * lists are flattened in place, and absent optional children are omitted.
+     */
+    static List<Ast> children(Ast ast) {
+        List<Ast> children = new ArrayList<>();
+        if (ast instanceof Ast.Source) {
+            children.addAll(((Ast.Source) ast).getFields());
+            children.addAll(((Ast.Source) ast).getMethods());
+        } else if (ast instanceof Ast.Field) {
+            ((Ast.Field) ast).getValue().ifPresent(children::add);
+        } else if (ast instanceof Ast.Method) {
+            children.addAll(((Ast.Method) ast).getStatements());
+        } else if (ast instanceof Ast.Stmt.Expression) {
+            children.add(((Ast.Stmt.Expression) ast).getExpression());
+        } else if (ast instanceof Ast.Stmt.Declaration) {
+            ((Ast.Stmt.Declaration) ast).getValue().ifPresent(children::add);
+        } else if (ast instanceof Ast.Stmt.Assignment) {
+            children.add(((Ast.Stmt.Assignment) ast).getReceiver());
+            children.add(((Ast.Stmt.Assignment) ast).getValue());
+        } else if (ast instanceof Ast.Stmt.If) {
+            children.add(((Ast.Stmt.If) ast).getCondition());
+            children.addAll(((Ast.Stmt.If) ast).getThenStatements());
+            children.addAll(((Ast.Stmt.If) ast).getElseStatements());
+        } else if (ast instanceof Ast.Stmt.For) {
+            children.add(((Ast.Stmt.For) ast).getValue());
+            children.addAll(((Ast.Stmt.For) ast).getStatements());
+        } else if (ast instanceof Ast.Stmt.While) {
+            children.add(((Ast.Stmt.While) ast).getCondition());
+            children.addAll(((Ast.Stmt.While) ast).getStatements());
+        } else if (ast instanceof Ast.Stmt.Return) {
+            children.add(((Ast.Stmt.Return) ast).getValue());
+        } else if (ast instanceof Ast.Expr.Group) {
+            children.add(((Ast.Expr.Group) ast).getExpression());
+        } else if (ast instanceof Ast.Expr.Binary) {
+            children.add(((Ast.Expr.Binary) ast).getLeft());
+            children.add(((Ast.Expr.Binary) ast).getRight());
+        } else if (ast instanceof Ast.Expr.Access) {
+            ((Ast.Expr.Access) ast).getReceiver().ifPresent(children::add);
+        } else if (ast instanceof Ast.Expr.Function) {
+            ((Ast.Expr.Function) ast).getReceiver().ifPresent(children::add);
+            children.addAll(((Ast.Expr.Function) ast).getArguments());
+        } else if (!(ast instanceof Ast.Expr.Literal)) {
+            throw new AssertionError("Unimplemented AST type: " + ast.getClass().getName() + ".");
+        }
+        return children;
+    }
+
+    /**
+     * Rebuilds a node with the given children, in the order returned by
+     * {@link #children(Ast)}, carrying over the annotations of the node.
+     */
+    @SuppressWarnings("unchecked")
+    static Ast withChildren(Ast ast, List<Ast> children) {
+        if (ast instanceof Ast.Source) {
+            int fields = ((Ast.Source) ast).getFields().size();
+            return new Ast.Source(new ArrayList<>((List<Ast.Field>) (List<?>) children.subList(0, fields)),
+                    new ArrayList<>((List<Ast.Method>) (List<?>) children.subList(fields, children.size())));
+        } else if (ast instanceof Ast.Field) {
+            Ast.Field field = (Ast.Field) ast;
+            return Ast.copyAnnotations(field, new Ast.Field(field.getName(), field.getTypeName(), optional(children, 0)));
+        } else if (ast instanceof Ast.Method) {
+            Ast.Method method = (Ast.Method) ast;
+            return Ast.copyAnnotations(method, new Ast.Method(method.getName(), method.getParameters(), method.getParameterTypeNames(), method.getReturnTypeName(), statements(children, 0, children.size())));
+        } else if (ast instanceof Ast.Stmt.Expression) {
+            return new Ast.Stmt.Expression((Ast.Expr) children.get(0));
+        } else if (ast instanceof Ast.Stmt.Declaration) {
+            Ast.Stmt.Declaration declaration = (Ast.Stmt.Declaration) ast;
+            return Ast.copyAnnotations(declaration, new Ast.Stmt.Declaration(declaration.getName(), declaration.getTypeName(), optional(children, 0)));
+        } else if (ast instanceof Ast.Stmt.Assignment) {
+            return new Ast.Stmt.Assignment((Ast.Expr) children.get(0), (Ast.Expr) children.get(1));
+        } else if (ast instanceof Ast.Stmt.If) {
+            int then = 1 + ((Ast.Stmt.If) ast).getThenStatements().size();
+            return new Ast.Stmt.If((Ast.Expr) children.get(0), statements(children, 1, then), statements(children, then, children.size()));
+        } else if (ast instanceof Ast.Stmt.For) {
+            return new Ast.Stmt.For(((Ast.Stmt.For) ast).getName(), (Ast.Expr) children.get(0), statements(children, 1, children.size()));
+        } else if (ast instanceof Ast.Stmt.While) {
+            return new Ast.Stmt.While((Ast.Expr) children.get(0), statements(children, 1, children.size()));
+        } else if (ast instanceof Ast.Stmt.Return) {
+            return new Ast.Stmt.Return((Ast.Expr) children.get(0));
+        } else if (ast instanceof Ast.Expr.Group) {
+            return Ast.copyAnnotations((Ast.Expr.Group) ast, new Ast.Expr.Group((Ast.Expr) children.get(0)));
+        } else if (ast instanceof Ast.Expr.Binary) {
+            Ast.Expr.Binary binary = (Ast.Expr.Binary) ast;
+            return Ast.copyAnnotations(binary, new Ast.Expr.Binary(binary.getOperator(), (Ast.Expr) children.get(0), (Ast.Expr) children.get(1)));
+        } else if (ast instanceof Ast.Expr.Access) {
+            Ast.Expr.Access access = (Ast.Expr.Access) ast;
+            return Ast.copyAnnotations(access, new Ast.Expr.Access(optional(children, 0), access.getName()));
+        } else if (ast instanceof Ast.Expr.Function) {
+            Ast.Expr.Function function = (Ast.Expr.Function) ast;
+            List<Ast.Expr> arguments = new ArrayList<>();
+            for (Ast argument : children.subList(function.getReceiver().isPresent() ? 1 : 0, children.size())) {
+                arguments.add((Ast.Expr) argument);
+            }
+            Optional<Ast.Expr> receiver = function.getReceiver().isPresent() ? Optional.of((Ast.Expr) children.get(0)) : Optional.empty();
+            return Ast.copyAnnotations(function, new Ast.Expr.Function(receiver, function.getName(), arguments));
+        }
+        return ast;
+    }
+
+    private static Optional<Ast.Expr> optional(List<Ast> children, int index) {
+        return index < children.size() ? Optional.of((Ast.Expr) children.get(index)) : Optional.empty();
+    }
+
+    private static List<Ast.Stmt> statements(List<Ast> children, int from, int to) {
+        List<Ast.Stmt> statements = new ArrayList<>();
+        for (Ast child : children.subList(from, to)) {
+            statements.add((Ast.Stmt) child);
+        }
+        return statements;
+    }
+
+}
@@ -0,0 +1,137 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes the methods and fields of a source that the program cannot reach
+ * from {@code main/0}, so they are neither defined by the {@link Interpreter}
+ * nor emitted by the {@link Generator}.
+ *
+ * Reachability starts from {@code main/0} and follows calls without a receiver
+ * to the methods of the source and accesses without a receiver to its fields,
+ * including through the initial values of the fields that are kept. Names are
+ * matched without regard to scoping, so a local variable named like a field
+ * keeps the field. Fields whose initial value could have side effects or fail
+ * are always kept, since evaluating them is observable. Sources without a
+ * {@code main/0} method are left unchanged.
+ */
+public final class TreeShaking implements Optimizer.Pass {
+
+    @Override
+    public String getName() {
+        return "tree-shaking";
+    }
+
+    @Override
+    public Ast.Source apply(Ast.Source source, Optimizer.Statistics.Entry entry) {
+        Map<String, Ast.Method> methods = new HashMap<>();
+        for (Ast.Method method : source.getMethods()) {
+            methods.put(key(method.getName(), method.getParameters().size()), method);
+        }
+        if (!methods.containsKey(key("main", 0))) {
+            return source;
+        }
+
+        Set<String> reachableMethods = new HashSet<>();
+        Set<String> reachableFields = new HashSet<>();
+        Deque<Ast> pending = new ArrayDeque<>();
+        reachableMethods.add(key("main", 0));
+        pending.push(methods.get(key("main", 0)));
+        for (Ast.Field field : source.getFields()) {
+            if (!isRemovable(field)) {
+                reachableFields.add(field.getName());
+                pending.push(field);
+            }
+        }
+        Map<String, Ast.Field> fields = new HashMap<>();
+        for (Ast.Field field : source.getFields()) {
+            fields.put(field.getName(), field);
+        }
+        while (!pending.isEmpty()) {
+            References references = new References();
+            references.walk(pending.pop());
+            for (String method : references.methods) {
+                if (methods.containsKey(method) && reachableMethods.add(method)) {
+                    pending.push(methods.get(method));
+                }
+            }
+            for (String field : references.fields) {
+                if (fields.containsKey(field) && reachableFields.add(field)) {
+                    pending.push(fields.get(field));
+                }
+            }
+        }
+
+        List<Ast.Field> keptFields = new ArrayList<>();
+        for (Ast.Field field : source.getFields()) {
+            if (reachableFields.contains(field.getName())) {
+                keptFields.add(field);
+            }
+        }
+        List<Ast.Method> keptMethods = new ArrayList<>();
+        for (Ast.Method method : source.getMethods()) {
+            if (reachableMethods.contains(key(method.getName(), method.getParameters().size()))) {
+                keptMethods.add(method);
+            }
+        }
+        int fieldsRemoved = source.getFields().size() - keptFields.size();
+        int methodsRemoved = source.getMethods().size() - keptMethods.size();
+        if (fieldsRemoved == 0 && methodsRemoved == 0) {
+            return source;
+        }
+        entry.count("fields", fieldsRemoved);
+        entry.count("methods", methodsRemoved);
+        return new Ast.Source(keptFields, keptMethods);
+    }
+
+    private static String key(String name, int arity) {
+        return name + "/" + arity;
+    }
+
+    /**
+     * Returns true if evaluating the initial value of the field cannot have
+     * side effects or fail.
+     */
+    private static boolean isRemovable(Ast.Field field) {
+        if (!field.getValue().isPresent()) {
+            return true;
+        }
+        Ast.Expr value = field.getValue().get();
+        return Rewriter.isSideEffectFree(value) && (value instanceof Ast.Expr.Literal || Ast.typeOf(value) != null);
+    }
+
+    /**
+     * Collects the methods called and the fields read or assigned by a method
+     * or field, by name.
+     */
+    private static final class References extends Traversal.Walk {
+
+        private final Set<String> methods = new HashSet<>();
+        private final Set<String> fields = new HashSet<>();
+
+        @Override
+        protected boolean enter(Ast ast) {
+            if (ast instanceof Ast.Expr.Access) {
+                Ast.Expr.Access access = (Ast.Expr.Access) ast;
+                if (!access.getReceiver().isPresent()) {
+                    fields.add(access.getName());
+                }
+            } else if (ast instanceof Ast.Expr.Function) {
+                Ast.Expr.Function function = (Ast.Expr.Function) ast;
+                if (!function.getReceiver().isPresent()) {
+                    methods.add(key(function.getName(), function.getArguments().size()));
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
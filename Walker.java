@@ -0,0 +1,117 @@
+package plc.project;
+
+import java.util.List;
+
+/**
+ * Base class for read-only traversals. Each visit method visits the children
+ * of a node in source order; subclasses override the visit methods for the
+ * nodes they are interested in, calling {@code super.visit} to continue into
+ * the children. Traversals recurse on the Java stack; see {@link Traversal}
+ * for walks that must handle arbitrarily deep trees.
+ */
+public abstract class Walker implements Ast.Visitor<Void> {
+
+    @Override
+    public Void visit(Ast.Source ast) {
+        visitAll(ast.getFields());
+        visitAll(ast.getMethods());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Field ast) {
+        ast.getValue().ifPresent(this::visit);
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Method ast) {
+        visitAll(ast.getStatements());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Stmt.Expression ast) {
+        visit(ast.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Stmt.Declaration ast) {
+        ast.getValue().ifPresent(this::visit);
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Stmt.Assignment ast) {
+        visit(ast.getReceiver());
+        visit(ast.getValue());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Stmt.If ast) {
+        visit(ast.getCondition());
+        visitAll(ast.getThenStatements());
+        visitAll(ast.getElseStatements());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Stmt.For ast) {
+        visit(ast.getValue());
+        visitAll(ast.getStatements());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Stmt.While ast) {
+        visit(ast.getCondition());
+        visitAll(ast.getStatements());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Stmt.Return ast) {
+        visit(ast.getValue());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expr.Literal ast) {
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expr.Group ast) {
+        visit(ast.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expr.Binary ast) {
+        visit(ast.getLeft());
+        visit(ast.getRight());
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expr.Access ast) {
+        ast.getReceiver().ifPresent(this::visit);
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expr.Function ast) {
+        ast.getReceiver().ifPresent(this::visit);
+        visitAll(ast.getArguments());
+        return null;
+    }
+
+    protected void visitAll(List<? extends Ast> asts) {
+        for (Ast ast : asts) {
+            visit(ast);
+        }
+    }
+
+}